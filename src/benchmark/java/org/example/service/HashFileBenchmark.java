@@ -0,0 +1,122 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.MapType;
+import org.example.util.FileUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Przepustowość zapisu i odczytu indeksu haszy: dotychczasowy zapis przez {@link ObjectMapper}
+ * (z wcięciami, odczyt do mapy całego pliku) wobec strumieniowego {@link HashFileCodec}
+ * i indeksu mapowanego {@link MappedHashIndex}.
+ * <p>
+ * Użycie: {@code HashFileBenchmark [liczba wpisów] [powtórzenia] [katalog roboczy]}.
+ * Wpisy mają ścieżki w układzie rok/miesiąc/plik, a co trzeci ma hasz pełny.
+ */
+public final class HashFileBenchmark {
+
+    private static final int DEFAULT_ENTRIES = 1_000_000;
+    private static final int DEFAULT_ROUNDS = 3;
+
+    private HashFileBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRIES;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        File directory = args.length > 2 ? new File(args[2]) : Files.createTempDirectory("mfbcm-bench").toFile();
+        Files.createDirectories(directory.toPath());
+
+        List<HashStorageService.FileHashInfo> entries = generateEntries(entryCount);
+        Map<String, HashStorageService.FileHashInfo> byPath = new HashMap<>();
+        for (HashStorageService.FileHashInfo info : entries) byPath.put(info.getRelativePath(), info);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        MapType mapType = objectMapper.getTypeFactory()
+            .constructMapType(HashMap.class, String.class, HashStorageService.FileHashInfo.class);
+        File prettyFile = new File(directory, "pretty.json");
+        File compactFile = new File(directory, "compact.json");
+        File indexFile = new File(directory, "index.idx");
+
+        long[][] times = new long[6][rounds];
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(prettyFile, byPath);
+            times[0][round] = elapsedMs(start);
+
+            start = System.nanoTime();
+            Map<String, HashStorageService.FileHashInfo> loaded = objectMapper.readValue(prettyFile, mapType);
+            times[1][round] = elapsedMs(start);
+            check(loaded.size(), entryCount);
+
+            start = System.nanoTime();
+            HashFileCodec.write(compactFile, entries::forEach);
+            times[2][round] = elapsedMs(start);
+
+            start = System.nanoTime();
+            int[] count = new int[1];
+            HashFileCodec.read(compactFile, _ -> count[0]++);
+            times[3][round] = elapsedMs(start);
+            check(count[0], entryCount);
+
+            start = System.nanoTime();
+            MappedHashIndex.write(indexFile, entries::forEach);
+            times[4][round] = elapsedMs(start);
+
+            start = System.nanoTime();
+            check(MappedHashIndex.open(indexFile).size(), entryCount);
+            times[5][round] = elapsedMs(start);
+        }
+
+        System.out.println("Hash file benchmark: " + entryCount + " entries, " + rounds + " rounds (median)");
+        System.out.println(String.format("%-28s %10s %10s %12s %12s", "Format", "size", "save ms", "load ms", "load ent/s"));
+        print("JSON ObjectMapper (pretty)", prettyFile, times[0], times[1], entryCount);
+        print("JSON streaming (compact)", compactFile, times[2], times[3], entryCount);
+        print("Mapped index (open only)", indexFile, times[4], times[5], entryCount);
+
+        Files.deleteIfExists(prettyFile.toPath());
+        Files.deleteIfExists(compactFile.toPath());
+        Files.deleteIfExists(indexFile.toPath());
+    }
+
+    private static void print(String name, File file, long[] saveTimes, long[] loadTimes, int entryCount) {
+        long loadMs = median(loadTimes);
+        System.out.println(String.format("%-28s %10s %10d %12d %12.0f", name, FileUtilities.formatFileSize(file.length()),
+            median(saveTimes), loadMs, entryCount / (Math.max(loadMs, 1) / 1000.0)));
+    }
+
+    private static List<HashStorageService.FileHashInfo> generateEntries(int count) {
+        Random random = new Random(42);
+        List<HashStorageService.FileHashInfo> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String path = String.format("%d/%02d/IMG_%07d.jpg", 2000 + i % 25, 1 + i % 12, i);
+            HashStorageService.FileHashInfo info = new HashStorageService.FileHashInfo(path, random.nextLong() | 1,
+                1_600_000_000_000L + random.nextInt(Integer.MAX_VALUE), 1 + random.nextInt(50 * 1024 * 1024));
+            if (i % 3 == 0) info.setFullHash(random.nextLong() | 1);
+            entries.add(info);
+        }
+        return entries;
+    }
+
+    private static void check(int actual, int expected) throws IOException {
+        if (actual != expected) throw new IOException("Expected " + expected + " entries, got " + actual);
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
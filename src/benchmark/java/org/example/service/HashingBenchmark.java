@@ -0,0 +1,128 @@
+package org.example.service;
+
+import org.example.model.BackupConfiguration.ExecutionMode;
+import org.example.model.BackupConfiguration.HashMode;
+import org.example.model.BackupConfiguration.HashScheduling;
+import org.example.util.DirectoryWalker;
+import org.example.util.FileUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Porównanie trybów wykonania {@link ExecutionMode}: stałej puli wątków i wątków wirtualnych,
+ * dla haszowania ({@link MultiThreadedHashCalculator}) i odczytu metadanych (jak w skanerach).
+ * <p>
+ * Użycie: {@code HashingBenchmark <katalog> [wątki] [powtórzenia] [--generate <liczba plików>]}.
+ * Z {@code --generate} w katalogu powstają losowe pliki JPEG po 2-5MB. Tryby są uruchamiane
+ * na przemian, więc oba widzą tak samo rozgrzany cache systemu plików - przy pomiarze zimnego
+ * odczytu cache trzeba opróżniać między przebiegami.
+ */
+public final class HashingBenchmark {
+
+    private static final int DEFAULT_ROUNDS = 3;
+    private static final int MIN_GENERATED_SIZE = 2 * 1024 * 1024;
+    private static final int MAX_GENERATED_SIZE = 5 * 1024 * 1024;
+
+    private HashingBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        int generate = 0;
+        int generateIndex = arguments.indexOf("--generate");
+        if (generateIndex >= 0 && generateIndex + 1 < arguments.size()) {
+            generate = Integer.parseInt(arguments.get(generateIndex + 1));
+            arguments.subList(generateIndex, generateIndex + 2).clear();
+        }
+        if (arguments.isEmpty()) {
+            System.err.println("Usage: HashingBenchmark <directory> [threads] [rounds] [--generate <file count>]");
+            System.exit(1);
+        }
+
+        File directory = new File(arguments.get(0));
+        int threads = arguments.size() > 1 ? Integer.parseInt(arguments.get(1)) : Runtime.getRuntime().availableProcessors();
+        int rounds = arguments.size() > 2 ? Integer.parseInt(arguments.get(2)) : DEFAULT_ROUNDS;
+        if (generate > 0) generateFiles(directory, generate);
+
+        List<File> files = new ArrayList<>();
+        new DirectoryWalker(true, null).walk(List.of(directory), files::add);
+        long totalBytes = files.stream().mapToLong(File::length).sum();
+        if (files.isEmpty()) {
+            System.err.println("No media files in " + directory.getAbsolutePath());
+            System.exit(1);
+        }
+        System.out.println("Benchmark: " + files.size() + " files, " + FileUtilities.formatFileSize(totalBytes) +
+            ", " + threads + " threads, " + Runtime.getRuntime().availableProcessors() + " cores, " + rounds + " rounds");
+
+        long[][] hashTimes = new long[ExecutionMode.values().length][rounds];
+        long[][] metadataTimes = new long[ExecutionMode.values().length][rounds];
+        for (int round = 0; round < rounds; round++) {
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                hashTimes[mode.ordinal()][round] = timeHashing(files, threads, mode);
+                metadataTimes[mode.ordinal()][round] = timeMetadata(files, threads, mode);
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-16s %12s %12s %12s %14s", "Mode", "hash ms", "MB/s", "files/s", "metadata ms"));
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            long hashMs = median(hashTimes[mode.ordinal()]);
+            long metadataMs = median(metadataTimes[mode.ordinal()]);
+            double seconds = Math.max(hashMs, 1) / 1000.0;
+            System.out.println(String.format("%-16s %12d %12.1f %12.0f %14d", mode, hashMs,
+                totalBytes / (1024.0 * 1024.0) / seconds, files.size() / seconds, metadataMs));
+        }
+    }
+
+    private static long timeHashing(List<File> files, int threads, ExecutionMode mode) throws InterruptedException {
+        MultiThreadedHashCalculator calculator = new MultiThreadedHashCalculator(
+            threads, HashMode.SAMPLED, HashScheduling.LARGEST_FIRST, mode);
+        long start = System.nanoTime();
+        calculator.calculateHashResults(files, null, () -> false);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /** To samo co skanery w trybie bez haszowania: jedno zadanie na plik odczytujące jego rozmiar. */
+    private static long timeMetadata(List<File> files, int threads, ExecutionMode mode) throws Exception {
+        ExecutorService executor = FileUtilities.newFileTaskExecutor(mode, threads, "MetadataBenchmark");
+        LongAdder bytes = new LongAdder();
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (File file : files) {
+                futures.add(executor.submit(() -> bytes.add(file.length())));
+            }
+            for (Future<?> future : futures) future.get();
+            return (System.nanoTime() - start) / 1_000_000;
+        } finally {
+            FileUtilities.shutdownExecutor(executor, 5);
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void generateFiles(File directory, int count) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Random random = new Random(42);
+        byte[] content = new byte[MAX_GENERATED_SIZE];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(content);
+            int size = MIN_GENERATED_SIZE + random.nextInt(MAX_GENERATED_SIZE - MIN_GENERATED_SIZE + 1);
+            File file = new File(directory, String.format("IMG_%06d.jpg", i));
+            Files.write(file.toPath(), Arrays.copyOf(content, size));
+        }
+        System.out.println("Generated " + count + " files in " + directory.getAbsolutePath());
+    }
+}
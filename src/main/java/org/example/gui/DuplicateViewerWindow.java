@@ -5,6 +5,8 @@ import org.example.model.DuplicateAnalysisResult;
 import org.example.model.DuplicatePair;
 import org.example.service.LanguageManager;
 import org.example.util.FileUtilities;
+import org.example.util.HashCodes;
+import org.example.util.LongObjectHashMap;
 
 import javax.swing.*;
 import javax.swing.table.AbstractTableModel;
@@ -389,7 +391,8 @@ public class DuplicateViewerWindow extends JDialog {
 
         public void setDuplicatePairs(List<DuplicatePair> pairs) {
             this.duplicatePairs = new ArrayList<>(pairs);
-            this.duplicatePairs.sort(Comparator.comparing(DuplicatePair::getHash, Comparator.nullsLast(Comparator.naturalOrder())));
+            this.duplicatePairs.sort((a, b) -> Long.compareUnsigned(
+                a.getSourceFile().getHashValue(), b.getSourceFile().getHashValue()));
 
             hashToGroupId.clear();
             rowToHash.clear();
@@ -448,13 +451,14 @@ public class DuplicateViewerWindow extends JDialog {
             };
         }
 
-        public void setDuplicateGroups(Map<String, List<BackupFile>> groups) {
+        public void setDuplicateGroups(LongObjectHashMap<List<BackupFile>> groups) {
             duplicateFiles.clear();
             hashToGroupId.clear();
             rowToHash.clear();
             hashToGroupSize.clear();
 
-            List<Map.Entry<String, List<BackupFile>>> sortedGroups = new ArrayList<>(groups.entrySet());
+            List<Map.Entry<String, List<BackupFile>>> sortedGroups = new ArrayList<>(groups.size());
+            groups.forEach((hash, files) -> sortedGroups.add(Map.entry(HashCodes.toHex(hash), files)));
             sortedGroups.sort(Map.Entry.comparingByKey());
 
             int groupId = 1, rowIndex = 0;
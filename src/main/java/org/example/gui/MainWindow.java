@@ -9,6 +9,8 @@ import org.example.service.*;
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -63,6 +65,8 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
     // Serwisy i stan
     private FileScanner currentScanner;
     private BackupService currentBackupService;
+    /** Pliki skopiowane do folderu głównego od ostatniego odświeżenia indeksu (tylko w EDT). */
+    private final List<BackupFile> copiedToMaster = new ArrayList<>();
     private DuplicateDetectionService currentDuplicateService;
     private SyncService currentSyncService;
     private FileDeleteService currentDeleteService;
@@ -72,6 +76,8 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
     public MainWindow() {
         this.configPersistenceService = new ConfigurationPersistenceService();
         this.configuration = configPersistenceService.loadConfiguration();
+        DeviceIoScheduler.getShared().configure(configuration);
+        PageCacheAdvisor.getShared().configure(configuration);
         LanguageManager.addLanguageChangeListener(this);
         initializeUI();
         setupEventHandlers();
@@ -487,6 +493,9 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
             backupProgressBar.setValue(0);
             backupProgressBar.setString(get("progress.scanning"));
 
+            copiedToMaster.clear();
+            // Obserwator wróci po zarejestrowaniu skopiowanych plików (albo od razu, jeśli nic nie skopiowano)
+            if (hashStorageService != null) hashStorageService.pauseWatching();
             currentBackupService = new BackupService(fileListPanel.getAllFiles(), configuration, this);
             currentBackupService.execute();
 
@@ -747,6 +756,8 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
             if (successCount > 0) {
                 statusLabel.setText(get("status.refreshingMaster"));
                 performAutomaticMasterRescan();
+            } else {
+                resumeMasterWatcher();
             }
         });
     }
@@ -763,8 +774,12 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
                 if (filesBackedUpBeforeCancellation > 0) {
                     statusLabel.setText(get("status.refreshingMaster"));
                     performAutomaticMasterRescan();
+                } else {
+                    resumeMasterWatcher();
                 }
             } else {
+                // Pliki skopiowane przed błędem zaindeksuje obserwator po wznowieniu
+                resumeMasterWatcher();
                 backupProgressBar.setString(get("dialog.error") + ": " + error);
                 statusLabel.setText(get("dialog.error"));
                 JOptionPane.showMessageDialog(this, get("dialog.error") + ": " + error,
@@ -776,7 +791,10 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
 
     @Override
     public void fileCompleted(BackupFile file, boolean success, String error) {
-        SwingUtilities.invokeLater(() -> fileListPanel.updateFileStatus(file));
+        SwingUtilities.invokeLater(() -> {
+            if (success && file.getMasterFile() != null) copiedToMaster.add(file);
+            fileListPanel.updateFileStatus(file);
+        });
     }
 
     @Override
@@ -911,17 +929,30 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
             return;
         }
 
+        if (hashStorageService != null) {
+            hashStorageService.stopWatching();
+        }
         hashStorageService = new HashStorageService(configuration.getMasterBackupLocation(),
-            configuration.getHashingThreadCount());
+            configuration.getHashingThreadCount(), configuration.getHashMode(), configuration.getHashScheduling());
+        hashStorageService.setAdaptiveThreads(configuration.isAdaptiveHashThreads());
+        hashStorageService.setExecutionMode(configuration.getExecutionMode());
+        // Przed walidacją - zmiany w trakcie jej trwania nie zostaną pominięte
+        startMasterWatcher();
 
         SwingWorker<HashStorageService.ValidationResult, String> validator = new SwingWorker<>() {
             @Override
             protected HashStorageService.ValidationResult doInBackground() throws Exception {
-                MultiThreadedHashCalculator.ProgressCallback progressCallback =
-                    (current, total, currentFile, _) -> {
-                        setProgress(Math.min((current * 100) / Math.max(1, total), 100));
+                MultiThreadedHashCalculator.ProgressCallback progressCallback = new MultiThreadedHashCalculator.ProgressCallback() {
+                    @Override
+                    public void onProgress(int current, int total, String currentFile, int errors) {
                         publish("Validating: " + currentFile + " (" + current + "/" + total + ")");
-                    };
+                    }
+
+                    @Override
+                    public void onBytes(long processedBytes, long totalBytes) {
+                        setProgress(MultiThreadedHashCalculator.ProgressCallback.bytePercent(processedBytes, totalBytes));
+                    }
+                };
                 return hashStorageService.validateAndUpdateHashesMultiThreaded(progressCallback, null);
             }
 
@@ -957,6 +988,20 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
         validator.execute();
     }
 
+    /** Indeks nadąża za zmianami w folderze głównym bez przeglądania całego drzewa. */
+    private void startMasterWatcher() {
+        try {
+            hashStorageService.startWatching(result -> SwingUtilities.invokeLater(() ->
+                statusLabel.setText(LanguageManager.get("master.updated", result.getTotalChanges()))));
+        } catch (IOException e) {
+            System.err.println("Failed to start master folder watcher: " + e.getMessage());
+        }
+    }
+
+    private void resumeMasterWatcher() {
+        if (hashStorageService != null) hashStorageService.resumeWatching();
+    }
+
     private void viewDuplicates() {
         if (lastDuplicateResult != null) {
             new DuplicateViewerWindow(this, lastDuplicateResult).setVisible(true);
@@ -1015,7 +1060,7 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
         scanProgressBar.setValue(0);
         scanProgressBar.setString(get("master.rescanningShort"));
 
-        createRescanWorker(false).execute();
+        createRescanWorker(null).execute();
     }
 
     private void performAutomaticMasterRescan() {
@@ -1026,26 +1071,52 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
         scanProgressBar.setValue(0);
         scanProgressBar.setString(get("master.refreshing"));
 
-        createRescanWorker(true).execute();
+        List<BackupFile> copiedFiles = List.copyOf(copiedToMaster);
+        copiedToMaster.clear();
+        createRescanWorker(copiedFiles).execute();
     }
 
-    private SwingWorker<HashStorageService.ValidationResult, String> createRescanWorker(boolean isAutomatic) {
+    /**
+     * @param copiedFiles pliki skopiowane przez kopię zapasową - odświeżenie automatyczne dopisuje
+     *                    tylko je; null oznacza pełne przehaszowanie na żądanie użytkownika
+     */
+    private SwingWorker<HashStorageService.ValidationResult, String> createRescanWorker(List<BackupFile> copiedFiles) {
+        boolean isAutomatic = copiedFiles != null;
         return new SwingWorker<>() {
             @Override
             protected HashStorageService.ValidationResult doInBackground() throws Exception {
-                MultiThreadedHashCalculator.ProgressCallback progressCallback =
-                    (current, total, currentFile, _) -> {
-                        if (!isCancelled()) {
-                            setProgress(Math.min((current * 100) / Math.max(1, total), 100));
-                            if (current >= total && currentFile.startsWith("Completed in ")) {
-                                lastTimingInfo = currentFile;
-                                publish("Master folder " + (isAutomatic ? "refresh " : "rescan ") + currentFile);
-                            } else {
-                                publish((isAutomatic ? "Refreshing: " : "Processing: ") + current + "/" + total);
-                            }
+                MultiThreadedHashCalculator.ProgressCallback progressCallback = new MultiThreadedHashCalculator.ProgressCallback() {
+                    private volatile String byteStatus = "";
+
+                    @Override
+                    public void onProgress(int current, int total, String currentFile, int errors) {
+                        if (isCancelled()) return;
+                        if (current >= total && currentFile.startsWith("Completed in ")) {
+                            lastTimingInfo = currentFile;
+                            publish("Master folder " + (isAutomatic ? "refresh " : "rescan ") + currentFile);
+                        } else {
+                            publish((isAutomatic ? "Refreshing: " : "Processing: ") + current + "/" + total + byteStatus);
                         }
-                    };
-                return hashStorageService.forceRehashMultiThreaded(progressCallback, this::isCancelled);
+                    }
+
+                    /** Pasek postępu idzie za bajtami - przy jednym dużym pliku licznik plików stoi w miejscu. */
+                    @Override
+                    public void onBytes(long processedBytes, long totalBytes) {
+                        if (isCancelled()) return;
+                        setProgress(MultiThreadedHashCalculator.ProgressCallback.bytePercent(processedBytes, totalBytes));
+                        byteStatus = " (" + org.example.util.FileUtilities.formatFileSize(processedBytes) + " / " +
+                            org.example.util.FileUtilities.formatFileSize(totalBytes) + ")";
+                    }
+                };
+                if (!isAutomatic) {
+                    return hashStorageService.forceRehashMultiThreaded(progressCallback, this::isCancelled);
+                }
+                try {
+                    return hashStorageService.registerCopiedFiles(copiedFiles, progressCallback, this::isCancelled);
+                } finally {
+                    // Zdarzenia z czasu kopiowania trafiają na już zarejestrowane pliki
+                    hashStorageService.resumeWatching();
+                }
             }
 
             @Override
@@ -1072,7 +1143,8 @@ public class MainWindow extends JFrame implements FileScanner.ScanProgressCallba
 
                     scanProgressBar.setString(timingInfo);
                     statusLabel.setText(isAutomatic
-                        ? LanguageManager.get("master.refreshCompleted", result.getTotalChanges())
+                        ? LanguageManager.get("master.refreshCompleted", result.getTotalChanges(),
+                            result.getSourceHashesReused(), result.getCopiedFilesHashed())
                         : LanguageManager.get("master.rescanCompleted", result.getTotalChanges()));
 
                     if (!isAutomatic) {
@@ -3,13 +3,33 @@ package org.example.model;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Konfiguracja kopii zapasowej zawierająca lokalizacje folderów i ustawienia.
  */
 public class BackupConfiguration {
 
+    /**
+     * Tryb haszowania dużych plików: próbkowanie fragmentów albo pełny odczyt strumieniowy.
+     */
+    public enum HashMode { SAMPLED, FULL }
+
+    /**
+     * Kolejność haszowania plików: w kolejności podania (alfabetycznej) albo od największych,
+     * żeby duże pliki nie kończyły się długo po tym, jak pozostałe wątki nie mają już pracy.
+     */
+    public enum HashScheduling { IN_ORDER, LARGEST_FIRST }
+
+    /**
+     * Wątki wykonujące operacje na plikach: stała pula wątków platformowych albo wątki wirtualne,
+     * które przy wielu małych plikach czekają na {@code open}/{@code read} bez blokowania rdzeni.
+     * Przy wątkach wirtualnych samo liczenie haszy jest ograniczone do liczby rdzeni.
+     */
+    public enum ExecutionMode { FIXED_POOL, VIRTUAL_THREADS }
+
     private static final int MAX_THREAD_MULTIPLIER = 2;
     private static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
 
@@ -20,6 +40,12 @@ public class BackupConfiguration {
     private boolean createDateFolders = false;
     private boolean skipHashing = false;
     private int hashingThreadCount = DEFAULT_THREAD_COUNT;
+    private HashMode hashMode = HashMode.SAMPLED;
+    private HashScheduling hashScheduling = HashScheduling.LARGEST_FIRST;
+    private boolean adaptiveHashThreads = false;
+    private ExecutionMode executionMode = ExecutionMode.FIXED_POOL;
+    private boolean pageCacheHints = true;
+    private final Map<File, Integer> deviceConcurrencyLimits = new LinkedHashMap<>();
 
     // ====== LOKALIZACJA GŁÓWNA ======
 
@@ -68,6 +94,39 @@ public class BackupConfiguration {
         this.hashingThreadCount = Math.clamp(count, 1, maxThreads);
     }
 
+    /**
+     * W trybie adaptacyjnym {@link #getHashingThreadCount()} jest górnym limitem, a liczba wątków
+     * pracujących na urządzeniu jest dobierana według zmierzonej przepustowości.
+     */
+    public boolean isAdaptiveHashThreads() { return adaptiveHashThreads; }
+    public void setAdaptiveHashThreads(boolean value) { this.adaptiveHashThreads = value; }
+
+    public HashMode getHashMode() { return hashMode; }
+    public void setHashMode(HashMode mode) { this.hashMode = mode != null ? mode : HashMode.SAMPLED; }
+
+    public HashScheduling getHashScheduling() { return hashScheduling; }
+    public void setHashScheduling(HashScheduling scheduling) {
+        this.hashScheduling = scheduling != null ? scheduling : HashScheduling.LARGEST_FIRST;
+    }
+
+    public ExecutionMode getExecutionMode() { return executionMode; }
+    public void setExecutionMode(ExecutionMode mode) {
+        this.executionMode = mode != null ? mode : ExecutionMode.FIXED_POOL;
+    }
+
+    /** Czy zwalniać pamięć podręczną stron po haszowaniu i kopiowaniu (posix_fadvise, tylko Linux). */
+    public boolean isPageCacheHints() { return pageCacheHints; }
+    public void setPageCacheHints(boolean value) { this.pageCacheHints = value; }
+
+    /** Ręczne limity równoległych operacji I/O; kluczem jest dowolna ścieżka na danym urządzeniu. */
+    public Map<File, Integer> getDeviceConcurrencyLimits() { return Collections.unmodifiableMap(deviceConcurrencyLimits); }
+
+    public void setDeviceConcurrencyLimit(File location, int limit) {
+        if (location != null && limit > 0) {
+            deviceConcurrencyLimits.put(location, limit);
+        }
+    }
+
     // ====== WALIDACJA ======
 
     private boolean isValidDirectory(File directory) {
@@ -1,6 +1,7 @@
 package org.example.model;
 
 import org.example.util.FileUtilities;
+import org.example.util.HashCodes;
 
 import java.io.File;
 import java.time.Instant;
@@ -25,14 +26,21 @@ public class BackupFile {
     public enum BackupStatus { PENDING, IN_PROGRESS, COMPLETED, ERROR, DUPLICATE, UNIQUE }
 
     private final File sourceFile;
-    private final String hash;
+    private final long hash;
     private final long size;
     private final LocalDateTime lastModified;
     private boolean selected = true;
     private BackupStatus status = BackupStatus.UNIQUE;
     private boolean existsInMaster = false;
+    private File masterFile;
+    private long hashedOnCopy = HashCodes.NO_HASH;
 
-    public BackupFile(File sourceFile, String hash) {
+    /** Plik bez hasza - nie był haszowany, bo nie może być duplikatem albo haszowanie jest wyłączone. */
+    public BackupFile(File sourceFile) {
+        this(sourceFile, HashCodes.NO_HASH);
+    }
+
+    public BackupFile(File sourceFile, long hash) {
         this.sourceFile = Objects.requireNonNull(sourceFile);
         this.hash = hash;
         this.size = sourceFile.length();
@@ -45,7 +53,10 @@ public class BackupFile {
     public File getSourceFile() { return sourceFile; }
     public String getFileName() { return sourceFile.getName(); }
     public String getPath() { return sourceFile.getAbsolutePath(); }
-    public String getHash() { return hash; }
+    public long getHashValue() { return hash; }
+    public boolean hasHash() { return HashCodes.isPresent(hash); }
+    /** Postać szesnastkowa dla interfejsu użytkownika; null dla pliku bez hasza. */
+    public String getHash() { return HashCodes.toHex(hash); }
     public long getSize() { return size; }
     public LocalDateTime getLastModified() { return lastModified; }
 
@@ -65,6 +76,18 @@ public class BackupFile {
     public boolean isExistsInMaster() { return existsInMaster; }
     public void setExistsInMaster(boolean existsInMaster) { this.existsInMaster = existsInMaster; }
 
+    /** Kopia pliku w folderze głównym - ustawiana po udanym skopiowaniu, wcześniej null. */
+    public File getMasterFile() { return masterFile; }
+    public void setMasterFile(File masterFile) { this.masterFile = masterFile; }
+
+    /**
+     * Hasz zawartości do rejestracji kopii w indeksie folderu głównego: hasz ze skanowania albo,
+     * dla pliku bez hasza, policzony przy kopiowaniu. {@link HashCodes#NO_HASH}, gdy brak obu.
+     */
+    public long getContentHash() { return hasHash() ? hash : hashedOnCopy; }
+    /** Nie zmienia {@link #getHashValue()}, więc ani równości, ani grupowania duplikatów. */
+    public void setHashedOnCopy(long hash) { this.hashedOnCopy = hash; }
+
     // ====== TYP PLIKU ======
 
     public String getFileExtension() {
@@ -85,9 +108,11 @@ public class BackupFile {
     public boolean equals(Object obj) {
         if (this == obj) return true;
         if (!(obj instanceof BackupFile that)) return false;
-        return Objects.equals(hash, that.hash);
+        // Pliki bez hasza (pominięte przy haszowaniu) porównujemy po ścieżce
+        if (!hasHash() || !that.hasHash()) return hash == that.hash && sourceFile.equals(that.sourceFile);
+        return hash == that.hash;
     }
 
     @Override
-    public int hashCode() { return Objects.hashCode(hash); }
+    public int hashCode() { return hasHash() ? Long.hashCode(hash) : sourceFile.hashCode(); }
 }
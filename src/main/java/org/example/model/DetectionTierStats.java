@@ -0,0 +1,18 @@
+package org.example.model;
+
+import org.example.util.FileUtilities;
+
+/**
+ * Statystyki jednego etapu wykrywania duplikatów: ilu kandydatów weszło do etapu,
+ * ilu zostało wykluczonych i ile bajtów trzeba było w nim odczytać.
+ */
+public record DetectionTierStats(String tierName, int candidates, int eliminated, long bytesRead, long timeMs) {
+
+    public int getSurvivors() { return candidates - eliminated; }
+
+    @Override
+    public String toString() {
+        return tierName + ": " + candidates + " candidates, " + eliminated + " eliminated, " +
+            FileUtilities.formatFileSize(bytesRead) + " read in " + FileUtilities.formatDuration(timeMs);
+    }
+}
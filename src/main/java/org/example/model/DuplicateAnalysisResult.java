@@ -1,11 +1,10 @@
 package org.example.model;
 
 import org.example.util.FileUtilities;
+import org.example.util.LongObjectHashMap;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Wynik analizy duplikatów plików między katalogiem źródłowym a główną kopią zapasową.
@@ -18,7 +17,8 @@ public class DuplicateAnalysisResult {
     private final List<BackupFile> duplicatesInSource = new ArrayList<>();
     private final List<BackupFile> newFiles = new ArrayList<>();
     private final List<DuplicatePair> duplicatePairs = new ArrayList<>();
-    private final Map<String, List<BackupFile>> sourceDuplicateGroups = new HashMap<>();
+    private final LongObjectHashMap<List<BackupFile>> sourceDuplicateGroups = new LongObjectHashMap<>();
+    private final List<DetectionTierStats> tierStats = new ArrayList<>();
     private long processingTimeMs;
     private double throughputMbPerSec;
 
@@ -31,11 +31,12 @@ public class DuplicateAnalysisResult {
     public void setNewFiles(List<BackupFile> files) { replaceList(newFiles, files); }
     public void setDuplicatePairs(List<DuplicatePair> pairs) { replaceList(duplicatePairs, pairs); }
 
-    public void setSourceDuplicateGroups(Map<String, List<BackupFile>> groups) {
+    public void setSourceDuplicateGroups(LongObjectHashMap<List<BackupFile>> groups) {
         sourceDuplicateGroups.clear();
-        sourceDuplicateGroups.putAll(groups);
+        groups.forEach(sourceDuplicateGroups::put);
     }
 
+    public void setTierStats(List<DetectionTierStats> stats) { replaceList(tierStats, stats); }
     public void setProcessingTimeMs(long time) { this.processingTimeMs = time; }
     public void setThroughputMbPerSec(double throughput) { this.throughputMbPerSec = throughput; }
 
@@ -46,7 +47,8 @@ public class DuplicateAnalysisResult {
     public List<BackupFile> getDuplicatesInMaster() { return duplicatesInMaster; }
     public List<BackupFile> getDuplicatesInSource() { return duplicatesInSource; }
     public List<DuplicatePair> getDuplicatePairs() { return duplicatePairs; }
-    public Map<String, List<BackupFile>> getSourceDuplicateGroups() { return sourceDuplicateGroups; }
+    public LongObjectHashMap<List<BackupFile>> getSourceDuplicateGroups() { return sourceDuplicateGroups; }
+    public List<DetectionTierStats> getTierStats() { return tierStats; }
     public long getProcessingTimeMs() { return processingTimeMs; }
     public double getThroughputMbPerSec() { return throughputMbPerSec; }
 
@@ -1,6 +1,7 @@
 package org.example.service;
 
 import org.example.model.BackupConfiguration;
+import org.example.model.BackupConfiguration.HashMode;
 import org.example.model.BackupFile;
 import org.example.model.OperationProgress;
 import org.example.util.FileUtilities;
@@ -8,6 +9,8 @@ import org.example.util.FileUtilities;
 import javax.swing.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
@@ -62,7 +65,9 @@ public class BackupService extends SwingWorker<Boolean, OperationProgress> {
 
             try {
                 File destinationFile = calculateDestinationPath(backupFile);
-                if (copyFile(backupFile.getSourceFile(), destinationFile)) {
+                File copiedFile = copyFile(backupFile, destinationFile);
+                if (copiedFile != null) {
+                    backupFile.setMasterFile(copiedFile);
                     backupFile.setStatus(BackupFile.BackupStatus.COMPLETED);
                     backupFile.setSelected(false);
                     successCount++;
@@ -129,14 +134,49 @@ public class BackupService extends SwingWorker<Boolean, OperationProgress> {
         return new File(masterLocation, fileName);
     }
 
-    private boolean copyFile(File source, File destination) throws IOException {
+    /** Zwraca plik docelowy (nazwa może się różnić przy konflikcie) albo null, gdy kopia jest niepełna. */
+    private File copyFile(BackupFile backupFile, File destination) throws IOException {
+        File source = backupFile.getSourceFile();
         validateDiskSpace(source, destination);
 
         File finalDestination = resolveNameConflict(destination);
         ensureParentDirectoryExists(finalDestination);
 
-        Files.copy(source.toPath(), finalDestination.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
-        return finalDestination.exists() && finalDestination.length() == source.length();
+        try {
+            DeviceIoScheduler.getShared().run(source, finalDestination, () -> {
+                hashBeforeCopy(backupFile);
+                return Files.copy(source.toPath(), finalDestination.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+            });
+            PageCacheAdvisor.getShared().dropCache(source);
+            PageCacheAdvisor.getShared().dropCache(finalDestination);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for device: " + source.getName());
+        }
+        return finalDestination.exists() && finalDestination.length() == source.length() ? finalDestination : null;
+    }
+
+    /**
+     * Haszuje plik źródłowy bez hasza (np. o unikalnym rozmiarze, pominięty przy skanowaniu), żeby
+     * rejestracja kopii w indeksie folderu głównego przejęła hasz zamiast czytać kopię od nowa.
+     * Odczytane strony źródła zaraz posłużą kopiowaniu. Pomijane są pliki próbkowane w trybie FULL -
+     * ich wpis wymaga hasza pełnego, liczonego dopiero przy rejestracji. Błąd haszowania nie przerywa
+     * kopii - plik zostanie wtedy zahaszowany po skopiowaniu.
+     */
+    private void hashBeforeCopy(BackupFile backupFile) {
+        File source = backupFile.getSourceFile();
+        if (backupFile.hasHash() || (FileHasher.isSampled(source.length()) && configuration.getHashMode() == HashMode.FULL)) {
+            return;
+        }
+        HashingEngine engine = HashingEngine.getShared();
+        FileHasher hasher = engine.borrowHasher();
+        try (FileChannel channel = FileHasher.open(source)) {
+            backupFile.setHashedOnCopy(hasher.hash(channel, SamplePlan.forFile(source)));
+        } catch (IOException e) {
+            System.err.println("Could not hash " + source.getName() + " before copying: " + e.getMessage());
+        } finally {
+            engine.returnHasher(hasher);
+        }
     }
 
     private void validateDiskSpace(File source, File destination) throws IOException {
@@ -0,0 +1,65 @@
+package org.example.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Najlepsza liczba wątków haszujących znaleziona w trybie adaptacyjnym, zapamiętana dla urządzenia
+ * (identyfikator z {@link DeviceIoScheduler}) między uruchomieniami. Kolejny przebieg na tym samym
+ * urządzeniu zaczyna od zapamiętanej wartości zamiast od nowa szukać plateau przepustowości.
+ * <p>
+ * Plik {@code hash_concurrency.properties} leży obok {@code config.properties}.
+ */
+public final class ConcurrencyHistory {
+
+    private static final String FILE_NAME = "hash_concurrency.properties";
+    private static final ConcurrencyHistory SHARED =
+        new ConcurrencyHistory(new File(ConfigurationPersistenceService.getConfigDirectory(), FILE_NAME));
+
+    private final File file;
+    private final Properties threadsByDevice = new Properties();
+
+    ConcurrencyHistory(File file) {
+        this.file = file;
+        load();
+    }
+
+    public static ConcurrencyHistory getShared() { return SHARED; }
+
+    /** Zapamiętana liczba wątków dla urządzenia albo 0, jeśli jej nie ma. */
+    public synchronized int recall(String deviceId) {
+        String value = threadsByDevice.getProperty(deviceId);
+        if (value == null) return 0;
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public synchronized void remember(String deviceId, int threads) {
+        if (threads < 1 || recall(deviceId) == threads) return;
+        threadsByDevice.setProperty(deviceId, String.valueOf(threads));
+        save();
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try (FileInputStream in = new FileInputStream(file)) {
+            threadsByDevice.load(in);
+        } catch (IOException e) {
+            System.err.println("Failed to load hashing concurrency history: " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            threadsByDevice.store(out, "Best hashing thread count per device (adaptive mode)");
+        } catch (IOException e) {
+            System.err.println("Failed to save hashing concurrency history: " + e.getMessage());
+        }
+    }
+}
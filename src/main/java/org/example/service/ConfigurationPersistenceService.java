@@ -16,6 +16,7 @@ public class ConfigurationPersistenceService {
 
     private static final String CONFIG_FILE_NAME = "config.properties";
     private static final String SOURCE_DIR_SEPARATOR = "|";
+    private static final String DEVICE_LIMIT_SEPARATOR = "=";
 
     private final File configFile;
 
@@ -60,6 +61,19 @@ public class ConfigurationPersistenceService {
         properties.setProperty("createDateFolders", String.valueOf(config.isCreateDateFolders()));
         properties.setProperty("skipHashing", String.valueOf(config.isSkipHashing()));
         properties.setProperty("hashingThreadCount", String.valueOf(config.getHashingThreadCount()));
+        properties.setProperty("hashMode", config.getHashMode().name());
+        properties.setProperty("hashScheduling", config.getHashScheduling().name());
+        properties.setProperty("adaptiveHashThreads", String.valueOf(config.isAdaptiveHashThreads()));
+        properties.setProperty("executionMode", config.getExecutionMode().name());
+        properties.setProperty("pageCacheHints", String.valueOf(config.isPageCacheHints()));
+
+        if (!config.getDeviceConcurrencyLimits().isEmpty()) {
+            String deviceLimits = config.getDeviceConcurrencyLimits().entrySet().stream()
+                    .map(e -> e.getKey().getAbsolutePath() + DEVICE_LIMIT_SEPARATOR + e.getValue())
+                    .reduce((a, b) -> a + SOURCE_DIR_SEPARATOR + b)
+                    .orElse("");
+            properties.setProperty("deviceConcurrency", deviceLimits);
+        }
         properties.setProperty("lastSaved", String.valueOf(System.currentTimeMillis()));
 
         try (FileOutputStream out = new FileOutputStream(configFile)) {
@@ -83,6 +97,7 @@ public class ConfigurationPersistenceService {
             loadSourceDirectories(properties, config);
             loadSyncLocations(properties, config);
             loadOptions(properties, config);
+            loadDeviceConcurrency(properties, config);
         } catch (IOException e) {
             System.err.println("Failed to load configuration: " + e.getMessage());
         }
@@ -150,6 +165,63 @@ public class ConfigurationPersistenceService {
                 // Użyj domyślnej wartości
             }
         }
+
+        String hashMode = properties.getProperty("hashMode");
+        if (hashMode != null) {
+            try {
+                config.setHashMode(BackupConfiguration.HashMode.valueOf(hashMode.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                // Użyj domyślnej wartości
+            }
+        }
+
+        String adaptiveHashThreads = properties.getProperty("adaptiveHashThreads");
+        if (adaptiveHashThreads != null) {
+            config.setAdaptiveHashThreads(Boolean.parseBoolean(adaptiveHashThreads));
+        }
+
+        String hashScheduling = properties.getProperty("hashScheduling");
+        if (hashScheduling != null) {
+            try {
+                config.setHashScheduling(BackupConfiguration.HashScheduling.valueOf(hashScheduling.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                // Użyj domyślnej wartości
+            }
+        }
+
+        String pageCacheHints = properties.getProperty("pageCacheHints");
+        if (pageCacheHints != null) {
+            config.setPageCacheHints(Boolean.parseBoolean(pageCacheHints));
+        }
+
+        String executionMode = properties.getProperty("executionMode");
+        if (executionMode != null) {
+            try {
+                config.setExecutionMode(BackupConfiguration.ExecutionMode.valueOf(executionMode.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                // Użyj domyślnej wartości
+            }
+        }
+    }
+
+    /** Format: {@code ścieżka=limit|ścieżka=limit}, np. {@code E:\=1|D:\=8}. */
+    private void loadDeviceConcurrency(Properties properties, BackupConfiguration config) {
+        String deviceConcurrency = properties.getProperty("deviceConcurrency");
+        if (deviceConcurrency == null || deviceConcurrency.isEmpty()) return;
+
+        for (String entry : deviceConcurrency.split(Pattern.quote(SOURCE_DIR_SEPARATOR))) {
+            int separator = entry.lastIndexOf(DEVICE_LIMIT_SEPARATOR);
+            if (separator <= 0) continue;
+            File location = new File(entry.substring(0, separator).trim());
+            try {
+                int limit = Integer.parseInt(entry.substring(separator + 1).trim());
+                if (location.exists()) {
+                    config.setDeviceConcurrencyLimit(location, limit);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid device concurrency entry: " + entry);
+            }
+        }
     }
 
     // ====== POMOCNICZE ======
@@ -163,19 +235,22 @@ public class ConfigurationPersistenceService {
     }
 
     private File getConfigFile() {
+        return new File(getConfigDirectory(), CONFIG_FILE_NAME);
+    }
+
+    /** Katalog plików konfiguracyjnych: katalog pliku JAR albo, poza JAR-em, katalog roboczy. */
+    static File getConfigDirectory() {
         try {
             String jarPath = ConfigurationPersistenceService.class.getProtectionDomain()
                     .getCodeSource().getLocation().toURI().getPath();
 
             File jarFile = new File(jarPath);
-            File jarDirectory = (jarFile.isFile() && jarPath.endsWith(".jar"))
+            return (jarFile.isFile() && jarPath.endsWith(".jar"))
                 ? jarFile.getParentFile()
                 : new File(System.getProperty("user.dir"));
-
-            return new File(jarDirectory, CONFIG_FILE_NAME);
         } catch (Exception e) {
             System.err.println("Could not determine JAR location, using current directory: " + e.getMessage());
-            return new File(System.getProperty("user.dir"), CONFIG_FILE_NAME);
+            return new File(System.getProperty("user.dir"));
         }
     }
-}
\ No newline at end of file
+}
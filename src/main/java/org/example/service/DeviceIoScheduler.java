@@ -0,0 +1,184 @@
+package org.example.service;
+
+import org.example.model.BackupConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Harmonogram operacji I/O grupujący pracę według urządzenia ({@link FileStore}).
+ * Każde urządzenie ma własny limit równoległych operacji wspólny dla całej aplikacji,
+ * więc haszowanie, kopia zapasowa i synchronizacja razem nie przeciążają jednego dysku.
+ * <p>
+ * Limit pochodzi z konfiguracji ({@code deviceConcurrency}) albo jest dobierany automatycznie:
+ * dyski obrotowe dostają mały limit, sieciowe umiarkowany, pozostałe (SSD/NVMe) nie są
+ * ograniczane ponad liczbę wątków wywołującego.
+ */
+public final class DeviceIoScheduler {
+
+    private static final DeviceIoScheduler SHARED = new DeviceIoScheduler();
+
+    private static final int ROTATIONAL_LIMIT = 2;
+    private static final int NETWORK_LIMIT = 4;
+    private static final int UNLIMITED = Integer.MAX_VALUE;
+    private static final Set<String> NETWORK_FILE_SYSTEMS = Set.of(
+        "nfs", "nfs4", "cifs", "smbfs", "smb2", "fuse.sshfs", "afpfs", "webdav", "davfs");
+
+    private final Map<Path, Device> devicesByDirectory = new ConcurrentHashMap<>();
+    private final Map<String, Device> devicesById = new ConcurrentHashMap<>();
+    private volatile Map<String, Integer> configuredLimits = Map.of();
+
+    private DeviceIoScheduler() {}
+
+    public static DeviceIoScheduler getShared() { return SHARED; }
+
+    /**
+     * Ustawia limity skonfigurowane przez użytkownika (ścieżka na urządzeniu → limit).
+     * Trwające operacje dokończą pracę na dotychczasowych semaforach.
+     */
+    public void configure(BackupConfiguration configuration) {
+        Map<String, Integer> limits = new ConcurrentHashMap<>();
+        configuration.getDeviceConcurrencyLimits().forEach((location, limit) -> {
+            String id = storeId(location.toPath());
+            if (id != null) limits.put(id, limit);
+        });
+        configuredLimits = limits;
+        devicesByDirectory.clear();
+        devicesById.clear();
+    }
+
+    // ====== URZĄDZENIA ======
+
+    /** Urządzenie pliku; wynik jest zapamiętywany dla katalogu nadrzędnego. */
+    public Device deviceFor(File file) {
+        Path path = file.toPath().toAbsolutePath();
+        Path directory = path.getParent() != null ? path.getParent() : path;
+        return devicesByDirectory.computeIfAbsent(directory, this::resolveDevice);
+    }
+
+    private Device resolveDevice(Path directory) {
+        try {
+            FileStore store = Files.getFileStore(directory);
+            String id = storeId(store);
+            return devicesById.computeIfAbsent(id, _ -> new Device(id, limitFor(id, store)));
+        } catch (IOException e) {
+            String id = "unknown:" + directory.getRoot();
+            return devicesById.computeIfAbsent(id, _ -> new Device(id, UNLIMITED));
+        }
+    }
+
+    private int limitFor(String id, FileStore store) {
+        Integer configured = configuredLimits.get(id);
+        if (configured != null) return configured;
+        if (NETWORK_FILE_SYSTEMS.contains(store.type().toLowerCase())) return NETWORK_LIMIT;
+        if (isRotational(store)) return ROTATIONAL_LIMIT;
+        return UNLIMITED;
+    }
+
+    private static String storeId(Path path) {
+        try {
+            return storeId(Files.getFileStore(path));
+        } catch (IOException e) {
+            System.err.println("Cannot resolve device for " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String storeId(FileStore store) {
+        return store.name().startsWith("/dev/") ? store.name() : store.toString();
+    }
+
+    /**
+     * Na Linuksie odczytuje {@code /sys/class/block/<dev>/queue/rotational}; dla partycji
+     * flaga znajduje się w katalogu urządzenia nadrzędnego. Na innych systemach zwraca false.
+     */
+    private static boolean isRotational(FileStore store) {
+        String name = store.name();
+        if (!name.startsWith("/dev/")) return false;
+
+        Path blockDevice = Path.of("/sys/class/block", name.substring("/dev/".length()));
+        try {
+            Path device = blockDevice.toRealPath();
+            Path flag = device.resolve("queue/rotational");
+            if (!Files.exists(flag) && device.getParent() != null) {
+                flag = device.getParent().resolve("queue/rotational");
+            }
+            return Files.exists(flag) && Files.readString(flag).trim().equals("1");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // ====== WYKONYWANIE ======
+
+    /**
+     * Wykonuje operację, zajmując po jednym miejscu na każdym z podanych urządzeń.
+     * Miejsca są zajmowane w stałej kolejności, co wyklucza zakleszczenie między operacjami.
+     */
+    public <T> T run(File source, File target, IoAction<T> action) throws IOException, InterruptedException {
+        Device first = deviceFor(source);
+        Device second = deviceFor(target);
+        if (first == second) {
+            second = null;
+        } else if (first.getId().compareTo(second.getId()) > 0) {
+            Device swap = first;
+            first = second;
+            second = swap;
+        }
+
+        first.acquire();
+        try {
+            if (second != null) second.acquire();
+            try {
+                return action.execute();
+            } finally {
+                if (second != null) second.release();
+            }
+        } finally {
+            first.release();
+        }
+    }
+
+    @FunctionalInterface
+    public interface IoAction<T> {
+        T execute() throws IOException;
+    }
+
+    /**
+     * Urządzenie z semaforem ograniczającym liczbę równoległych operacji.
+     */
+    public static final class Device {
+        private final String id;
+        private final int limit;
+        private final Semaphore permits;
+
+        Device(String id, int limit) {
+            this.id = id;
+            this.limit = limit;
+            this.permits = new Semaphore(limit, true);
+            System.out.println("I/O device " + id + " limited to " +
+                (limit == UNLIMITED ? "caller thread count" : limit + " concurrent operations"));
+        }
+
+        public String getId() { return id; }
+        public int getLimit() { return limit; }
+        public boolean isLimited() { return limit != UNLIMITED; }
+
+        public boolean tryAcquire() { return permits.tryAcquire(); }
+
+        public boolean tryAcquire(long timeoutMs) throws InterruptedException {
+            return permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        public void acquire() throws InterruptedException { permits.acquire(); }
+        public void release() { permits.release(); }
+    }
+}
@@ -0,0 +1,140 @@
+package org.example.service;
+
+import net.openhft.hashing.LongHashFunction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Odciski katalogów folderu głównego z ostatniej walidacji: data modyfikacji katalogu, liczba
+ * plików multimedialnych i skrót ich nazw i rozmiarów. Dodanie, usunięcie lub zmiana nazwy pliku
+ * zmienia datę modyfikacji katalogu, więc katalog z niezmienioną datą nie musi być listowany,
+ * a jego pliki - sprawdzane. Skrót pozwala potwierdzić, że indeks haszy nadal zawiera dokładnie
+ * te pliki (np. plik, którego nie udało się przehaszować, wymusza ponowne sprawdzenie katalogu).
+ * <p>
+ * Data katalogu zmieniona w tej samej chwili co zapis odcisku mogłaby ukryć zmianę, dlatego
+ * odcisk jest wiarygodny tylko dla katalogów zmienionych co najmniej {@value #RACY_WINDOW_MS} ms
+ * przed rozpoczęciem walidacji, która go zapisała. Zmiana zawartości pliku w miejscu nie zmienia
+ * daty katalogu - wykrywa ją pełne przehaszowanie.
+ * <p>
+ * Ścieżki katalogów są względne, z separatorem {@code /}; folder główny to pusta ścieżka.
+ */
+final class DirectoryFingerprints {
+
+    private static final int MAGIC = 0x4D464431; // "MFD1"
+    /** Rozdzielczość dat w systemach plików (FAT: 2 s) z zapasem. */
+    static final long RACY_WINDOW_MS = 2_000;
+
+    private static final LongHashFunction NAME_HASH = LongHashFunction.xx3();
+    private static final long SIZE_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    record Fingerprint(long modified, int fileCount, long digest) {}
+
+    private final long scanStartedAt;
+    private final Map<String, Fingerprint> fingerprints = new HashMap<>();
+    private Map<String, List<String>> subdirectories;
+
+    DirectoryFingerprints(long scanStartedAt) {
+        this.scanStartedAt = scanStartedAt;
+    }
+
+    static DirectoryFingerprints empty() { return new DirectoryFingerprints(0); }
+
+    // ====== ODCZYT ======
+
+    Fingerprint get(String directory) { return fingerprints.get(directory); }
+
+    boolean isEmpty() { return fingerprints.isEmpty(); }
+
+    /** Czy katalog o tej dacie modyfikacji na pewno nie zmienił się od zapisania odcisku. */
+    boolean isUnchanged(Fingerprint fingerprint, long modified) {
+        return fingerprint != null && modified > 0 && fingerprint.modified() == modified
+            && modified < scanStartedAt - RACY_WINDOW_MS;
+    }
+
+    /** Nazwy podkatalogów znanych z poprzedniej walidacji (zapisanych jako osobne odciski). */
+    List<String> subdirectories(String directory) {
+        if (subdirectories == null) {
+            subdirectories = new HashMap<>();
+            for (String path : fingerprints.keySet()) {
+                if (path.isEmpty()) continue;
+                int slash = path.lastIndexOf('/');
+                subdirectories.computeIfAbsent(slash < 0 ? "" : path.substring(0, slash), _ -> new ArrayList<>())
+                    .add(path.substring(slash + 1));
+            }
+        }
+        return subdirectories.getOrDefault(directory, List.of());
+    }
+
+    // ====== ZAPIS ======
+
+    void put(String directory, Fingerprint fingerprint) {
+        fingerprints.put(directory, fingerprint);
+        subdirectories = null;
+    }
+
+    /** Składnik skrótu katalogu; skrót to suma składników, więc kolejność plików nie ma znaczenia. */
+    static long digestOf(String fileName, long size) {
+        return NAME_HASH.hashChars(fileName) ^ (size * SIZE_MULTIPLIER);
+    }
+
+    static String directoryOf(String relativePath) {
+        int slash = relativePath.lastIndexOf('/');
+        return slash < 0 ? "" : relativePath.substring(0, slash);
+    }
+
+    static String fileNameOf(String relativePath) {
+        return relativePath.substring(relativePath.lastIndexOf('/') + 1);
+    }
+
+    // ====== PERSYSTENCJA ======
+
+    /** Brak lub uszkodzenie pliku daje pusty zbiór - wszystkie katalogi zostaną sprawdzone. */
+    static DirectoryFingerprints load(File file) {
+        if (!file.exists()) return empty();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16))) {
+            if (in.readInt() != MAGIC) return empty();
+            DirectoryFingerprints loaded = new DirectoryFingerprints(in.readLong());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String directory = in.readUTF();
+                loaded.fingerprints.put(directory, new Fingerprint(in.readLong(), in.readInt(), in.readLong()));
+            }
+            return loaded;
+        } catch (IOException e) {
+            System.err.println("Failed to load directory fingerprints: " + e.getMessage());
+            return empty();
+        }
+    }
+
+    void save(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath()), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeLong(scanStartedAt);
+            out.writeInt(fingerprints.size());
+            for (Map.Entry<String, Fingerprint> entry : fingerprints.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().modified());
+                out.writeInt(entry.getValue().fileCount());
+                out.writeLong(entry.getValue().digest());
+            }
+        }
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
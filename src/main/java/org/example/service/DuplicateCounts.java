@@ -0,0 +1,129 @@
+package org.example.service;
+
+import org.example.util.HashCodes;
+
+/**
+ * Liczba wpisów indeksu dla każdego klucza zawartości, z sumami dla całego folderu głównego:
+ * grupy duplikatów (klucze z co najmniej dwoma wpisami), nadmiarowe kopie i zajmowane przez
+ * nie bajty. Dodanie i usunięcie wpisu to O(1), więc sumy są zawsze aktualne i nie wymagają
+ * przeglądania indeksu ani dysku.
+ * <p>
+ * Tablica z adresowaniem otwartym jak w {@code LongObjectHashMap}, ale z kolumnami prymitywów
+ * zamiast obiektów: klucz, liczba wpisów i rozmiar pliku (wspólny dla wszystkich kopii tej
+ * samej zawartości). Wszystkie metody są synchronizowane.
+ */
+final class DuplicateCounts {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] counts;
+    private long[] sizes;
+    private int size;
+    private int groups;
+    private long duplicateFiles;
+    private long wastedBytes;
+
+    DuplicateCounts(int expectedKeys) {
+        allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedKeys) * 2 - 1) << 1));
+    }
+
+    // ====== ODCZYT ======
+
+    synchronized HashStorageService.DuplicateSummary summary() {
+        return new HashStorageService.DuplicateSummary(groups, duplicateFiles, wastedBytes);
+    }
+
+    /** Klucze zawartości, które mają więcej niż jeden wpis. */
+    synchronized long[] duplicateKeys() {
+        long[] result = new long[groups];
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (counts[slot] > 1) result[n++] = keys[slot];
+        }
+        return result;
+    }
+
+    // ====== ZAPIS ======
+
+    synchronized void add(long key, long fileSize) {
+        if (!HashCodes.isPresent(key)) return;
+        int mask = keys.length - 1;
+        for (int slot = HashCodes.mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                if (++counts[slot] == 2) groups++;
+                duplicateFiles++;
+                wastedBytes += sizes[slot];
+                return;
+            }
+            if (keys[slot] == HashCodes.NO_HASH) {
+                keys[slot] = key;
+                counts[slot] = 1;
+                sizes[slot] = fileSize;
+                if (++size * 2 > keys.length) resize(keys.length * 2);
+                return;
+            }
+        }
+    }
+
+    synchronized void remove(long key) {
+        int slot = findSlot(key);
+        if (slot < 0) return;
+        if (counts[slot] > 1) {
+            if (--counts[slot] == 1) groups--;
+            duplicateFiles--;
+            wastedBytes -= sizes[slot];
+            return;
+        }
+
+        // Ostatni wpis - przesunięcie wstecz kolejnych kluczy z tej samej sekwencji sondowania
+        int mask = keys.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != HashCodes.NO_HASH; next = (next + 1) & mask) {
+            int home = HashCodes.mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                counts[gap] = counts[next];
+                sizes[gap] = sizes[next];
+                gap = next;
+            }
+        }
+        keys[gap] = HashCodes.NO_HASH;
+        counts[gap] = 0;
+        sizes[gap] = 0;
+        size--;
+    }
+
+    // ====== POMOCNICZE ======
+
+    private int findSlot(long key) {
+        if (!HashCodes.isPresent(key)) return -1;
+        int mask = keys.length - 1;
+        for (int slot = HashCodes.mix(key) & mask; keys[slot] != HashCodes.NO_HASH; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        long[] oldSizes = sizes;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == HashCodes.NO_HASH) continue;
+            int slot = HashCodes.mix(oldKeys[i]) & mask;
+            while (keys[slot] != HashCodes.NO_HASH) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+            sizes[slot] = oldSizes[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        counts = new int[capacity];
+        sizes = new long[capacity];
+    }
+}
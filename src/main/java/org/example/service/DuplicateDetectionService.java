@@ -1,10 +1,16 @@
 package org.example.service;
 
 import org.example.model.BackupConfiguration;
+import org.example.model.BackupConfiguration.HashMode;
 import org.example.model.BackupFile;
+import org.example.model.DetectionTierStats;
 import org.example.model.DuplicateAnalysisResult;
 import org.example.model.DuplicatePair;
+import org.example.util.DirectoryWalker;
 import org.example.util.FileUtilities;
+import org.example.util.HashCodes;
+import org.example.util.LongHashSet;
+import org.example.util.LongObjectHashMap;
 
 
 import javax.swing.*;
@@ -15,6 +21,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Serwis wykrywania duplikatów między folderem głównym a katalogami źródłowymi.
+ * Z haszowaniem duplikaty są potwierdzane etapami ({@link TieredDuplicateFinder}):
+ * rozmiar, pierwszy blok, hasz próbkowany i - w trybie FULL - hasz pełny.
  */
 public class DuplicateDetectionService extends SwingWorker<DuplicateAnalysisResult, String> {
 
@@ -23,6 +31,9 @@ public class DuplicateDetectionService extends SwingWorker<DuplicateAnalysisResu
     private final DuplicateDetectionCallback callback;
     private int totalFiles;
     private int processedFiles;
+    private LongObjectHashMap<HashStorageService.FileHashInfo> masterMatches = new LongObjectHashMap<>();
+    private List<DetectionTierStats> tierStats = List.of();
+    private volatile DirectoryWalker walker;
 
     public interface DuplicateDetectionCallback {
         void updateProgress(int current, int total, String currentFile);
@@ -50,14 +61,15 @@ public class DuplicateDetectionService extends SwingWorker<DuplicateAnalysisResu
         long startTime = System.currentTimeMillis();
 
         publish("Loading master folder hashes...");
-        Map<String, HashStorageService.FileHashInfo> masterHashes = hashStorageService.getHashToInfoMap();
-        result.setMasterFileCount(masterHashes.size());
+        MasterSnapshot master = hashStorageService.getSnapshot();
+        result.setMasterFileCount(master.size());
 
         publish("Scanning source directories...");
-        List<BackupFile> sourceFiles = scanSourceDirectories(masterHashes);
+        List<BackupFile> sourceFiles = scanSourceDirectories(master);
 
         publish("Analyzing duplicates...");
-        analyzeDuplicates(sourceFiles, masterHashes, result);
+        analyzeDuplicates(sourceFiles, masterMatches, result);
+        result.setTierStats(tierStats);
 
         captureTimingInfo(result, sourceFiles, startTime);
         return result;
@@ -82,18 +94,18 @@ public class DuplicateDetectionService extends SwingWorker<DuplicateAnalysisResu
 
     // ====== SKANOWANIE KATALOGÓW ŹRÓDŁOWYCH ======
 
-    private List<BackupFile> scanSourceDirectories(Map<String, HashStorageService.FileHashInfo> masterHashes) throws Exception {
-        List<File> allSourceFiles = collectSourceFiles();
-        totalFiles = allSourceFiles.size();
+    private List<BackupFile> scanSourceDirectories(MasterSnapshot master) throws Exception {
         processedFiles = 0;
+        if (!configuration.isSkipHashing()) {
+            return scanWithHashing(master);
+        }
 
+        List<File> allSourceFiles = collectSourceFiles();
+        totalFiles = allSourceFiles.size();
         if (allSourceFiles.isEmpty()) {
             return new ArrayList<>();
         }
-
-        return configuration.isSkipHashing()
-            ? scanWithMetadata(allSourceFiles, masterHashes)
-            : scanWithHashing(allSourceFiles, masterHashes);
+        return scanWithMetadata(allSourceFiles, master);
     }
 
     private List<File> collectSourceFiles() throws CancellationException {
@@ -107,25 +119,18 @@ public class DuplicateDetectionService extends SwingWorker<DuplicateAnalysisResu
         return allSourceFiles;
     }
 
-    private List<BackupFile> scanWithMetadata(List<File> allSourceFiles,
-            Map<String, HashStorageService.FileHashInfo> masterHashes) {
-
-        Map<String, HashStorageService.FileHashInfo> masterMetadataMap = buildMasterMetadataMap(masterHashes);
+    private List<BackupFile> scanWithMetadata(List<File> allSourceFiles, MasterSnapshot master) {
         Map<String, BackupFile> metadataMap = new ConcurrentHashMap<>();
         List<BackupFile> allBackupFiles = new CopyOnWriteArrayList<>();
         AtomicInteger processedCount = new AtomicInteger(0);
 
-        ExecutorService executor = Executors.newFixedThreadPool(configuration.getHashingThreadCount(),
-            r -> {
-                Thread t = new Thread(r, "MetadataDuplicateDetector-" + System.currentTimeMillis());
-                t.setDaemon(false);
-                return t;
-            });
+        ExecutorService executor = FileUtilities.newFileTaskExecutor(configuration.getExecutionMode(),
+            configuration.getHashingThreadCount(), "MetadataDuplicateDetector-" + System.currentTimeMillis());
         try {
             List<Future<?>> futures = new ArrayList<>();
             for (File file : allSourceFiles) {
                 futures.add(executor.submit(() ->
-                    processFileMetadata(file, masterMetadataMap, metadataMap, allBackupFiles, processedCount)));
+                    processFileMetadata(file, master, metadataMap, allBackupFiles, processedCount)));
             }
             waitForFutures(futures);
         } finally {
@@ -135,28 +140,16 @@ public class DuplicateDetectionService extends SwingWorker<DuplicateAnalysisResu
         return new ArrayList<>(allBackupFiles);
     }
 
-    private Map<String, HashStorageService.FileHashInfo> buildMasterMetadataMap(
-            Map<String, HashStorageService.FileHashInfo> masterHashes) {
-        Map<String, HashStorageService.FileHashInfo> masterMetadataMap = new HashMap<>();
-        for (HashStorageService.FileHashInfo masterInfo : masterHashes.values()) {
-            if (masterInfo != null && masterInfo.getRelativePath() != null) {
-                String masterFileName = new File(masterInfo.getRelativePath()).getName();
-                String masterKey = masterFileName + "|" + masterInfo.getFileSize();
-                masterMetadataMap.put(masterKey, masterInfo);
-            }
-        }
-        return masterMetadataMap;
-    }
-
-    private void processFileMetadata(File file, Map<String, HashStorageService.FileHashInfo> masterMetadataMap,
+    private void processFileMetadata(File file, MasterSnapshot master,
             Map<String, BackupFile> metadataMap, List<BackupFile> allBackupFiles, AtomicInteger processedCount) {
         if (isCancelled()) return;
 
         try {
-            String metadataKey = file.getName() + "|" + file.length();
-            BackupFile backupFile = new BackupFile(file, null);
+            long fileSize = file.length();
+            String metadataKey = MasterSnapshot.nameAndSizeKey(file.getName(), fileSize);
+            BackupFile backupFile = new BackupFile(file);
 
-            if (masterMetadataMap.containsKey(metadataKey)) {
+            if (master.containsNameAndSize(file.getName(), fileSize)) {
                 markAsDuplicate(backupFile, true);
             } else if (metadataMap.putIfAbsent(metadataKey, backupFile) != null) {
                 markAsDuplicate(backupFile, false);
@@ -169,48 +162,95 @@ public class DuplicateDetectionService extends SwingWorker<DuplicateAnalysisResu
         }
     }
 
-    private List<BackupFile> scanWithHashing(List<File> allSourceFiles,
-            Map<String, HashStorageService.FileHashInfo> masterHashes) throws InterruptedException {
+    /**
+     * Pliki źródłowe trafiają do {@link TieredDuplicateFinder} w trakcie przeglądania katalogów,
+     * więc haszowanie pierwszych bloków rusza z pierwszą kolizją rozmiaru, a nie po przejrzeniu drzewa.
+     */
+    private List<BackupFile> scanWithHashing(MasterSnapshot master) throws InterruptedException {
 
         List<BackupFile> sourceFiles = new ArrayList<>();
-        Set<String> processedHashes = new HashSet<>();
+        LongHashSet processedHashes = new LongHashSet();
+        walker = new DirectoryWalker(configuration.isIncludeSubdirectories(), this::isCancelled);
+
+        // Etapy do haszu próbkowanego liczy kalkulator SAMPLED; hasz pełny tylko dla ocalałych grup
+        MultiThreadedHashCalculator calculator = new MultiThreadedHashCalculator(
+            configuration.getHashingThreadCount(), HashMode.SAMPLED, configuration.getHashScheduling(),
+            configuration.getExecutionMode());
+        calculator.setAdaptiveThreads(configuration.isAdaptiveHashThreads());
+        try (TieredDuplicateFinder finder = new TieredDuplicateFinder(calculator,
+                configuration.getMasterBackupLocation(), configuration.getHashMode() == HashMode.FULL)) {
+            finder.begin(master, this::createHashProgressCallback, this::isCancelled);
+            walker.walk(configuration.getSourceDirectories(), file -> {
+                finder.accept(file);
+                reportWalkProgress(file.getName());
+            });
+            if (isCancelled()) {
+                throw new CancellationException("Duplicate detection cancelled");
+            }
+            totalFiles = walker.getDiscoveredFiles();
 
-        MultiThreadedHashCalculator calculator = new MultiThreadedHashCalculator(configuration.getHashingThreadCount());
-        try {
-            Map<String, String> fileHashes = calculator.calculateHashes(
-                allSourceFiles, createHashProgressCallback(), this::isCancelled);
+            TieredDuplicateFinder.Result found = finder.finish();
+            masterMatches = found.masterMatches();
+            tierStats = found.tierStats();
 
-            for (File file : allSourceFiles) {
+            List<File> allSourceFiles = found.sourceFiles();
+            for (int i = 0; i < allSourceFiles.size(); i++) {
                 if (isCancelled()) break;
+                if (found.failed().get(i)) continue;
 
-                String hash = fileHashes.get(file.getAbsolutePath());
-                if (hash != null) {
-                    BackupFile backupFile = new BackupFile(file, hash);
+                // Brak hasza - plik wykluczony przed haszowaniem zawartości, więc nie jest duplikatem
+                long hash = found.contentHashes()[i];
+                BackupFile backupFile = new BackupFile(allSourceFiles.get(i), hash);
 
-                    if (masterHashes.containsKey(hash)) {
+                if (HashCodes.isPresent(hash)) {
+                    if (masterMatches.containsKey(hash)) {
                         markAsDuplicate(backupFile, true);
-                    } else if (processedHashes.contains(hash)) {
+                    } else if (!processedHashes.add(hash)) {
                         markAsDuplicate(backupFile, false);
-                    } else {
-                        processedHashes.add(hash);
                     }
-
-                    sourceFiles.add(backupFile);
                 }
+
+                sourceFiles.add(backupFile);
             }
-        } finally {
-            calculator.shutdown();
         }
 
         return sourceFiles;
     }
 
-    private MultiThreadedHashCalculator.ProgressCallback createHashProgressCallback() {
-        return (current, total, currentFile, _) -> {
-            processedFiles = current;
-            if (!isCancelled()) {
-                publish("Analyzing source file: " + currentFile + " (" + current + "/" + total + ")");
-                setProgress(Math.min(100, (current * 100) / total));
+    /**
+     * Podczas przeglądania postęp liczy znalezione pliki względem szacowanej sumy
+     * ({@link DirectoryWalker#getEstimatedTotal()}); callbacki etapu pierwszego bloku czekają na jego koniec.
+     */
+    private void reportWalkProgress(String fileName) {
+        int discovered = walker.getDiscoveredFiles();
+        if (discovered % 100 != 0) return;
+
+        int estimatedTotal = walker.getEstimatedTotal();
+        totalFiles = estimatedTotal;
+        processedFiles = discovered;
+        publish("Scanning source directories: " + fileName + " (" + discovered + "/" + walker.formatTotal() + ")");
+        setProgress(Math.min(100, (discovered * 100) / Math.max(1, estimatedTotal)));
+    }
+
+    /** Każdy etap ma własny pasek postępu - liczba kandydatów jest znana dopiero po poprzednim etapie. */
+    private MultiThreadedHashCalculator.ProgressCallback createHashProgressCallback(String tierName) {
+        return new MultiThreadedHashCalculator.ProgressCallback() {
+            @Override
+            public void onProgress(int current, int total, String currentFile, int errors) {
+                if (!walker.isFinished()) return;
+                totalFiles = total;
+                processedFiles = current;
+                if (!isCancelled()) {
+                    publish("Analyzing source file (" + tierName + "): " + currentFile + " (" + current + "/" + total + ")");
+                }
+            }
+
+            /** Pasek postępu etapu idzie za bajtami - duży plik nie zatrzymuje go na długo. */
+            @Override
+            public void onBytes(long processedBytes, long totalBytes) {
+                if (walker.isFinished() && !isCancelled()) {
+                    setProgress(MultiThreadedHashCalculator.ProgressCallback.bytePercent(processedBytes, totalBytes));
+                }
             }
         };
     }
@@ -232,18 +272,18 @@ public class DuplicateDetectionService extends SwingWorker<DuplicateAnalysisResu
     // ====== ANALIZA DUPLIKATÓW ======
 
     private void analyzeDuplicates(List<BackupFile> sourceFiles,
-                                   Map<String, HashStorageService.FileHashInfo> masterHashes,
+                                   LongObjectHashMap<HashStorageService.FileHashInfo> masterMatches,
                                    DuplicateAnalysisResult result) {
         List<BackupFile> duplicatesInMaster = new ArrayList<>();
         List<BackupFile> duplicatesInSource = new ArrayList<>();
         List<BackupFile> newFiles = new ArrayList<>();
         List<DuplicatePair> duplicatePairs = new ArrayList<>();
-        Map<String, List<BackupFile>> sourceDuplicateGroups = new HashMap<>();
+        LongObjectHashMap<List<BackupFile>> sourceDuplicateGroups = new LongObjectHashMap<>();
 
         if (configuration.isSkipHashing()) {
             categorizeFilesByStatus(sourceFiles, duplicatesInMaster, duplicatesInSource, newFiles);
         } else {
-            analyzeHashedFiles(sourceFiles, masterHashes,
+            analyzeHashedFiles(sourceFiles, masterMatches,
                 duplicatesInMaster, duplicatesInSource, newFiles, duplicatePairs, sourceDuplicateGroups);
         }
 
@@ -270,17 +310,21 @@ public class DuplicateDetectionService extends SwingWorker<DuplicateAnalysisResu
     }
 
     private void analyzeHashedFiles(List<BackupFile> sourceFiles,
-            Map<String, HashStorageService.FileHashInfo> masterHashes,
+            LongObjectHashMap<HashStorageService.FileHashInfo> masterMatches,
             List<BackupFile> duplicatesInMaster, List<BackupFile> duplicatesInSource, List<BackupFile> newFiles,
-            List<DuplicatePair> duplicatePairs, Map<String, List<BackupFile>> sourceDuplicateGroups) {
+            List<DuplicatePair> duplicatePairs, LongObjectHashMap<List<BackupFile>> sourceDuplicateGroups) {
 
         for (BackupFile sourceFile : sourceFiles) {
-            String hash = sourceFile.getHash();
-            if (hash == null) continue;
+            long hash = sourceFile.getHashValue();
+            if (!sourceFile.hasHash()) {
+                // Plik wykluczony przed haszowaniem zawartości - nie może być duplikatem
+                newFiles.add(sourceFile);
+                continue;
+            }
 
             if (sourceFile.isExistsInMaster()) {
                 duplicatesInMaster.add(sourceFile);
-                createDuplicatePair(sourceFile, masterHashes.get(hash), duplicatePairs);
+                createDuplicatePair(sourceFile, masterMatches.get(hash), duplicatePairs);
             } else if (sourceFile.getStatus() == BackupFile.BackupStatus.DUPLICATE) {
                 duplicatesInSource.add(sourceFile);
                 sourceDuplicateGroups.computeIfAbsent(hash, _ -> new ArrayList<>()).add(sourceFile);
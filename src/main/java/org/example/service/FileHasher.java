@@ -0,0 +1,226 @@
+package org.example.service;
+
+import net.openhft.hashing.LongHashFunction;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Silnik haszujący xxHash3 przypisany do jednego wątku roboczego.
+ * Posiada własny bufor bezpośredni, dzięki czemu haszowanie w stanie ustalonym
+ * nie alokuje pamięci na stercie dla każdego pliku. Bufor rośnie do potrzebnego rozmiaru
+ * (najwyżej {@link #POOLED_BUFFER_SIZE}), więc przy małych plikach wielu wątków wirtualnych
+ * nie rezerwuje po 16MB pamięci.
+ * Instancja nie jest bezpieczna wątkowo - w danej chwili używa jej jeden wątek; między zadaniami
+ * instancje krążą w puli {@link HashingEngine}, więc bufory nie są alokowane od nowa.
+ * <p>
+ * Opcjonalny semafor ogranicza liczbę wątków liczących hasz jednocześnie - odczyt z dysku
+ * odbywa się poza nim.
+ * <p>
+ * Odczyt przebiega porcjami {@link #READ_CHUNK_SIZE}: przed każdą porcją sprawdzane jest anulowanie
+ * ({@link CancellationException}), a po niej liczba bajtów trafia do licznika postępu
+ * ({@link #bind}). Czas reakcji na anulowanie nie zależy więc od rozmiaru pliku.
+ * <p>
+ * Hasz pełny (tryb FULL) dzieli plik na bloki {@link #FULL_HASH_BLOCK_SIZE} i łączy ich hasze
+ * z indeksem bloku. Pamięć jest stała niezależnie od rozmiaru pliku.
+ */
+class FileHasher {
+
+    static final long SMALL_FILE_THRESHOLD = 100L * 1024 * 1024;
+    static final int POOLED_BUFFER_SIZE = 16 * 1024 * 1024;
+    static final int FULL_HASH_BLOCK_SIZE = POOLED_BUFFER_SIZE;
+    static final int HEAD_BLOCK_SIZE = 64 * 1024;
+    static final int READ_CHUNK_SIZE = 1024 * 1024;
+    private static final long BLOCK_INDEX_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final LongHashFunction hashFunction = LongHashFunction.xx3();
+    private Semaphore cpuPermits;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(HEAD_BLOCK_SIZE);
+    private int pooledFiles;
+    private int mappedFiles;
+    private LongAdder bytesRead;
+    private BooleanSupplier isCancelled;
+
+    /**
+     * Przypisuje instancję do przebiegu i zeruje jej statystyki.
+     *
+     * @param cpuPermits  limit jednoczesnego liczenia haszy albo null bez limitu
+     * @param bytesRead   licznik odczytanych bajtów albo null
+     * @param isCancelled warunek anulowania sprawdzany między porcjami odczytu albo null
+     */
+    void bind(Semaphore cpuPermits, LongAdder bytesRead, BooleanSupplier isCancelled) {
+        this.cpuPermits = cpuPermits;
+        this.bytesRead = bytesRead;
+        this.isCancelled = isCancelled;
+        this.pooledFiles = 0;
+        this.mappedFiles = 0;
+    }
+
+    static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /** Czy dla pliku o tym rozmiarze hasz podstawowy nie obejmuje całej zawartości. */
+    static boolean isSampled(long fileSize) {
+        return fileSize >= SMALL_FILE_THRESHOLD;
+    }
+
+    /** Hasz podstawowy: cała zawartość dla małych plików, próbki według planu dla dużych. */
+    long hash(FileChannel channel, SamplePlan plan) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < SMALL_FILE_THRESHOLD) {
+            return hashSmallFile(channel, fileSize);
+        }
+        return hashLargeFile(channel, fileSize, plan);
+    }
+
+    /**
+     * Hasz pierwszych {@link #HEAD_BLOCK_SIZE} bajtów. Dla plików mieszczących się w bloku
+     * jest identyczny z haszem podstawowym.
+     */
+    long headHash(FileChannel channel) throws IOException {
+        int read = readAt(channel, 0, (int) Math.min(HEAD_BLOCK_SIZE, channel.size()));
+        return hashBytes(buffer, read);
+    }
+
+    int getPooledFiles() { return pooledFiles; }
+    int getMappedFiles() { return mappedFiles; }
+
+    // ====== MAŁE PLIKI ======
+
+    private long hashSmallFile(FileChannel channel, long fileSize) throws IOException {
+        if (fileSize <= POOLED_BUFFER_SIZE) {
+            pooledFiles++;
+            int read = readAt(channel, 0, (int) fileSize);
+            return hashBytes(buffer, read);
+        }
+
+        // Pliki większe od bufora są mapowane i od razu zwalniane przy zamknięciu areny
+        mappedFiles++;
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize, arena);
+            // Strony są wczytywane porcjami przed haszowaniem, żeby anulowanie nie czekało na cały plik
+            for (long offset = 0; offset < fileSize; offset += READ_CHUNK_SIZE) {
+                checkCancelled();
+                long length = Math.min(READ_CHUNK_SIZE, fileSize - offset);
+                segment.asSlice(offset, length).load();
+                countRead(length);
+            }
+            return hashBytes(segment.asByteBuffer(), (int) fileSize);
+        }
+    }
+
+    // ====== DUŻE PLIKI (PRÓBKOWANIE) ======
+
+    /**
+     * Każda próbka jest czytana odczytem pozycyjnym, więc między próbkami nic nie jest
+     * doczytywane ani pomijane przez strumień - także na systemach plików bez wydajnego seek.
+     */
+    private long hashLargeFile(FileChannel channel, long fileSize, SamplePlan plan) throws IOException {
+        long hash = 0;
+
+        for (int i = 0; i < plan.getSampleCount(); i++) {
+            int totalRead = readAt(channel, plan.offset(i, fileSize), plan.length(i, fileSize));
+
+            if (totalRead > 0) {
+                long chunkHash = hashBytes(buffer, totalRead);
+                hash = (i == 0) ? chunkHash : Long.rotateLeft(hash, 1) ^ chunkHash;
+            }
+        }
+        pooledFiles++;
+        return hash;
+    }
+
+    // ====== PEŁNY HASZ STRUMIENIOWY ======
+
+    /**
+     * Haszuje cały plik, czytając go oknem o stałym rozmiarze przez odczyty pozycyjne.
+     */
+    long fullHash(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        long blockCount = (fileSize + FULL_HASH_BLOCK_SIZE - 1) / FULL_HASH_BLOCK_SIZE;
+        return finishFullHash(fullHashRange(channel, fileSize, 0, blockCount), fileSize);
+    }
+
+    /**
+     * Zwraca sumę częściową hasza pełnego dla bloków {@code [firstBlock, endBlock)}.
+     * Sumy rozłącznych zakresów dodane do siebie dają akumulator całego pliku.
+     */
+    long fullHashRange(FileChannel channel, long fileSize, long firstBlock, long endBlock) throws IOException {
+        long accumulator = 0;
+        for (long block = firstBlock; block < endBlock; block++) {
+            long position = block * FULL_HASH_BLOCK_SIZE;
+            int toRead = (int) Math.min(FULL_HASH_BLOCK_SIZE, fileSize - position);
+            int read = readAt(channel, position, toRead);
+            if (read < toRead) {
+                throw new IOException("File shrank while hashing at offset " + (position + read));
+            }
+            accumulator = combineBlock(accumulator, block, hashBytes(buffer, read));
+        }
+        return accumulator;
+    }
+
+    /**
+     * Dodaje hasz bloku do akumulatora. Dodawanie jest przemienne, a kolejność bloków
+     * zachowuje mieszanie z indeksem - wynik nie zależy od kolejności przetwarzania.
+     */
+    long combineBlock(long accumulator, long blockIndex, long blockHash) {
+        return accumulator + hashFunction.hashLong(blockHash ^ (blockIndex * BLOCK_INDEX_MULTIPLIER));
+    }
+
+    long finishFullHash(long accumulator, long fileSize) {
+        return hashFunction.hashLong(accumulator ^ fileSize);
+    }
+
+    private long hashBytes(ByteBuffer source, int length) {
+        if (cpuPermits == null) return hashFunction.hashBytes(source, 0, length);
+        cpuPermits.acquireUninterruptibly();
+        try {
+            return hashFunction.hashBytes(source, 0, length);
+        } finally {
+            cpuPermits.release();
+        }
+    }
+
+    // ====== ODCZYT ======
+
+    /**
+     * Wczytuje do puli od podanej pozycji maksymalnie {@code length} bajtów.
+     * Zwraca liczbę odczytanych bajtów (mniej tylko przy końcu pliku).
+     */
+    private int readAt(FileChannel channel, long position, int length) throws IOException {
+        if (length > buffer.capacity()) {
+            // Następna potęga dwójki - bufor rośnie najwyżej kilka razy na wątek
+            int capacity = Math.min(POOLED_BUFFER_SIZE, Integer.highestOneBit(length - 1) << 1);
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear();
+        while (buffer.position() < length) {
+            checkCancelled();
+            buffer.limit(Math.min(length, buffer.position() + READ_CHUNK_SIZE));
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) break;
+            countRead(read);
+        }
+        return buffer.position();
+    }
+
+    private void checkCancelled() {
+        if (isCancelled != null && isCancelled.getAsBoolean()) {
+            throw new CancellationException("Hashing cancelled");
+        }
+    }
+
+    private void countRead(long bytes) {
+        if (bytesRead != null) bytesRead.add(bytes);
+    }
+}
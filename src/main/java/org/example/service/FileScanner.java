@@ -2,7 +2,9 @@ package org.example.service;
 
 import org.example.model.BackupConfiguration;
 import org.example.model.BackupFile;
+import org.example.util.DirectoryWalker;
 import org.example.util.FileUtilities;
+import org.example.util.LongHashSet;
 
 
 import javax.swing.*;
@@ -20,6 +22,8 @@ public class FileScanner extends SwingWorker<List<BackupFile>, String> {
     private final ScanProgressCallback progressCallback;
     private int totalFiles;
     private int scannedFiles;
+    private volatile int skippedFiles = -1;
+    private DirectoryWalker walker;
 
     public interface ScanProgressCallback {
         void updateProgress(int current, int total, String currentFile);
@@ -40,14 +44,16 @@ public class FileScanner extends SwingWorker<List<BackupFile>, String> {
         long startTime = System.currentTimeMillis();
 
         publish("Collecting files...");
-        List<File> allFiles = collectAllFiles();
-        totalFiles = allFiles.size();
-
-        if (allFiles.isEmpty()) return List.of();
-
-        List<BackupFile> foundFiles = configuration.isSkipHashing()
-            ? scanWithMetadata(allFiles)
-            : scanWithHashing(allFiles);
+        List<BackupFile> foundFiles;
+        if (configuration.isSkipHashing()) {
+            List<File> allFiles = collectAllFiles();
+            totalFiles = allFiles.size();
+            if (allFiles.isEmpty()) return List.of();
+            foundFiles = scanWithMetadata(allFiles);
+        } else {
+            foundFiles = scanWithHashing();
+            if (totalFiles == 0) return List.of();
+        }
 
         publishTimingInfo(foundFiles, startTime);
         return foundFiles;
@@ -69,7 +75,8 @@ public class FileScanner extends SwingWorker<List<BackupFile>, String> {
         List<BackupFile> allBackupFiles = new CopyOnWriteArrayList<>();
         AtomicInteger processedCount = new AtomicInteger(0);
 
-        ExecutorService executor = Executors.newFixedThreadPool(configuration.getHashingThreadCount());
+        ExecutorService executor = FileUtilities.newFileTaskExecutor(configuration.getExecutionMode(),
+            configuration.getHashingThreadCount(), "MetadataScanner");
         try {
             List<Future<?>> futures = new ArrayList<>();
             for (File file : allFiles) {
@@ -88,7 +95,7 @@ public class FileScanner extends SwingWorker<List<BackupFile>, String> {
         if (isCancelled()) return;
 
         String metadataKey = file.getName() + "|" + file.length();
-        BackupFile backupFile = new BackupFile(file, null);
+        BackupFile backupFile = new BackupFile(file);
 
         if (metadataMap.putIfAbsent(metadataKey, backupFile) != null) {
             backupFile.setStatus(BackupFile.BackupStatus.DUPLICATE);
@@ -106,20 +113,45 @@ public class FileScanner extends SwingWorker<List<BackupFile>, String> {
 
     // ====== SKANOWANIE Z HASZOWANIEM ======
 
-    private List<BackupFile> scanWithHashing(List<File> allFiles) throws InterruptedException {
+    /**
+     * Pliki z przeglądania katalogów przechodzą od razu przez filtr rozmiaru do haszowania,
+     * więc wątki robocze pracują, zanim całe drzewo zostanie przejrzane.
+     */
+    private List<BackupFile> scanWithHashing() throws InterruptedException {
         List<BackupFile> foundFiles = new ArrayList<>();
-        Set<String> seenHashes = new HashSet<>();
+        walker = new DirectoryWalker(configuration.isIncludeSubdirectories(), this::isCancelled);
+
+        MultiThreadedHashCalculator calculator = new MultiThreadedHashCalculator(
+            configuration.getHashingThreadCount(), configuration.getHashMode(), configuration.getHashScheduling(),
+            configuration.getExecutionMode());
+        calculator.setAdaptiveThreads(configuration.isAdaptiveHashThreads());
+        try (MultiThreadedHashCalculator.HashStream stream =
+                 calculator.openStream(createProgressCallback(), this::isCancelled)) {
+            SizeCollisionFilter sizeFilter = new SizeCollisionFilter(Set.of(), (file, _) -> stream.submit(file));
+            walker.walk(configuration.getSourceDirectories(), file -> {
+                sizeFilter.add(file);
+                reportWalkProgress(file.getName(), sizeFilter.size(), stream);
+            });
+            if (isCancelled()) throw new CancellationException("Scan cancelled");
 
-        MultiThreadedHashCalculator calculator = new MultiThreadedHashCalculator(configuration.getHashingThreadCount());
-        try {
-            Map<String, String> fileHashes = calculator.calculateHashes(
-                allFiles, createProgressCallback(), this::isCancelled);
+            sizeFilter.finish();
+            totalFiles = sizeFilter.size();
+            skippedFiles = sizeFilter.skippedCount();
+            MultiThreadedHashCalculator.HashResults hashes = stream.finish();
 
-            for (File file : allFiles) {
+            LongHashSet seenHashes = new LongHashSet(sizeFilter.candidateCount());
+            for (int i = 0; i < sizeFilter.size(); i++) {
                 if (isCancelled()) break;
 
-                String hash = fileHashes.get(file.getAbsolutePath());
-                if (hash != null) {
+                File file = sizeFilter.file(i);
+                if (!sizeFilter.isCandidate(i)) {
+                    foundFiles.add(new BackupFile(file));
+                    continue;
+                }
+
+                int slot = sizeFilter.slot(i);
+                if (hashes.isHashed(slot)) {
+                    long hash = hashes.contentHash(slot);
                     BackupFile backupFile = new BackupFile(file, hash);
 
                     if (!seenHashes.add(hash)) {
@@ -130,18 +162,34 @@ public class FileScanner extends SwingWorker<List<BackupFile>, String> {
                     foundFiles.add(backupFile);
                 }
             }
-        } finally {
-            calculator.shutdown();
         }
 
         return foundFiles;
     }
 
+    /**
+     * Podczas przeglądania suma jest szacowana, a pliki jeszcze nieprzekazane do haszowania
+     * (na razie jedyne w swoim rozmiarze) są liczone jako przetworzone.
+     */
+    private void reportWalkProgress(String fileName, int discovered, MultiThreadedHashCalculator.HashStream stream) {
+        if (discovered % 100 != 0) return;
+
+        scannedFiles = discovered - stream.getSubmittedCount() + stream.getCompletedCount();
+        totalFiles = walker.getEstimatedTotal();
+        publish("Scanning: " + fileName + " (" + scannedFiles + "/" + walker.formatTotal() + ")");
+    }
+
+    /**
+     * Pliki pominięte przez filtr rozmiaru są wliczane do postępu jako już przetworzone.
+     * Do końca przeglądania postęp raportuje {@link #reportWalkProgress}.
+     */
     private MultiThreadedHashCalculator.ProgressCallback createProgressCallback() {
         return (current, total, currentFile, _) -> {
-            scannedFiles = current;
+            int skipped = skippedFiles;
+            if (skipped < 0) return;
+            scannedFiles = skipped + current;
             if (!isCancelled()) {
-                publish("Scanning: " + currentFile + " (" + current + "/" + total + ")");
+                publish("Scanning: " + currentFile + " (" + scannedFiles + "/" + (skipped + total) + ")");
             }
         };
     }
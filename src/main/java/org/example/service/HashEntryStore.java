@@ -0,0 +1,461 @@
+package org.example.service;
+
+import net.openhft.hashing.LongHashFunction;
+import org.example.util.HashCodes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Wpisy indeksu haszy w pamięci w układzie kolumnowym: każde pole wpisu to osobna tablica
+ * prymitywów, a wpis to numer w tych tablicach. Ścieżka jest zapisana jako numer katalogu
+ * i położenie nazwy pliku w obszarze bajtów, w którym każda nazwa występuje raz (UTF-8,
+ * poprzedzona dwubajtową długością). Wpis nie jest obiektem, więc przy milionach wpisów
+ * pamięć to kilkadziesiąt bajtów na wpis zamiast kilkuset dla obiektów i map z kluczem
+ * {@code String}.
+ * <p>
+ * Wyszukiwanie po ścieżce, po haszu zawartości i po parze nazwa pliku + rozmiar odbywa się
+ * w tablicach {@code int} z adresowaniem otwartym (numer wpisu + 1, 0 = pusta szczelina);
+ * usuwanie przesuwa kolejne szczeliny wstecz, więc nie ma znaczników usunięcia. Ten sam hasz
+ * zawartości (i ta sama nazwa z rozmiarem) może mieć wiele wpisów. Numery usuniętych wpisów
+ * są używane ponownie.
+ * <p>
+ * {@link HashStorageService.FileHashInfo} jest tu tylko widokiem: metody zwracają nowe obiekty
+ * z danymi wpisu z chwili wywołania, a ich zmiana nie dotyczy magazynu (zapis przez {@link #put}).
+ * Wszystkie metody są synchronizowane.
+ * <p>
+ * {@link #freeze()} zwraca niezmienną kopię magazynu w O(1) - obie instancje współdzielą tablice,
+ * a pierwszy zapis po zamrożeniu kopiuje je (kopiowanie tablic prymitywów, bez dekodowania wpisów).
+ * Kolejne zapisy w tej samej generacji już niczego nie kopiują.
+ */
+final class HashEntryStore {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_NAME_BYTES = 0xFFFF;
+    private static final LongHashFunction NAME_HASH = LongHashFunction.xx3();
+    private static final long SIZE_MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+
+    /** Kluczem zawartości jest hasz pełny, jeśli jest dostępny (tryb FULL). */
+    private final boolean fullHashKeys;
+
+    // Kolumny wpisów
+    private long[] hashes;
+    private long[] fullHashes;
+    private long[] lastModified;
+    private long[] fileSizes;
+    private int[] sampleVersions;
+    /** -1 oznacza wolny numer wpisu. */
+    private int[] directoryIds;
+    private int[] nameOffsets;
+    private int count;
+    private int size;
+    private int[] freeIds;
+    private int freeCount;
+
+    // Katalogi i nazwy plików
+    private List<String> directories;
+    private Map<String, Integer> directoryIdsByPath;
+    private byte[] names;
+    private int namesLength;
+    /** Położenie nazwy + 1. */
+    private int[] nameTable;
+    private int nameCount;
+
+    private int[] pathTable;
+    private int[] contentTable;
+    private int[] nameSizeTable;
+
+    /** Tablice są współdzielone z zamrożoną kopią - zapis musi je najpierw skopiować. */
+    private boolean shared;
+    private final boolean frozen;
+
+    HashEntryStore(boolean fullHashKeys) {
+        this.fullHashKeys = fullHashKeys;
+        this.frozen = false;
+        clear();
+    }
+
+    private HashEntryStore(HashEntryStore source) {
+        this.fullHashKeys = source.fullHashKeys;
+        this.frozen = true;
+        this.hashes = source.hashes;
+        this.fullHashes = source.fullHashes;
+        this.lastModified = source.lastModified;
+        this.fileSizes = source.fileSizes;
+        this.sampleVersions = source.sampleVersions;
+        this.directoryIds = source.directoryIds;
+        this.nameOffsets = source.nameOffsets;
+        this.count = source.count;
+        this.size = source.size;
+        this.freeIds = source.freeIds;
+        this.freeCount = source.freeCount;
+        this.directories = source.directories;
+        this.directoryIdsByPath = source.directoryIdsByPath;
+        this.names = source.names;
+        this.namesLength = source.namesLength;
+        this.nameTable = source.nameTable;
+        this.nameCount = source.nameCount;
+        this.pathTable = source.pathTable;
+        this.contentTable = source.contentTable;
+        this.nameSizeTable = source.nameSizeTable;
+    }
+
+    // ====== ODCZYT ======
+
+    synchronized int size() { return size; }
+
+    synchronized boolean contains(String relativePath) {
+        return findByPath(relativePath) >= 0;
+    }
+
+    /** Widok wpisu o podanej ścieżce albo null. */
+    synchronized HashStorageService.FileHashInfo get(String relativePath) {
+        int id = findByPath(relativePath);
+        return id >= 0 ? view(id) : null;
+    }
+
+    /** Widok pierwszego wpisu o podanym kluczu zawartości albo null. */
+    synchronized HashStorageService.FileHashInfo findByContentHash(long contentHash) {
+        int slot = nextWithContentHash(contentHash, -1);
+        return slot >= 0 ? view(contentTable[slot] - 1) : null;
+    }
+
+    /** Przekazuje widoki wszystkich wpisów o podanym kluczu zawartości. */
+    synchronized void forEachWithContentHash(long contentHash, Consumer<HashStorageService.FileHashInfo> action) {
+        for (int slot = nextWithContentHash(contentHash, -1); slot >= 0; slot = nextWithContentHash(contentHash, slot)) {
+            action.accept(view(contentTable[slot] - 1));
+        }
+    }
+
+    /** Czy jest wpis o nazwie pliku (UTF-8, bez katalogu) i rozmiarze - bez dekodowania wpisów. */
+    synchronized boolean containsNameAndSize(byte[] fileName, long fileSize) {
+        int nameOffset = findName(fileName);
+        if (nameOffset < 0) return false;
+        int mask = nameSizeTable.length - 1;
+        for (int slot = nameSizeHome(nameOffset, fileSize) & mask; nameSizeTable[slot] != 0; slot = (slot + 1) & mask) {
+            int id = nameSizeTable[slot] - 1;
+            if (nameOffsets[id] == nameOffset && fileSizes[id] == fileSize) return true;
+        }
+        return false;
+    }
+
+    /** Przekazuje widoki wszystkich wpisów; magazyn jest zablokowany do końca iteracji. */
+    synchronized void forEach(Consumer<HashStorageService.FileHashInfo> action) {
+        for (int id = 0; id < count; id++) {
+            if (directoryIds[id] >= 0) action.accept(view(id));
+        }
+    }
+
+    synchronized List<String> paths() {
+        List<String> paths = new ArrayList<>(size);
+        for (int id = 0; id < count; id++) {
+            if (directoryIds[id] >= 0) paths.add(path(id));
+        }
+        return paths;
+    }
+
+    // ====== ZAPIS ======
+
+    /** Niezmienna kopia bieżącego stanu; zapis do niej zgłasza {@link IllegalStateException}. */
+    synchronized HashEntryStore freeze() {
+        if (frozen) return this;
+        shared = true;
+        return new HashEntryStore(this);
+    }
+
+    /** Dodaje wpis albo zastępuje dane wpisu o tej samej ścieżce. */
+    synchronized void put(HashStorageService.FileHashInfo info) {
+        prepareWrite();
+        String relativePath = info.getRelativePath();
+        int slash = relativePath.lastIndexOf('/');
+        int directoryId = internDirectory(slash < 0 ? "" : relativePath.substring(0, slash));
+        int nameOffset = internName(relativePath.substring(slash + 1).getBytes(StandardCharsets.UTF_8));
+
+        int id = findByPath(directoryId, nameOffset);
+        if (id >= 0) {
+            removeFromContentTable(id);
+            delete(nameSizeTable, slotOf(nameSizeTable, nameSizeHome(id), id), this::nameSizeHome);
+        } else {
+            ensureCapacity();
+            id = freeCount > 0 ? freeIds[--freeCount] : count++;
+            directoryIds[id] = directoryId;
+            nameOffsets[id] = nameOffset;
+            insert(pathTable, pathHome(id), id);
+            size++;
+        }
+        hashes[id] = info.getHash();
+        fullHashes[id] = info.getFullHash();
+        lastModified[id] = info.getLastModified();
+        fileSizes[id] = info.getFileSize();
+        sampleVersions[id] = info.getSampleVersion();
+        if (HashCodes.isPresent(contentKey(id))) insert(contentTable, HashCodes.mix(contentKey(id)), id);
+        insert(nameSizeTable, nameSizeHome(id), id);
+    }
+
+    /** Zwraca widok usuniętego wpisu albo null. */
+    synchronized HashStorageService.FileHashInfo remove(String relativePath) {
+        int id = findByPath(relativePath);
+        if (id < 0) return null;
+        prepareWrite();
+        HashStorageService.FileHashInfo removed = view(id);
+        removeFromContentTable(id);
+        delete(nameSizeTable, slotOf(nameSizeTable, nameSizeHome(id), id), this::nameSizeHome);
+        delete(pathTable, slotOf(pathTable, pathHome(id), id), this::pathHome);
+        directoryIds[id] = -1;
+        if (freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        freeIds[freeCount++] = id;
+        size--;
+        return removed;
+    }
+
+    /** Zwalnia także katalogi i nazwy - pamięć wraca do stanu pustego magazynu. */
+    synchronized void clear() {
+        if (frozen) throw new IllegalStateException("Frozen hash entry store");
+        shared = false;
+        hashes = new long[MIN_CAPACITY];
+        fullHashes = new long[MIN_CAPACITY];
+        lastModified = new long[MIN_CAPACITY];
+        fileSizes = new long[MIN_CAPACITY];
+        sampleVersions = new int[MIN_CAPACITY];
+        directoryIds = new int[MIN_CAPACITY];
+        nameOffsets = new int[MIN_CAPACITY];
+        freeIds = new int[MIN_CAPACITY];
+        count = size = freeCount = 0;
+        directories = new ArrayList<>();
+        directoryIdsByPath = new HashMap<>();
+        names = new byte[MIN_CAPACITY * 16];
+        namesLength = nameCount = 0;
+        nameTable = new int[MIN_CAPACITY * 2];
+        pathTable = new int[MIN_CAPACITY * 2];
+        contentTable = new int[MIN_CAPACITY * 2];
+        nameSizeTable = new int[MIN_CAPACITY * 2];
+    }
+
+    // ====== WPISY ======
+
+    private void prepareWrite() {
+        if (frozen) throw new IllegalStateException("Frozen hash entry store");
+        if (!shared) return;
+        hashes = hashes.clone();
+        fullHashes = fullHashes.clone();
+        lastModified = lastModified.clone();
+        fileSizes = fileSizes.clone();
+        sampleVersions = sampleVersions.clone();
+        directoryIds = directoryIds.clone();
+        nameOffsets = nameOffsets.clone();
+        freeIds = freeIds.clone();
+        directories = new ArrayList<>(directories);
+        directoryIdsByPath = new HashMap<>(directoryIdsByPath);
+        // Obszar nazw jest tylko dopisywany za końcem widocznym w zamrożonej kopii - nie trzeba go kopiować
+        nameTable = nameTable.clone();
+        pathTable = pathTable.clone();
+        contentTable = contentTable.clone();
+        nameSizeTable = nameSizeTable.clone();
+        shared = false;
+    }
+
+    private HashStorageService.FileHashInfo view(int id) {
+        HashStorageService.FileHashInfo info = new HashStorageService.FileHashInfo(path(id), hashes[id],
+            lastModified[id], fileSizes[id]);
+        info.setFullHash(fullHashes[id]);
+        info.setSampleVersion(sampleVersions[id]);
+        return info;
+    }
+
+    private String path(int id) {
+        String directory = directories.get(directoryIds[id]);
+        String name = name(nameOffsets[id]);
+        return directory.isEmpty() ? name : directory + "/" + name;
+    }
+
+    private long contentKey(int id) {
+        return fullHashKeys && HashCodes.isPresent(fullHashes[id]) ? fullHashes[id] : hashes[id];
+    }
+
+    private void ensureCapacity() {
+        if (freeCount == 0 && count == hashes.length) {
+            int capacity = hashes.length + (hashes.length >> 1);
+            hashes = Arrays.copyOf(hashes, capacity);
+            fullHashes = Arrays.copyOf(fullHashes, capacity);
+            lastModified = Arrays.copyOf(lastModified, capacity);
+            fileSizes = Arrays.copyOf(fileSizes, capacity);
+            sampleVersions = Arrays.copyOf(sampleVersions, capacity);
+            directoryIds = Arrays.copyOf(directoryIds, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        }
+        // Tablice wypełnione najwyżej w połowie - krótkie łańcuchy sondowania
+        if ((size + 1) * 2 > pathTable.length) {
+            pathTable = rebuild(pathTable.length * 2, this::pathHome, false);
+            contentTable = rebuild(contentTable.length * 2, this::contentHome, true);
+            nameSizeTable = rebuild(nameSizeTable.length * 2, this::nameSizeHome, false);
+        }
+    }
+
+    // ====== ŚCIEŻKI ======
+
+    private int findByPath(String relativePath) {
+        int slash = relativePath.lastIndexOf('/');
+        Integer directoryId = directoryIdsByPath.get(slash < 0 ? "" : relativePath.substring(0, slash));
+        if (directoryId == null) return -1;
+        int nameOffset = findName(relativePath.substring(slash + 1).getBytes(StandardCharsets.UTF_8));
+        return nameOffset < 0 ? -1 : findByPath(directoryId, nameOffset);
+    }
+
+    private int findByPath(int directoryId, int nameOffset) {
+        int mask = pathTable.length - 1;
+        for (int slot = pathHome(directoryId, nameOffset) & mask; pathTable[slot] != 0; slot = (slot + 1) & mask) {
+            int id = pathTable[slot] - 1;
+            if (directoryIds[id] == directoryId && nameOffsets[id] == nameOffset) return id;
+        }
+        return -1;
+    }
+
+    private int pathHome(int id) {
+        return pathHome(directoryIds[id], nameOffsets[id]);
+    }
+
+    /** Nazwy są unikalne w obszarze, więc ścieżkę wyznacza para liczb. */
+    private static int pathHome(int directoryId, int nameOffset) {
+        return HashCodes.mix(((long) directoryId << 32) | nameOffset);
+    }
+
+    private int internDirectory(String directory) {
+        Integer id = directoryIdsByPath.get(directory);
+        if (id != null) return id;
+        directories.add(directory);
+        directoryIdsByPath.put(directory, directories.size() - 1);
+        return directories.size() - 1;
+    }
+
+    // ====== NAZWY PLIKÓW ======
+
+    private int findName(byte[] name) {
+        int mask = nameTable.length - 1;
+        for (int slot = nameHome(name, 0, name.length) & mask; nameTable[slot] != 0; slot = (slot + 1) & mask) {
+            int offset = nameTable[slot] - 1;
+            if (nameLength(offset) == name.length
+                    && Arrays.equals(names, offset + 2, offset + 2 + name.length, name, 0, name.length)) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private int internName(byte[] name) {
+        int offset = findName(name);
+        if (offset >= 0) return offset;
+        if (name.length > MAX_NAME_BYTES) throw new IllegalArgumentException("File name too long: " + name.length + " bytes");
+
+        if (namesLength + 2 + name.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(namesLength + 2 + name.length, names.length + (names.length >> 1)));
+        }
+        offset = namesLength;
+        names[offset] = (byte) (name.length >>> 8);
+        names[offset + 1] = (byte) name.length;
+        System.arraycopy(name, 0, names, offset + 2, name.length);
+        namesLength += 2 + name.length;
+
+        if ((nameCount + 1) * 2 > nameTable.length) {
+            int[] old = nameTable;
+            nameTable = new int[old.length * 2];
+            for (int entry : old) {
+                if (entry != 0) insert(nameTable, nameHome(entry - 1), entry - 1);
+            }
+        }
+        insert(nameTable, nameHome(offset), offset);
+        nameCount++;
+        return offset;
+    }
+
+    private String name(int offset) {
+        return new String(names, offset + 2, nameLength(offset), StandardCharsets.UTF_8);
+    }
+
+    private int nameLength(int offset) {
+        return ((names[offset] & 0xFF) << 8) | (names[offset + 1] & 0xFF);
+    }
+
+    private int nameHome(int offset) {
+        return nameHome(names, offset + 2, nameLength(offset));
+    }
+
+    private static int nameHome(byte[] bytes, int offset, int length) {
+        return HashCodes.mix(NAME_HASH.hashBytes(bytes, offset, length));
+    }
+
+    private int nameSizeHome(int id) {
+        return nameSizeHome(nameOffsets[id], fileSizes[id]);
+    }
+
+    /** Ta sama nazwa ma jedno położenie w obszarze nazw, więc parę nazwa + rozmiar wyznaczają dwie liczby. */
+    private static int nameSizeHome(int nameOffset, long fileSize) {
+        return HashCodes.mix(nameOffset ^ (fileSize * SIZE_MULTIPLIER));
+    }
+
+    // ====== TABLICE Z ADRESOWANIEM OTWARTYM ======
+
+    /** Kolejna szczelina tablicy zawartości z tym kluczem po {@code previousSlot} (-1 = od początku) albo -1. */
+    private int nextWithContentHash(long contentHash, int previousSlot) {
+        if (!HashCodes.isPresent(contentHash)) return -1;
+        int mask = contentTable.length - 1;
+        int slot = previousSlot < 0 ? HashCodes.mix(contentHash) & mask : (previousSlot + 1) & mask;
+        for (; contentTable[slot] != 0; slot = (slot + 1) & mask) {
+            if (contentKey(contentTable[slot] - 1) == contentHash) return slot;
+        }
+        return -1;
+    }
+
+    private void removeFromContentTable(int id) {
+        long key = contentKey(id);
+        if (HashCodes.isPresent(key)) delete(contentTable, slotOf(contentTable, contentHome(id), id), this::contentHome);
+    }
+
+    private int contentHome(int id) {
+        return HashCodes.mix(contentKey(id));
+    }
+
+    private static void insert(int[] table, int home, int value) {
+        int mask = table.length - 1;
+        int slot = home & mask;
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = value + 1;
+    }
+
+    private static int slotOf(int[] table, int home, int value) {
+        int mask = table.length - 1;
+        int slot = home & mask;
+        while (table[slot] != value + 1) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /** Usuwa szczelinę, przesuwając wstecz wpisy, które mogą zająć lukę (jak w {@code LongObjectHashMap}). */
+    private static void delete(int[] table, int slot, IntUnaryOperator homeOf) {
+        int mask = table.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int id = table[next] - 1;
+            int home = homeOf.applyAsInt(id) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap] = table[next];
+                gap = next;
+            }
+        }
+        table[gap] = 0;
+    }
+
+    /** @param byContent czy pomijać wpisy bez klucza zawartości (nie ma ich w tablicy zawartości) */
+    private int[] rebuild(int capacity, IntUnaryOperator homeOf, boolean byContent) {
+        int[] table = new int[capacity];
+        for (int id = 0; id < count; id++) {
+            if (directoryIds[id] < 0 || (byContent && !HashCodes.isPresent(contentKey(id)))) continue;
+            insert(table, homeOf.applyAsInt(id), id);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,121 @@
+package org.example.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.example.util.HashCodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Strumieniowy odczyt i zapis {@code .mfbcm_hashes.json} (obiekt: ścieżka względna → wpis).
+ * Wpisy są przekazywane pojedynczo w trakcie parsowania, więc przy wczytywaniu nie powstaje
+ * tymczasowa mapa całego pliku. Zapis jest zwarty, bez wcięć; format pól jest ten sam co
+ * w adnotacjach Jackson na {@link HashStorageService.FileHashInfo}, więc oba zapisy są zgodne
+ * w obie strony. Nieznane pola są pomijane.
+ */
+final class HashFileCodec {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private HashFileCodec() {}
+
+    /**
+     * Przekazuje kolejne wpisy pliku. Wpis zapisany jako {@code null} lub nie-obiekt jest
+     * przekazywany jako {@code null} - walidacja należy do odbiorcy.
+     */
+    static void read(File file, Consumer<HashStorageService.FileHashInfo> sink) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("expected a JSON object of hash entries");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    sink.accept(null);
+                    continue;
+                }
+                sink.accept(readEntry(parser));
+            }
+        }
+    }
+
+    private static HashStorageService.FileHashInfo readEntry(JsonParser parser) throws IOException {
+        HashStorageService.FileHashInfo info = new HashStorageService.FileHashInfo();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "relativePath" -> info.setRelativePath(parser.getValueAsString());
+                case "hash" -> info.setHash(HashCodes.fromHex(parser.getValueAsString()));
+                case "fullHash" -> info.setFullHash(HashCodes.fromHex(parser.getValueAsString()));
+                case "sampleVersion" -> info.setSampleVersion(parser.getValueAsInt());
+                case "lastModified" -> info.setLastModified(parser.getValueAsLong());
+                case "fileSize" -> info.setFileSize(parser.getValueAsLong());
+                default -> parser.skipChildren();
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Zapisuje wpisy do pliku tymczasowego, wymusza zapis na dysk i atomowo podmienia {@code file}.
+     * Wpisy są zapisywane w trakcie przeglądania źródła (np. {@code snapshot::forEach}) - nie są
+     * zbierane w kolekcji.
+     */
+    static void write(File file, Consumer<Consumer<HashStorageService.FileHashInfo>> entries) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (JsonGenerator generator = FACTORY.createGenerator(tempFile, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            forEach(entries, info -> {
+                generator.writeFieldName(info.getRelativePath());
+                generator.writeStartObject();
+                generator.writeStringField("relativePath", info.getRelativePath());
+                generator.writeStringField("hash", HashCodes.toHex(info.getHash()));
+                if (HashCodes.isPresent(info.getFullHash())) {
+                    generator.writeStringField("fullHash", HashCodes.toHex(info.getFullHash()));
+                }
+                if (info.getSampleVersion() != 0) {
+                    generator.writeNumberField("sampleVersion", info.getSampleVersion());
+                }
+                generator.writeNumberField("lastModified", info.getLastModified());
+                generator.writeNumberField("fileSize", info.getFileSize());
+                generator.writeEndObject();
+            });
+            generator.writeEndObject();
+        }
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Zapis pojedynczego wpisu, który może zgłosić błąd wejścia-wyjścia. */
+    interface EntryWriter {
+        void write(HashStorageService.FileHashInfo info) throws IOException;
+    }
+
+    /** Przekazuje wpisy źródła do {@code writer}; błąd zapisu przerywa przeglądanie i jest zgłaszany dalej. */
+    static void forEach(Consumer<Consumer<HashStorageService.FileHashInfo>> entries, EntryWriter writer) throws IOException {
+        try {
+            entries.accept(info -> {
+                try {
+                    writer.write(info);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package org.example.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Binarny dziennik zmian indeksu haszy dopisywany na końcu pliku. Każdy zapis indeksu dopisuje
+ * tylko rekordy zmienionych wpisów (dodanie/zmiana, usunięcie, wyczyszczenie), więc kosztuje
+ * O(zmian), a nie O(rozmiaru indeksu). Przy odczycie dziennik jest odtwarzany na migawce.
+ * <p>
+ * Rekord: długość treści, treść (kod operacji i pola wpisu), suma CRC32C treści. Rekordy opisują
+ * stan docelowy wpisu, więc odtworzenie ich na nowszej migawce daje ten sam wynik. Niepełny
+ * lub uszkodzony ogon (np. po awarii w trakcie zapisu) jest odcinany przy otwarciu.
+ * <p>
+ * Kompaktowanie: {@link #rotate()} odkłada bieżący dziennik jako {@code .compacting} i zaczyna
+ * nowy, wywołujący zapisuje migawkę stanu z chwili rotacji, a {@link #finishCompaction()} usuwa
+ * odłożony dziennik. Awaria w dowolnym momencie zostawia migawkę i dzienniki, z których
+ * {@link #replay} odtwarza pełny stan.
+ */
+final class HashJournal {
+
+    private static final int MAGIC = 0x4D464A31; // "MFJ1"
+    private static final int HEADER_SIZE = Integer.BYTES;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_CLEAR = 3;
+
+    /** Odbiorca odtwarzanych rekordów. */
+    interface Replay {
+        void put(HashStorageService.FileHashInfo info);
+        void delete(String relativePath);
+        void clear();
+    }
+
+    private final File journalFile;
+    private final File compactingFile;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32C crc = new CRC32C();
+    private FileChannel channel;
+    private long recordCount;
+    private int pendingCount;
+
+    HashJournal(File journalFile) {
+        this.journalFile = journalFile;
+        this.compactingFile = new File(journalFile.getPath() + ".compacting");
+    }
+
+    // ====== ODTWARZANIE ======
+
+    /**
+     * Odtwarza dziennik odłożony do kompaktowania (jeśli został po przerwanym kompaktowaniu),
+     * a potem bieżący. Bieżący dziennik jest przycinany do ostatniego poprawnego rekordu.
+     *
+     * @return czy został dziennik przerwanego kompaktowania - wtedy warto od razu zapisać migawkę
+     */
+    synchronized boolean replay(Replay target) throws IOException {
+        boolean interrupted = compactingFile.exists();
+        if (interrupted) {
+            replayFile(compactingFile, target);
+        }
+        long validLength = journalFile.exists() ? replayFile(journalFile, target) : 0;
+        if (journalFile.exists() && validLength < journalFile.length()) {
+            System.err.println("Hash journal: discarding " + (journalFile.length() - Math.max(validLength, HEADER_SIZE)) +
+                " bytes of incomplete records");
+            if (validLength < HEADER_SIZE) {
+                Files.delete(journalFile.toPath());
+            } else {
+                try (FileChannel truncate = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+                    truncate.truncate(validLength);
+                }
+            }
+        }
+        return interrupted;
+    }
+
+    /** Zwraca długość poprawnej części pliku (0, gdy nagłówek jest niepoprawny). */
+    private long replayFile(File file, Replay target) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                System.err.println("Hash journal: unknown format of " + file.getName() + ", ignoring it");
+                return 0;
+            }
+            long position = HEADER_SIZE;
+            long count = 0;
+            byte[] payload = new byte[256];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) break;
+                if (payload.length < length) payload = new byte[Math.max(length, payload.length * 2)];
+                if (!readFully(in, payload, length)) break;
+                int checksum;
+                try {
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) break;
+                // Rekord z poprawną sumą, ale nieczytelny (nieznany kod, za krótka treść) - jak uszkodzony
+                if (!apply(new DataInputStream(new ByteArrayInputStream(payload, 0, length)), target)) break;
+
+                position += Integer.BYTES + length + Integer.BYTES;
+                count++;
+            }
+            if (file.equals(journalFile)) recordCount = count;
+            return position;
+        } catch (EOFException e) {
+            return 0;
+        }
+    }
+
+    private static boolean readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) return false;
+            read += n;
+        }
+        return true;
+    }
+
+    /**
+     * Dekoduje treść rekordu w całości, zanim przekaże go dalej.
+     *
+     * @return false, gdy treści nie da się odczytać - odbiorca nic wtedy nie dostaje
+     */
+    private static boolean apply(DataInputStream in, Replay target) {
+        try {
+            switch (in.readByte()) {
+                case OP_PUT -> {
+                    HashStorageService.FileHashInfo info = new HashStorageService.FileHashInfo();
+                    info.setRelativePath(in.readUTF());
+                    info.setHash(in.readLong());
+                    info.setFullHash(in.readLong());
+                    info.setSampleVersion(in.readInt());
+                    info.setLastModified(in.readLong());
+                    info.setFileSize(in.readLong());
+                    target.put(info);
+                }
+                case OP_DELETE -> target.delete(in.readUTF());
+                case OP_CLEAR -> target.clear();
+                default -> {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            // Treść jest w pamięci - wyjątek oznacza za krótki lub błędnie zakodowany rekord
+            return false;
+        }
+    }
+
+    // ====== ZAPIS ======
+
+    /** Zapamiętuje stan wpisu z tej chwili; trafi na dysk przy {@link #flush()}. */
+    synchronized void recordPut(HashStorageService.FileHashInfo info) {
+        try {
+            recordOut.writeByte(OP_PUT);
+            recordOut.writeUTF(info.getRelativePath());
+            recordOut.writeLong(info.getHash());
+            recordOut.writeLong(info.getFullHash());
+            recordOut.writeInt(info.getSampleVersion());
+            recordOut.writeLong(info.getLastModified());
+            recordOut.writeLong(info.getFileSize());
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream nie zgłasza błędów
+        }
+        endRecord();
+    }
+
+    synchronized void recordDelete(String relativePath) {
+        try {
+            recordOut.writeByte(OP_DELETE);
+            recordOut.writeUTF(relativePath);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        endRecord();
+    }
+
+    synchronized void recordClear() {
+        record.write(OP_CLEAR);
+        endRecord();
+    }
+
+    private void endRecord() {
+        byte[] payload = record.toByteArray();
+        crc.reset();
+        crc.update(payload);
+        writeInt(pending, payload.length);
+        pending.writeBytes(payload);
+        writeInt(pending, (int) crc.getValue());
+        record.reset();
+        pendingCount++;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /** Dopisuje zapamiętane rekordy na koniec dziennika i wymusza ich zapis na dysk. */
+    synchronized void flush() throws IOException {
+        if (pendingCount == 0) return;
+        FileChannel out = openChannel();
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        out.force(false);
+        recordCount += pendingCount;
+        pending.reset();
+        pendingCount = 0;
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            boolean fresh = !journalFile.exists() || journalFile.length() < HEADER_SIZE;
+            channel = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (fresh) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(0, MAGIC);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            }
+        }
+        return channel;
+    }
+
+    // ====== KOMPAKTOWANIE ======
+
+    /** Czy dziennik urósł na tyle, że opłaca się zapisać migawkę. */
+    synchronized boolean needsCompaction(int liveEntries, long minRecords) {
+        return recordCount >= Math.max(minRecords, liveEntries / 2);
+    }
+
+    synchronized boolean isCompacting() { return compactingFile.exists(); }
+
+    /**
+     * Odkłada bieżący dziennik do kompaktowania i zaczyna nowy. Wywołujący musi trzymać
+     * kopię stanu z tej samej chwili i zapisać ją jako migawkę przed {@link #finishCompaction()}.
+     */
+    synchronized void rotate() throws IOException {
+        flush();
+        close();
+        if (journalFile.exists()) {
+            Files.move(journalFile.toPath(), compactingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        recordCount = 0;
+    }
+
+    /** Migawka jest już na dysku - odłożony dziennik nie jest potrzebny. */
+    synchronized void finishCompaction() throws IOException {
+        Files.deleteIfExists(compactingFile.toPath());
+    }
+
+    /** Zaczyna od pustego dziennika - wywoływane po zapisaniu migawki całego stanu. */
+    synchronized void reset() throws IOException {
+        close();
+        pending.reset();
+        pendingCount = 0;
+        recordCount = 0;
+        Files.deleteIfExists(journalFile.toPath());
+        Files.deleteIfExists(compactingFile.toPath());
+    }
+
+    synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
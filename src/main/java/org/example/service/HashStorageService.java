@@ -1,8 +1,16 @@
 package org.example.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.MapType;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import org.example.model.BackupConfiguration.ExecutionMode;
+import org.example.model.BackupConfiguration.HashMode;
+import org.example.model.BackupConfiguration.HashScheduling;
+import org.example.model.BackupFile;
+import org.example.service.MultiThreadedHashCalculator.HashResults;
 import org.example.util.FileUtilities;
+import org.example.util.HashCodes;
 
 
 import java.io.File;
@@ -10,38 +18,177 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 /**
  * Serwis zarządzania haszami xxHash3 plików w folderze głównej kopii zapasowej.
  * Przechowuje hasze trwale i waliduje zmiany przy starcie.
+ * <p>
+ * Na dysku indeks to migawka {@code .mfbcm_hashes.json} i binarny dziennik zmian od jej zapisu
+ * ({@link HashJournal}) - zapis po walidacji dopisuje tylko zmienione wpisy. Razem z migawką JSON
+ * powstaje indeks mapowany do pamięci ({@link MappedHashIndex}); jeśli jest aktualny, start
+ * tylko go mapuje, a w pamięci trzymane są jedynie zmiany względem niego - w układzie
+ * kolumnowym {@link HashEntryStore}, bez obiektu na wpis. Po kompaktowaniu dziennika zmiany
+ * przechodzą do nowo zapisanego indeksu.
+ * <p>
+ * Po {@link #startWatching} indeks jest aktualizowany na bieżąco ze zdarzeń systemu plików
+ * ({@link MasterFolderWatcher}) - haszowane są tylko pliki, których zmiany dotyczą.
+ * Wyszukiwanie duplikatów czyta niezmienną migawkę ({@link MasterSnapshot}) - zamrożone warstwy
+ * indeksu, uzyskiwane w O(1) bez kopiowania i bez czekania na trwającą walidację.
  */
 public class HashStorageService {
 
+    /** Przedrostek wszystkich plików indeksu - obserwator folderu pomija ich zmiany. */
+    private static final String HASH_FILES_PREFIX = ".mfbcm_hashes";
     private static final String HASH_FILE_NAME = ".mfbcm_hashes.json";
+    private static final String JOURNAL_FILE_NAME = ".mfbcm_hashes.journal";
+    /** Wskaźnik aktualnej generacji indeksu mapowanego; generacje to {@code .mfbcm_hashes.idx.<numer>}. */
+    private static final String INDEX_FILE_NAME = ".mfbcm_hashes.idx";
+    private static final String FINGERPRINT_FILE_NAME = ".mfbcm_hashes.dirs";
+    /** Dziennik krótszy niż tyle rekordów nigdy nie jest kompaktowany. */
+    private static final long MIN_COMPACTION_RECORDS = 50_000;
+    /** Punkt kontrolny podczas haszowania: co tyle czasu albo co tyle przehaszowanych bajtów. */
+    private static final long CHECKPOINT_INTERVAL_MS = 30_000;
+    private static final long CHECKPOINT_BYTES = 4L * 1024 * 1024 * 1024;
 
     private final File masterLocation;
     private final File hashFile;
-    private final Map<String, FileHashInfo> storedHashes;
-    private final Map<String, FileHashInfo> hashToInfoCache;
-    private final ObjectMapper objectMapper;
+    private final File indexFile;
+    private final File fingerprintFile;
+    /** Wpisy spoza zmapowanego indeksu: nowe, zmienione lub wszystkie, gdy indeksu nie ma. */
+    private final HashEntryStore entries;
+    /** Rekordy zmapowanego indeksu zastąpione lub usunięte od jego zapisu; null, gdy indeksu nie ma. */
+    private ShadowedRecords shadowedRecords;
+    /** Zmiany wpisów i liczniki duplikatów są aktualizowane razem. */
+    private final Object entryLock = new Object();
+    /** Liczniki duplikatów całego folderu - budowane przy pierwszym zapytaniu, potem aktualizowane przy każdej zmianie. */
+    private DuplicateCounts duplicates;
+    /** Numer zmiany wpisów; zapisywany pod {@code entryLock}, czytany bez blokady przez {@link #getSnapshot}. */
+    private volatile long generation;
+    private volatile MasterSnapshot snapshot;
+    /** Stan zapisywany przez trwające kompaktowanie i ścieżki zmienione od jego rozpoczęcia; null poza nim. */
+    private MasterSnapshot compactionState;
+    private Set<String> changedSinceCompaction;
+    /** Indeks zapisany przez kompaktowanie, do którego {@link #applyCompactedIndex} przeniesie wpisy z pamięci. */
+    private MappedHashIndex compactedIndex;
+    private volatile MappedHashIndex mappedIndex;
+    private DirectoryFingerprints fingerprints;
+    private final HashJournal journal;
+    /** Jeden wątek w tle dla punktów kontrolnych i kompaktowania dziennika. */
+    private final ScheduledExecutorService persistence;
+    private final Queue<HashedFile> checkpointQueue = new ConcurrentLinkedQueue<>();
+    /** Pliki, których wyniki przebiegu są już w dzienniku i w pamięci z punktu kontrolnego. */
+    private final Map<String, CheckpointedEntry> checkpointed = new ConcurrentHashMap<>();
+    private final AtomicLong checkpointBytes = new AtomicLong();
+    private final Object checkpointLock = new Object();
+    /** Walidacja i zmiany z obserwatora folderu nie mogą modyfikować wpisów jednocześnie. */
+    private final Object updateLock = new Object();
+    private MasterFolderWatcher watcher;
+    private boolean watchingPaused;
     private final int threadCount;
+    private final HashMode hashMode;
+    private final HashScheduling hashScheduling;
+    private volatile boolean adaptiveThreads;
+    private volatile ExecutionMode executionMode = ExecutionMode.FIXED_POOL;
 
     public HashStorageService(File masterLocation, int threadCount) {
+        this(masterLocation, threadCount, HashMode.SAMPLED);
+    }
+
+    public HashStorageService(File masterLocation, int threadCount, HashMode hashMode) {
+        this(masterLocation, threadCount, hashMode, HashScheduling.LARGEST_FIRST);
+    }
+
+    public HashStorageService(File masterLocation, int threadCount, HashMode hashMode, HashScheduling hashScheduling) {
         this.masterLocation = masterLocation;
         this.hashFile = new File(masterLocation, HASH_FILE_NAME);
-        this.storedHashes = new ConcurrentHashMap<>();
-        this.hashToInfoCache = new ConcurrentHashMap<>();
-        this.objectMapper = new ObjectMapper();
+        this.indexFile = new File(masterLocation, INDEX_FILE_NAME);
+        this.fingerprintFile = new File(masterLocation, FINGERPRINT_FILE_NAME);
+        this.journal = new HashJournal(new File(masterLocation, JOURNAL_FILE_NAME));
+        this.persistence = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "HashPersistence");
+            // Przerwany zapis zostawia migawkę i dzienniki, z których stan jest odtwarzany
+            t.setDaemon(true);
+            return t;
+        });
         this.threadCount = Math.max(1, threadCount);
+        this.hashMode = hashMode != null ? hashMode : HashMode.SAMPLED;
+        this.hashScheduling = hashScheduling;
+        this.entries = new HashEntryStore(this.hashMode == HashMode.FULL);
 
         loadStoredHashes();
+        // Generacje indeksu, których poprzednia sesja nie mogła usunąć, bo były jeszcze zmapowane
+        persistence.execute(() -> MappedHashIndex.deleteStale(indexFile));
+        this.fingerprints = DirectoryFingerprints.load(fingerprintFile);
     }
 
     // ====== PUBLICZNE API ======
 
-    public Map<String, FileHashInfo> getHashToInfoMap() {
-        return new HashMap<>(hashToInfoCache);
+    /** Zobacz {@link MultiThreadedHashCalculator#setAdaptiveThreads}. */
+    public void setAdaptiveThreads(boolean adaptiveThreads) {
+        this.adaptiveThreads = adaptiveThreads;
+    }
+
+    /** Tryb wykonania kalkulatora haszy - zobacz {@link ExecutionMode}. */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode != null ? executionMode : ExecutionMode.FIXED_POOL;
+    }
+
+    /**
+     * Niezmienna migawka indeksu w O(1): bez zmian wpisów od poprzedniego wywołania zwraca ten sam
+     * obiekt, a po zmianie zamraża warstwy indeksu bez kopiowania ich ({@link MasterSnapshot}).
+     * W trybie FULL kluczem zawartości dużych plików jest hasz pełny, zgodnie z
+     * {@link HashResults#contentHash}.
+     */
+    public MasterSnapshot getSnapshot() {
+        MasterSnapshot current = snapshot;
+        if (current != null && current.generation() == generation) return current;
+        synchronized (entryLock) {
+            if (snapshot == null || snapshot.generation() != generation) {
+                MappedHashIndex index = mappedIndex;
+                snapshot = new MasterSnapshot(generation, index, index != null ? shadowedRecords.freeze() : null,
+                    entries.freeze(), hashMode == HashMode.FULL);
+            }
+            return snapshot;
+        }
+    }
+
+    /** Wpis o podanym kluczu zawartości albo null - zobacz {@link MasterSnapshot#findByContentHash}. */
+    public FileHashInfo findByContentHash(long contentHash) {
+        return getSnapshot().findByContentHash(contentHash);
+    }
+
+    /** Wszystkie wpisy o podanym haszu zawartości - kopie tej samej zawartości w folderze głównym. */
+    public List<FileHashInfo> findAllByContentHash(long contentHash) {
+        return getSnapshot().findAllByContentHash(contentHash);
+    }
+
+    /**
+     * Liczba grup duplikatów w folderze głównym, nadmiarowych kopii i zajmowanych przez nie bajtów.
+     * Sumy są aktualizowane przy każdej zmianie wpisu, więc wywołanie nie przegląda indeksu
+     * (poza pierwszym, które buduje liczniki z indeksu w pamięci).
+     */
+    public DuplicateSummary getDuplicateSummary() {
+        return duplicateCounts().summary();
+    }
+
+    /** Grupy wpisów o tej samej zawartości - każda ma co najmniej dwa wpisy. */
+    public List<List<FileHashInfo>> getDuplicateGroups() {
+        long[] keys = duplicateCounts().duplicateKeys();
+        MasterSnapshot master = getSnapshot();
+        List<List<FileHashInfo>> groups = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            List<FileHashInfo> group = master.findAllByContentHash(key);
+            if (group.size() > 1) groups.add(group);
+        }
+        return groups;
     }
 
     public ValidationResult validateAndUpdateHashesMultiThreaded(
@@ -55,18 +202,25 @@ public class HashStorageService {
             return result;
         }
 
-        Map<String, File> currentFiles = scanMasterFolder();
-        if (isCancelled != null && isCancelled.getAsBoolean()) return result;
+        synchronized (updateLock) {
+            applyCompactedIndex();
+            MasterScan scan = scanMasterFolder(result);
+            if (isCancelled != null && isCancelled.getAsBoolean()) return result;
 
-        List<File> filesToHash = identifyFilesToHash(currentFiles);
+            List<File> filesToHash = identifyFilesToHash(scan);
 
-        if (!filesToHash.isEmpty()) {
-            processFilesToHash(filesToHash, result, progressCallback, isCancelled);
-        }
+            if (!filesToHash.isEmpty()) {
+                processFilesToHash(filesToHash, result, progressCallback, isCancelled);
+            }
 
-        if (isCancelled == null || !isCancelled.getAsBoolean()) {
-            removeDeletedFiles(currentFiles.keySet(), result);
-            saveStoredHashes();
+            if (isCancelled == null || !isCancelled.getAsBoolean()) {
+                removeDeletedFiles(scan.files().keySet(), result);
+                saveStoredHashes();
+                saveFingerprints(scan.fingerprints());
+                DuplicateSummary summary = getDuplicateSummary();
+                System.out.println("Master duplicates: " + summary.groups() + " groups, " + summary.duplicateFiles() +
+                    " redundant copies, " + FileUtilities.formatFileSize(summary.wastedBytes()) + " wasted");
+            }
         }
 
         return result;
@@ -75,129 +229,687 @@ public class HashStorageService {
     public ValidationResult forceRehashMultiThreaded(
             MultiThreadedHashCalculator.ProgressCallback progressCallback,
             BooleanSupplier isCancelled) throws InterruptedException {
-        storedHashes.clear();
-        hashToInfoCache.clear();
-        return validateAndUpdateHashesMultiThreaded(progressCallback, isCancelled);
+        synchronized (updateLock) {
+            clearEntries();
+            journal.recordClear();
+            return validateAndUpdateHashesMultiThreaded(progressCallback, isCancelled);
+        }
     }
 
+    /**
+     * Dopisuje do indeksu pliki skopiowane do folderu głównego przez kopię zapasową - koszt zależy
+     * od liczby skopiowanych plików, a nie od rozmiaru folderu. Hasz pliku źródłowego jest
+     * przejmowany, gdy jednoznacznie odpowiada wpisowi indeksu: dla plików haszowanych w całości
+     * i dla próbkowanych w trybie SAMPLED. Źródła bez hasza ze skanowania haszuje kopia zapasowa
+     * ({@link BackupFile#getContentHash()}). Pozostałe skopiowane pliki (bez hasza źródła albo
+     * z haszem pełnym w trybie FULL) są haszowane - tylko one. Liczby obu rodzajów trafiają do
+     * wyniku ({@link ValidationResult#getSourceHashesReused()}, {@link ValidationResult#getCopiedFilesHashed()}).
+     *
+     * @param copiedFiles pliki z ustawionym {@link BackupFile#getMasterFile()}; pozostałe są pomijane
+     */
+    public ValidationResult registerCopiedFiles(List<BackupFile> copiedFiles,
+            MultiThreadedHashCalculator.ProgressCallback progressCallback,
+            BooleanSupplier isCancelled) throws InterruptedException {
+
+        ValidationResult result = new ValidationResult();
+        synchronized (updateLock) {
+            applyCompactedIndex();
+            List<File> filesToHash = new ArrayList<>();
+            for (BackupFile copied : copiedFiles) {
+                File file = copied.getMasterFile();
+                if (file == null || !isMasterFile(file)) continue;
+                String relativePath = getRelativePath(masterLocation, file);
+                FileHashInfo stored = lookup(relativePath);
+                if (!needsHashing(file, stored, true)) continue; // np. już dodany przez obserwatora folderu
+
+                long sourceHash = copied.getContentHash();
+                if (isReusableSourceHash(file, sourceHash)) {
+                    FileHashInfo info = newEntry(relativePath, file, sourceHash, HashCodes.NO_HASH,
+                        FileHasher.isSampled(file.length()) ? SamplePlan.forFile(file).getVersion() : 0);
+                    putEntry(info);
+                    journal.recordPut(info);
+                    if (stored == null) {
+                        result.addNewFile(relativePath, contentKey(info));
+                    } else {
+                        result.addModifiedFile(relativePath, contentKey(info));
+                    }
+                    result.setSourceHashesReused(result.getSourceHashesReused() + 1);
+                } else {
+                    filesToHash.add(file);
+                }
+            }
+
+            if (!filesToHash.isEmpty()) {
+                processFilesToHash(filesToHash, result, progressCallback, isCancelled);
+            }
+            result.setCopiedFilesHashed(filesToHash.size());
+            saveStoredHashes();
+            System.out.println("Copied files registered: " + result.getSourceHashesReused() + " with source hashes, " +
+                result.getCopiedFilesHashed() + " hashed");
+        }
+        return result;
+    }
+
+    /**
+     * Zaczyna obserwować folder główny: utworzone, zmienione i usunięte pliki trafiają do indeksu
+     * w tle i tylko one są haszowane. {@code onChange} dostaje wynik każdej paczki, która zmieniła
+     * indeks - w wątku obserwatora. Zmiany z czasu, gdy aplikacja nie działała, wykrywa walidacja.
+     */
+    public synchronized void startWatching(Consumer<ValidationResult> onChange) throws IOException {
+        if (watcher != null) return;
+        watcher = new MasterFolderWatcher(masterLocation.toPath(), HASH_FILES_PREFIX,
+            (paths, subtrees) -> applyWatchedChanges(paths, subtrees, onChange));
+        if (watchingPaused) watcher.pause();
+        watcher.start();
+    }
+
+    /**
+     * Wstrzymuje nanoszenie zmian z obserwatora, np. na czas kopii zapasowej: kopiowane pliki nie są
+     * haszowane w trakcie zapisu ani ponownie po ustawieniu ich daty, a {@link #registerCopiedFiles}
+     * może przejąć hasze źródeł. Zdarzenia z tego czasu są nanoszone po {@link #resumeWatching()} -
+     * pliki już zarejestrowane nie są wtedy haszowane.
+     */
+    public synchronized void pauseWatching() {
+        watchingPaused = true;
+        if (watcher != null) watcher.pause();
+    }
+
+    public synchronized void resumeWatching() {
+        watchingPaused = false;
+        if (watcher != null) watcher.resume();
+    }
+
+    public synchronized void stopWatching() {
+        if (watcher == null) return;
+        watcher.stop();
+        watcher = null;
+    }
+
+    public synchronized boolean isWatching() { return watcher != null && watcher.isRunning(); }
+
     // ====== PRZETWARZANIE PLIKÓW ======
 
-    private List<File> identifyFilesToHash(Map<String, File> currentFiles) {
+    /** Daty i rozmiary plików z niezmienionych katalogów nie są sprawdzane. */
+    private List<File> identifyFilesToHash(MasterScan scan) {
         List<File> filesToHash = new ArrayList<>();
-        for (Map.Entry<String, File> entry : currentFiles.entrySet()) {
+        for (Map.Entry<String, File> entry : scan.files().entrySet()) {
             String relativePath = entry.getKey();
             File file = entry.getValue();
-            FileHashInfo stored = storedHashes.get(relativePath);
-
-            if (stored == null || isFileModified(file, stored)) {
+            FileHashInfo stored = lookup(relativePath);
+            if (needsHashing(file, stored, !scan.unchanged().contains(relativePath))) {
                 filesToHash.add(file);
             }
         }
         return filesToHash;
     }
 
+    /**
+     * Hasz źródła to hasz zawartości ({@link HashResults#contentHash}): dla pliku haszowanego
+     * w całości jest to hasz wpisu, a dla próbkowanego - tylko w trybie SAMPLED (w trybie FULL
+     * może to być hasz pełny, bez hasza próbkowanego).
+     */
+    private boolean isReusableSourceHash(File file, long sourceHash) {
+        return HashCodes.isPresent(sourceHash) && (!FileHasher.isSampled(file.length()) || hashMode == HashMode.SAMPLED);
+    }
+
+    /** @param examined czy sprawdzać datę i rozmiar pliku (nie - gdy katalog się nie zmienił) */
+    private boolean needsHashing(File file, FileHashInfo stored, boolean examined) {
+        return stored == null || (examined && isFileModified(file, stored)) || isMissingFullHash(stored)
+            || isStaleSamplePlan(file, stored);
+    }
+
     private boolean isFileModified(File file, FileHashInfo stored) {
         return file.lastModified() != stored.getLastModified() || file.length() != stored.getFileSize();
     }
 
+    private boolean isMissingFullHash(FileHashInfo stored) {
+        return hashMode == HashMode.FULL && !HashCodes.isPresent(stored.getFullHash())
+            && FileHasher.isSampled(stored.getFileSize());
+    }
+
+    /**
+     * Wpis jest nieaktualny tylko wtedy, gdy plan próbkowania dla typu pliku dostał nową wersję.
+     * Wpisy bez zapisanej wersji odpowiadają {@link SamplePlan#V1}.
+     */
+    private boolean isStaleSamplePlan(File file, FileHashInfo stored) {
+        if (!FileHasher.isSampled(stored.getFileSize())) return false;
+        return SamplePlan.forVersion(stored.getSampleVersion()) != SamplePlan.forFile(file);
+    }
+
+    /** Klucz zawartości wpisu - hasz pełny w trybie FULL, jeśli jest dostępny. */
+    private long contentKey(FileHashInfo info) {
+        return hashMode == HashMode.FULL && HashCodes.isPresent(info.getFullHash()) ? info.getFullHash() : info.getHash();
+    }
+
+    private long contentKey(MappedHashIndex index, int record) {
+        long fullHash = index.fullHash(record);
+        return hashMode == HashMode.FULL && HashCodes.isPresent(fullHash) ? fullHash : index.hash(record);
+    }
+
     private void processFilesToHash(List<File> filesToHash,
             ValidationResult result, MultiThreadedHashCalculator.ProgressCallback progressCallback,
             BooleanSupplier isCancelled) throws InterruptedException {
 
         long startTime = System.currentTimeMillis();
-        MultiThreadedHashCalculator calculator = new MultiThreadedHashCalculator(threadCount);
+        MultiThreadedHashCalculator calculator = new MultiThreadedHashCalculator(
+            threadCount, hashMode, hashScheduling, executionMode);
+        calculator.setAdaptiveThreads(adaptiveThreads);
 
+        ScheduledFuture<?> checkpoints = persistence.scheduleWithFixedDelay(this::checkpoint,
+            CHECKPOINT_INTERVAL_MS, CHECKPOINT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        HashResults hashedResults;
         try {
-            Map<String, String> hashedResults = calculator.calculateHashes(
-                filesToHash, progressCallback, isCancelled);
+            hashedResults = calculator.calculateHashResults(
+                filesToHash, checkpointingCallback(progressCallback), isCancelled);
+        } finally {
+            checkpoints.cancel(false);
+            synchronized (checkpointLock) {
+                checkpointQueue.clear();
+                checkpointBytes.set(0);
+            }
+        }
 
+        try {
             updateResultsWithHashes(filesToHash, hashedResults, result, isCancelled);
-
-            long hashingTime = System.currentTimeMillis() - startTime;
-            long totalBytes = filesToHash.stream().mapToLong(File::length).sum();
-            double totalMB = totalBytes / (1024.0 * 1024.0);
-            double throughput = hashingTime > 0 ? totalMB / (hashingTime / 1000.0) : 0;
-
-            result.setProcessingTimeMs(hashingTime);
-            result.setThroughputMbPerSec(throughput);
         } finally {
-            calculator.shutdown();
+            checkpointed.clear();
         }
+
+        long hashingTime = System.currentTimeMillis() - startTime;
+        long totalBytes = filesToHash.stream().mapToLong(File::length).sum();
+        double totalMB = totalBytes / (1024.0 * 1024.0);
+        double throughput = hashingTime > 0 ? totalMB / (hashingTime / 1000.0) : 0;
+
+        result.setProcessingTimeMs(hashingTime);
+        result.setThroughputMbPerSec(throughput);
     }
 
-    private void updateResultsWithHashes(List<File> filesToHash, Map<String, String> hashedResults,
+    /**
+     * Nanosi wszystkie gotowe hasze, także po anulowaniu - przerwany przebieg nie traci pracy.
+     * Wpisy z punktów kontrolnych są już w pamięci i w dzienniku; trafiają tylko do wyniku.
+     */
+    private void updateResultsWithHashes(List<File> filesToHash, HashResults hashedResults,
             ValidationResult result, BooleanSupplier isCancelled) {
-        for (File file : filesToHash) {
-            if (isCancelled != null && isCancelled.getAsBoolean()) break;
-
-            String hash = hashedResults.get(file.getAbsolutePath());
-            if (hash != null) {
+        for (int i = 0; i < filesToHash.size(); i++) {
+            if (hashedResults.isHashed(i)) {
+                File file = filesToHash.get(i);
                 String relativePath = getRelativePath(masterLocation, file);
-                FileHashInfo stored = storedHashes.get(relativePath);
+                CheckpointedEntry saved = checkpointed.get(relativePath);
+                if (saved != null) {
+                    reportCheckpointed(relativePath, saved, result);
+                    continue;
+                }
+                FileHashInfo stored = lookup(relativePath);
 
                 if (stored == null) {
-                    addNewFile(relativePath, hash, file, result);
+                    addNewFile(relativePath, hashedResults, i, file, result);
                 } else {
-                    updateModifiedFile(relativePath, hash, file, stored, result);
+                    updateModifiedFile(relativePath, hashedResults, i, file, stored, result);
                 }
             }
         }
+        if (isCancelled != null && isCancelled.getAsBoolean()) {
+            try {
+                journal.flush();
+            } catch (IOException e) {
+                System.err.println("Failed to save hashes of cancelled pass: " + e.getMessage());
+            }
+        }
     }
 
-    private void addNewFile(String relativePath, String hash, File file, ValidationResult result) {
-        FileHashInfo hashInfo = new FileHashInfo(relativePath, hash, file.lastModified(), file.length());
-        storedHashes.put(relativePath, hashInfo);
-        hashToInfoCache.put(hash, hashInfo);
-        result.addNewFile(relativePath, hash);
+    private void addNewFile(String relativePath, HashResults hashes, int index, File file, ValidationResult result) {
+        FileHashInfo hashInfo = newEntry(relativePath, file, hashes.hash(index), hashes.fullHash(index), hashes.sampleVersion(index));
+        putEntry(hashInfo);
+        journal.recordPut(hashInfo);
+        result.addNewFile(relativePath, contentKey(hashInfo));
     }
 
-    private void updateModifiedFile(String relativePath, String hash, File file,
+    private void updateModifiedFile(String relativePath, HashResults hashes, int index, File file,
             FileHashInfo stored, ValidationResult result) {
-        if (!hash.equals(stored.getHash())) {
-            hashToInfoCache.remove(stored.getHash());
-            stored.setHash(hash);
-            stored.setLastModified(file.lastModified());
-            stored.setFileSize(file.length());
-            hashToInfoCache.put(hash, stored);
-            result.addModifiedFile(relativePath, hash);
+        long hash = hashes.hash(index);
+        long fullHash = hashes.fullHash(index);
+        boolean contentChanged = isContentChanged(stored, hash, fullHash);
+        boolean fullHashAdded = HashCodes.isPresent(fullHash) && !HashCodes.isPresent(stored.getFullHash());
+        boolean planChanged = hashes.sampleVersion(index) != stored.getSampleVersion();
+        if (!contentChanged && !fullHashAdded && !planChanged) return;
+
+        stored.setHash(hash);
+        stored.setFullHash(fullHash);
+        stored.setSampleVersion(hashes.sampleVersion(index));
+        stored.setLastModified(file.lastModified());
+        stored.setFileSize(file.length());
+        putEntry(stored);
+        journal.recordPut(stored);
+        if (contentChanged) {
+            result.addModifiedFile(relativePath, contentKey(stored));
         }
     }
 
+    private static boolean isContentChanged(FileHashInfo stored, long hash, long fullHash) {
+        return hash != stored.getHash() ||
+            (HashCodes.isPresent(fullHash) && HashCodes.isPresent(stored.getFullHash()) && fullHash != stored.getFullHash());
+    }
+
+    /** Wynik dla wpisu z punktu kontrolnego - względem wpisu sprzed przebiegu. */
+    private void reportCheckpointed(String relativePath, CheckpointedEntry saved, ValidationResult result) {
+        FileHashInfo entry = saved.entry();
+        if (saved.previous() == null) {
+            result.addNewFile(relativePath, contentKey(entry));
+        } else if (isContentChanged(saved.previous(), entry.getHash(), entry.getFullHash())) {
+            result.addModifiedFile(relativePath, contentKey(entry));
+        }
+    }
+
+    private FileHashInfo newEntry(String relativePath, File file, long hash, long fullHash, int sampleVersion) {
+        FileHashInfo info = new FileHashInfo(relativePath, hash, file.lastModified(), file.length());
+        info.setFullHash(fullHash);
+        info.setSampleVersion(sampleVersion);
+        return info;
+    }
+
     private void removeDeletedFiles(Set<String> currentPaths, ValidationResult result) {
-        Iterator<Map.Entry<String, FileHashInfo>> iterator = storedHashes.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, FileHashInfo> entry = iterator.next();
-            if (!currentPaths.contains(entry.getKey())) {
-                FileHashInfo info = entry.getValue();
-                iterator.remove();
-                hashToInfoCache.remove(info.getHash());
-                result.addDeletedFile(entry.getKey(), info.getHash());
+        for (String relativePath : entries.paths()) {
+            if (!currentPaths.contains(relativePath)) {
+                FileHashInfo info = removeEntry(relativePath);
+                journal.recordDelete(relativePath);
+                result.addDeletedFile(relativePath, contentKey(info));
+            }
+        }
+
+        MappedHashIndex index = mappedIndex;
+        if (index == null) return;
+        for (int record = 0; record < index.size(); record++) {
+            if (isShadowed(record)) continue;
+            String relativePath = index.path(record);
+            if (!currentPaths.contains(relativePath)) {
+                removeEntry(relativePath);
+                journal.recordDelete(relativePath);
+                result.addDeletedFile(relativePath, contentKey(index, record));
+            }
+        }
+    }
+
+    // ====== WPISY ======
+
+    /** Wpis o podanej ścieżce: najpierw zmiany w pamięci, potem zmapowany indeks. */
+    private FileHashInfo lookup(String relativePath) {
+        FileHashInfo info = entries.get(relativePath);
+        if (info != null) return info;
+        MappedHashIndex index = mappedIndex;
+        if (index == null) return null;
+        int record = index.findByPath(relativePath);
+        return record >= 0 && !isShadowed(record) ? index.get(record) : null;
+    }
+
+    /** Czy rekord zmapowanego indeksu został zastąpiony wpisem w pamięci lub usunięty. */
+    private boolean isShadowed(int record) {
+        return shadowedRecords.contains(record);
+    }
+
+    /** Zacienia rekord zmapowanego indeksu o tej ścieżce (jeśli jest) i zapamiętuje zmianę dla kompaktowania. */
+    private void shadow(String relativePath) {
+        MappedHashIndex index = mappedIndex;
+        if (index != null) {
+            int record = index.findByPath(relativePath);
+            if (record >= 0) shadowedRecords.add(record);
+        }
+        if (changedSinceCompaction != null) changedSinceCompaction.add(relativePath);
+    }
+
+    private void putEntry(FileHashInfo info) {
+        synchronized (entryLock) {
+            if (duplicates != null) {
+                FileHashInfo previous = lookup(info.getRelativePath());
+                if (previous != null) duplicates.remove(contentKey(previous));
+                duplicates.add(contentKey(info), info.getFileSize());
+            }
+            entries.put(info);
+            shadow(info.getRelativePath());
+            generation++;
+        }
+    }
+
+    /** Zwraca usunięty wpis albo null. */
+    private FileHashInfo removeEntry(String relativePath) {
+        synchronized (entryLock) {
+            FileHashInfo info = lookup(relativePath);
+            if (info == null) return null;
+            entries.remove(relativePath);
+            shadow(relativePath);
+            if (duplicates != null) duplicates.remove(contentKey(info));
+            generation++;
+            return info;
+        }
+    }
+
+    private void clearEntries() {
+        synchronized (entryLock) {
+            entries.clear();
+            mappedIndex = null;
+            shadowedRecords = null;
+            duplicates = null;
+            // Trwające kompaktowanie zapisuje stan sprzed czyszczenia - jego indeks nie zostanie użyty
+            compactionState = null;
+            changedSinceCompaction = null;
+            compactedIndex = null;
+            generation++;
+        }
+    }
+
+    /** Rekordy zmapowanego indeksu są liczone bez dekodowania ścieżek; potem dodawane są wpisy z pamięci. */
+    private DuplicateCounts duplicateCounts() {
+        synchronized (entryLock) {
+            if (duplicates == null) {
+                DuplicateCounts counts = new DuplicateCounts(entryCount());
+                MappedHashIndex index = mappedIndex;
+                if (index != null) {
+                    for (int record = 0; record < index.size(); record++) {
+                        if (!isShadowed(record)) counts.add(contentKey(index, record), index.fileSize(record));
+                    }
+                }
+                entries.forEach(info -> counts.add(contentKey(info), info.getFileSize()));
+                duplicates = counts;
+            }
+            return duplicates;
+        }
+    }
+
+    private int entryCount() {
+        MappedHashIndex index = mappedIndex;
+        return entries.size() + (index != null ? index.size() - shadowedRecords.size() : 0);
+    }
+
+    // ====== PUNKTY KONTROLNE ======
+
+    /**
+     * Hasze pliku zapamiętane przez wątek roboczy razem z datą i rozmiarem z chwili haszowania -
+     * zmiana pliku przed punktem kontrolnym nie może trafić do wpisu ze starym haszem.
+     */
+    private record HashedFile(File file, long hash, long fullHash, int sampleVersion, long lastModified, long fileSize) {}
+
+    /** Wpis zapisany przez punkt kontrolny i wpis sprzed przebiegu (null dla nowego pliku). */
+    private record CheckpointedEntry(FileHashInfo entry, FileHashInfo previous) {}
+
+    /**
+     * Przekazuje postęp dalej i zbiera hasze ukończonych plików do punktów kontrolnych.
+     * Wątek roboczy tylko dodaje je do kolejki - zapis na dysk odbywa się w tle.
+     */
+    private MultiThreadedHashCalculator.ProgressCallback checkpointingCallback(
+            MultiThreadedHashCalculator.ProgressCallback progressCallback) {
+        return new MultiThreadedHashCalculator.ProgressCallback() {
+            @Override
+            public void onProgress(int current, int total, String currentFile, int errors) {
+                if (progressCallback != null) progressCallback.onProgress(current, total, currentFile, errors);
+            }
+
+            @Override
+            public void onBytes(long processedBytes, long totalBytes) {
+                if (progressCallback != null) progressCallback.onBytes(processedBytes, totalBytes);
+            }
+
+            @Override
+            public void onFileHashed(int index, HashResults results) {
+                File file = results.file(index);
+                long fileSize = file.length();
+                checkpointQueue.add(new HashedFile(file, results.hash(index), results.fullHash(index),
+                    results.sampleVersion(index), file.lastModified(), fileSize));
+                if (checkpointBytes.addAndGet(fileSize) >= CHECKPOINT_BYTES) {
+                    checkpointBytes.set(0);
+                    persistence.execute(HashStorageService.this::checkpoint);
+                }
+            }
+        };
+    }
+
+    /**
+     * Nanosi na wpisy w pamięci i dopisuje do dziennika hasze plików ukończonych od poprzedniego
+     * punktu kontrolnego - kompaktowanie zapisujące migawkę z pamięci ich nie zgubi. Przerwany
+     * przebieg (zamknięcie aplikacji, awaria) przy następnej walidacji haszuje tylko pliki spoza
+     * punktów kontrolnych. Wątek przebiegu czeka wtedy na kalkulator i nie czyta wpisów.
+     */
+    private void checkpoint() {
+        synchronized (checkpointLock) {
+            int count = 0;
+            HashedFile hashed;
+            while ((hashed = checkpointQueue.poll()) != null) {
+                String relativePath = getRelativePath(masterLocation, hashed.file());
+                FileHashInfo info = new FileHashInfo(relativePath, hashed.hash(), hashed.lastModified(), hashed.fileSize());
+                info.setFullHash(hashed.fullHash());
+                info.setSampleVersion(hashed.sampleVersion());
+                CheckpointedEntry earlier = checkpointed.get(relativePath);
+                FileHashInfo previous = earlier != null ? earlier.previous() : lookup(relativePath);
+                putEntry(info);
+                journal.recordPut(info);
+                checkpointed.put(relativePath, new CheckpointedEntry(info, previous));
+                count++;
+            }
+            if (count == 0) return;
+            try {
+                journal.flush();
+                System.out.println("Hash checkpoint: " + count + " files saved to journal");
+            } catch (IOException e) {
+                System.err.println("Failed to write hash checkpoint: " + e.getMessage());
+            }
+        }
+    }
+
+    // ====== OBSERWACJA FOLDERU ======
+
+    /**
+     * Nanosi paczkę zmian z obserwatora: istniejące pliki są haszowane, jeśli różnią się od wpisu,
+     * a wpisy usuniętych plików i katalogów - usuwane. Poddrzewa są przeglądane w całości.
+     */
+    private void applyWatchedChanges(Set<Path> paths, Set<Path> subtrees, Consumer<ValidationResult> onChange) {
+        ValidationResult result = new ValidationResult();
+        synchronized (updateLock) {
+            applyCompactedIndex();
+            Map<String, File> present = new HashMap<>();
+            Set<String> removed = new HashSet<>();
+            for (Path path : paths) {
+                File file = path.toFile();
+                String relativePath = getRelativePath(masterLocation, file);
+                if (isMasterFile(file)) {
+                    present.put(relativePath, file);
+                } else if (!file.exists() && lookup(relativePath) != null) {
+                    // Usunięte katalogi obserwator zgłasza jako poddrzewa - plik to jedno wyszukanie w indeksie
+                    removed.add(relativePath);
+                }
+            }
+            for (Path subtree : outermost(subtrees)) {
+                Map<String, File> found = new HashMap<>();
+                collectMasterFiles(subtree.toFile(), found);
+                present.putAll(found);
+                for (String relativePath : entriesUnder(getRelativePath(masterLocation, subtree.toFile()))) {
+                    if (!found.containsKey(relativePath)) removed.add(relativePath);
+                }
+            }
+            removed.removeAll(present.keySet());
+
+            List<File> filesToHash = new ArrayList<>();
+            for (Map.Entry<String, File> entry : present.entrySet()) {
+                if (needsHashing(entry.getValue(), lookup(entry.getKey()), true)) filesToHash.add(entry.getValue());
+            }
+            try {
+                if (!filesToHash.isEmpty()) processFilesToHash(filesToHash, result, null, null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (String relativePath : removed) {
+                FileHashInfo info = removeEntry(relativePath);
+                if (info == null) continue;
+                journal.recordDelete(relativePath);
+                result.addDeletedFile(relativePath, contentKey(info));
+            }
+            saveStoredHashes();
+        }
+
+        if (result.hasChanges()) {
+            System.out.println("Master watcher: " + result.getNewFiles().size() + " new, " +
+                result.getModifiedFiles().size() + " modified, " + result.getDeletedFiles().size() + " deleted files");
+            if (onChange != null) onChange.accept(result);
+        }
+    }
+
+    /** Poddrzewa bez zawartych w innych z paczki - usunięcie drzewa katalogów przegląda indeks raz. */
+    private static List<Path> outermost(Set<Path> subtrees) {
+        List<Path> result = new ArrayList<>();
+        for (Path subtree : subtrees) {
+            boolean nested = false;
+            for (Path parent = subtree.getParent(); parent != null && !nested; parent = parent.getParent()) {
+                nested = subtrees.contains(parent);
+            }
+            if (!nested) result.add(subtree);
+        }
+        return result;
+    }
+
+    /**
+     * Ścieżki wpisów w katalogu o podanej ścieżce względnej i jego podkatalogach. Przegląda cały
+     * indeks, dlatego jest wołana tylko dla poddrzew (nowych lub usuniętych katalogów).
+     */
+    private List<String> entriesUnder(String relativeDirectory) {
+        String prefix = relativeDirectory.isEmpty() ? "" : relativeDirectory + "/";
+        List<String> paths = new ArrayList<>();
+        MappedHashIndex index = mappedIndex;
+        if (index != null) {
+            for (int record = 0; record < index.size(); record++) {
+                if (isShadowed(record)) continue;
+                String relativePath = index.path(record);
+                if (relativePath.startsWith(prefix)) paths.add(relativePath);
+            }
+        }
+        for (String relativePath : entries.paths()) {
+            if (relativePath.startsWith(prefix)) paths.add(relativePath);
+        }
+        return paths;
+    }
+
+    private void collectMasterFiles(File directory, Map<String, File> files) {
+        File[] dirFiles = directory.listFiles();
+        if (dirFiles == null) return;
+        for (File file : dirFiles) {
+            if (isMasterFile(file)) {
+                files.put(getRelativePath(masterLocation, file), file);
+            } else if (file.isDirectory()) {
+                collectMasterFiles(file, files);
             }
         }
     }
 
     // ====== SKANOWANIE ======
 
-    private Map<String, File> scanMasterFolder() {
-        Map<String, File> files = new HashMap<>();
-        scanDirectoryRecursive(masterLocation, masterLocation, files);
-        return files;
+    /**
+     * Pliki folderu głównego (ścieżka względna → plik), ścieżki plików z niezmienionych katalogów
+     * i odciski katalogów do zapisania po walidacji.
+     */
+    private record MasterScan(Map<String, File> files, Set<String> unchanged, DirectoryFingerprints fingerprints) {}
+
+    /** Pliki z indeksu w jednym katalogu - do porównania z odciskiem katalogu. */
+    private static final class IndexedDirectory {
+        final List<String> paths = new ArrayList<>();
+        long digest;
+
+        void add(String relativePath, long fileSize) {
+            paths.add(relativePath);
+            digest += DirectoryFingerprints.digestOf(DirectoryFingerprints.fileNameOf(relativePath), fileSize);
+        }
     }
 
-    private void scanDirectoryRecursive(File directory, File baseDirectory, Map<String, File> files) {
-        if (!directory.exists() || !directory.isDirectory()) return;
+    /**
+     * Przegląda folder główny, pomijając katalogi zgodne z odciskami z poprzedniej walidacji:
+     * nie są listowane, a ich pliki są przejmowane z indeksu bez sprawdzania daty i rozmiaru.
+     * Podkatalogi pominiętego katalogu są znane z odcisków i sprawdzane dalej po kolei.
+     */
+    private MasterScan scanMasterFolder(ValidationResult result) {
+        long start = System.currentTimeMillis();
+        Map<String, IndexedDirectory> indexed = fingerprints.isEmpty() ? Map.of() : groupIndexByDirectory();
+        MasterScan scan = new MasterScan(new HashMap<>(), new HashSet<>(), new DirectoryFingerprints(start));
+        if (masterLocation.isDirectory()) {
+            scanDirectory(masterLocation, "", indexed, scan, result);
+        }
+        System.out.println("Master scan: " + result.getDirectoriesSkipped() + " unchanged directories (" +
+            result.getFilesSkipped() + " files not checked), " + result.getDirectoriesExamined() +
+            " directories examined (" + result.getFilesExamined() + " files) in " + (System.currentTimeMillis() - start) + " ms");
+        return scan;
+    }
+
+    private void scanDirectory(File directory, String relativeDirectory, Map<String, IndexedDirectory> indexed,
+                               MasterScan scan, ValidationResult result) {
+        long modified = directory.lastModified();
+        DirectoryFingerprints.Fingerprint previous = fingerprints.get(relativeDirectory);
+        IndexedDirectory known = indexed.get(relativeDirectory);
+        if (fingerprints.isUnchanged(previous, modified) && matchesIndex(previous, known)) {
+            if (known != null) {
+                for (String relativePath : known.paths) {
+                    scan.files().put(relativePath, new File(masterLocation, relativePath.replace('/', File.separatorChar)));
+                    scan.unchanged().add(relativePath);
+                }
+            }
+            scan.fingerprints().put(relativeDirectory, previous);
+            result.recordDirectory(true, previous.fileCount());
+            for (String name : fingerprints.subdirectories(relativeDirectory)) {
+                scanDirectory(new File(directory, name), childPath(relativeDirectory, name), indexed, scan, result);
+            }
+            return;
+        }
 
         File[] dirFiles = directory.listFiles();
         if (dirFiles == null) return;
 
+        int fileCount = 0;
+        long digest = 0;
         for (File file : dirFiles) {
-            if (file.isFile() && FileUtilities.isMultimediaFile(file) && !file.getName().equals(HASH_FILE_NAME)) {
-                String relativePath = getRelativePath(baseDirectory, file);
-                files.put(relativePath, file);
+            if (isMasterFile(file)) {
+                scan.files().put(childPath(relativeDirectory, file.getName()), file);
+                fileCount++;
+                digest += DirectoryFingerprints.digestOf(file.getName(), file.length());
             } else if (file.isDirectory()) {
-                scanDirectoryRecursive(file, baseDirectory, files);
+                scanDirectory(file, childPath(relativeDirectory, file.getName()), indexed, scan, result);
             }
         }
+        // Data sprzed listowania - zmiana w trakcie przeglądania wymusi ponowne sprawdzenie
+        scan.fingerprints().put(relativeDirectory, new DirectoryFingerprints.Fingerprint(modified, fileCount, digest));
+        result.recordDirectory(false, fileCount);
+    }
+
+    private static boolean matchesIndex(DirectoryFingerprints.Fingerprint fingerprint, IndexedDirectory known) {
+        return known == null ? fingerprint.fileCount() == 0
+            : known.paths.size() == fingerprint.fileCount() && known.digest == fingerprint.digest();
+    }
+
+    /** Grupuje wpisy indeksu według katalogów - w pamięci, bez odczytu z dysku. */
+    private Map<String, IndexedDirectory> groupIndexByDirectory() {
+        Map<String, IndexedDirectory> byDirectory = new HashMap<>();
+        MappedHashIndex index = mappedIndex;
+        if (index != null) {
+            for (int record = 0; record < index.size(); record++) {
+                if (isShadowed(record)) continue;
+                String relativePath = index.path(record);
+                byDirectory.computeIfAbsent(DirectoryFingerprints.directoryOf(relativePath), _ -> new IndexedDirectory())
+                    .add(relativePath, index.fileSize(record));
+            }
+        }
+        entries.forEach(info -> byDirectory.computeIfAbsent(DirectoryFingerprints.directoryOf(info.getRelativePath()),
+            _ -> new IndexedDirectory()).add(info.getRelativePath(), info.getFileSize()));
+        return byDirectory;
+    }
+
+    private static boolean isMasterFile(File file) {
+        return file.isFile() && FileUtilities.isMultimediaFile(file) && !file.getName().equals(HASH_FILE_NAME);
+    }
+
+    private static String childPath(String relativeDirectory, String name) {
+        return relativeDirectory.isEmpty() ? name : relativeDirectory + "/" + name;
+    }
+
+    private void saveFingerprints(DirectoryFingerprints scanned) {
+        fingerprints = scanned;
+        try {
+            scanned.save(fingerprintFile);
+        } catch (IOException e) {
+            System.err.println("Failed to save directory fingerprints: " + e.getMessage());
+        }
     }
 
     private String getRelativePath(File baseDirectory, File file) {
@@ -208,71 +920,237 @@ public class HashStorageService {
 
     // ====== PERSYSTENCJA ======
 
+    /**
+     * Mapuje indeks (albo wczytuje migawkę JSON, jeśli indeksu nie ma lub jest starszy)
+     * i odtwarza na nim dziennik zmian. Po przerwanym kompaktowaniu migawka jest od razu
+     * zapisywana ponownie, żeby dzienniki nie rosły bez końca; po wczytaniu samego JSON
+     * indeks jest budowany w tle.
+     */
     private void loadStoredHashes() {
-        if (!hashFile.exists()) return;
-
+        if (!openMappedIndex()) loadSnapshot();
         try {
-            MapType mapType = objectMapper.getTypeFactory()
-                .constructMapType(HashMap.class, String.class, FileHashInfo.class);
-            Map<String, FileHashInfo> loaded = objectMapper.readValue(hashFile, mapType);
+            boolean interruptedCompaction = journal.replay(new HashJournal.Replay() {
+                @Override
+                public void put(FileHashInfo info) {
+                    if (isValidHashInfo(info)) putEntry(info);
+                }
 
-            if (loaded == null) {
-                System.err.println("Loaded hash data is null, skipping");
-                return;
+                @Override
+                public void delete(String relativePath) {
+                    removeEntry(relativePath);
+                }
+
+                @Override
+                public void clear() {
+                    clearEntries();
+                }
+            });
+            if (interruptedCompaction) {
+                System.out.println("Hash journal: finishing interrupted compaction");
+                MasterSnapshot state = beginCompaction();
+                File written = writeSnapshot(state);
+                journal.reset();
+                if (written != null) {
+                    offerCompactedIndex(state, written);
+                    applyCompactedIndex();
+                }
+            } else if (mappedIndex == null && entries.size() > 0 && !journal.isCompacting()) {
+                startCompaction();
             }
+        } catch (IOException e) {
+            System.err.println("Failed to replay hash journal: " + e.getMessage());
+        }
+    }
+
+    private boolean openMappedIndex() {
+        File current = MappedHashIndex.current(indexFile);
+        if (current == null || (hashFile.exists() && hashFile.lastModified() > current.lastModified())) return false;
+        long start = System.currentTimeMillis();
+        try {
+            mappedIndex = MappedHashIndex.open(current);
+            shadowedRecords = new ShadowedRecords(mappedIndex.size());
+            System.out.println("Hash index: mapped " + mappedIndex.size() + " entries in " +
+                (System.currentTimeMillis() - start) + " ms");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to open hash index, loading JSON snapshot: " + e.getMessage());
+            return false;
+        }
+    }
 
-            int validCount = 0, invalidCount = 0;
-            for (Map.Entry<String, FileHashInfo> entry : loaded.entrySet()) {
-                FileHashInfo info = entry.getValue();
+    /** Wpisy trafiają do pamięci wprost z parsera, bez pośredniej mapy całego pliku. */
+    private void loadSnapshot() {
+        if (!hashFile.exists()) return;
+
+        int[] counts = new int[2]; // poprawne, odrzucone
+        try {
+            HashFileCodec.read(hashFile, info -> {
                 if (isValidHashInfo(info)) {
-                    storedHashes.put(entry.getKey(), info);
-                    hashToInfoCache.put(info.getHash(), info);
-                    validCount++;
+                    putEntry(info);
+                    counts[0]++;
                 } else {
-                    invalidCount++;
+                    counts[1]++;
                 }
-            }
-
-            if (invalidCount > 0) {
-                System.err.println("Warning: Skipped " + invalidCount + " invalid hash entries. Loaded " + validCount + " valid entries.");
-            }
+            });
         } catch (IOException e) {
             System.err.println("Failed to load stored hashes: " + e.getMessage());
         }
+
+        if (counts[1] > 0) {
+            System.err.println("Warning: Skipped " + counts[1] + " invalid hash entries. Loaded " + counts[0] + " valid entries.");
+        }
     }
 
     private boolean isValidHashInfo(FileHashInfo info) {
         return info != null &&
-               info.getHash() != null && !info.getHash().isEmpty() &&
+               HashCodes.isPresent(info.getHash()) &&
                info.getRelativePath() != null && !info.getRelativePath().isEmpty() &&
                info.getFileSize() >= 0 && info.getLastModified() > 0;
     }
 
+    /**
+     * Dopisuje zmiany od poprzedniego zapisu do dziennika. Gdy dziennik urośnie do połowy
+     * indeksu, migawka jest przepisywana w tle, a zapis wraca od razu.
+     */
     private void saveStoredHashes() {
         try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(hashFile, storedHashes);
+            journal.flush();
+            if (journal.needsCompaction(entryCount(), MIN_COMPACTION_RECORDS) && !journal.isCompacting()) {
+                startCompaction();
+            }
         } catch (IOException e) {
             System.err.println("Failed to save hashes: " + e.getMessage());
         }
     }
 
+    /**
+     * Migawka stanu i rotacja dziennika dzieją się razem w wątku zapisującym - reszta w tle.
+     * Po zapisie wpisy z pamięci przechodzą do nowego indeksu ({@link #applyCompactedIndex}).
+     */
+    private void startCompaction() throws IOException {
+        applyCompactedIndex();
+        MasterSnapshot state = beginCompaction();
+        journal.rotate();
+        persistence.execute(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                File written = writeSnapshot(state);
+                journal.finishCompaction();
+                System.out.println("Hash journal compacted into snapshot: " + state.size() + " entries in " +
+                    (System.currentTimeMillis() - start) + " ms");
+                if (written != null) offerCompactedIndex(state, written);
+            } catch (IOException e) {
+                System.err.println("Failed to compact hash journal: " + e.getMessage());
+                synchronized (entryLock) {
+                    if (compactionState == state) {
+                        compactionState = null;
+                        changedSinceCompaction = null;
+                    }
+                }
+            }
+        });
+    }
+
+    /** Stan z tej chwili (migawka O(1)); od teraz zmieniane ścieżki są zapamiętywane. */
+    private MasterSnapshot beginCompaction() {
+        synchronized (entryLock) {
+            compactionState = getSnapshot();
+            changedSinceCompaction = new HashSet<>();
+            compactedIndex = null;
+            return compactionState;
+        }
+    }
+
+    /** Mapuje indeks zapisany z {@code state}; zostanie użyty, jeśli od tamtej chwili nie było czyszczenia ani innego kompaktowania. */
+    private void offerCompactedIndex(MasterSnapshot state, File file) {
+        MappedHashIndex written;
+        try {
+            written = MappedHashIndex.open(file);
+        } catch (IOException e) {
+            System.err.println("Failed to open compacted hash index: " + e.getMessage());
+            return;
+        }
+        synchronized (entryLock) {
+            if (compactionState == state) compactedIndex = written;
+        }
+    }
+
+    /**
+     * Zastępuje zmapowany indeks zapisanym przez kompaktowanie: w pamięci zostają tylko ścieżki
+     * zmienione od jego rozpoczęcia, więc warstwa w pamięci (i koszt jej kopiowania po zamrożeniu
+     * migawki) nie rośnie przez całą sesję. Stan widoczny dla odczytu się nie zmienia.
+     * Wołane przez zapisujących pod {@code updateLock} - pętle po zmapowanym indeksie nie widzą podmiany.
+     */
+    private void applyCompactedIndex() {
+        synchronized (entryLock) {
+            MappedHashIndex written = compactedIndex;
+            if (written == null) return;
+            Map<String, FileHashInfo> changed = new HashMap<>();
+            for (String relativePath : changedSinceCompaction) {
+                changed.put(relativePath, lookup(relativePath));
+            }
+            entries.clear();
+            mappedIndex = written;
+            shadowedRecords = new ShadowedRecords(written.size());
+            for (Map.Entry<String, FileHashInfo> entry : changed.entrySet()) {
+                int record = written.findByPath(entry.getKey());
+                if (record >= 0) shadowedRecords.add(record);
+                if (entry.getValue() != null) entries.put(entry.getValue());
+            }
+            compactionState = null;
+            changedSinceCompaction = null;
+            compactedIndex = null;
+            System.out.println("Hash index: switched to compacted index, " + entries.size() + " entries kept in memory");
+        }
+    }
+
+    /**
+     * Zapis do pliku tymczasowego i atomowa podmiana - przerwany zapis nie uszkadza migawki.
+     * Oba pliki są zapisywane wprost z migawki, wpis po wpisie, bez kopii całego indeksu na stercie.
+     * Indeks mapowany jest zapisywany po JSON, więc jest nowszy tylko wtedy, gdy oba się udały.
+     * Jest to nowa generacja pliku - zmapowana poprzednia zostaje nietknięta dla migawek,
+     * które jej jeszcze używają, i jest usuwana później.
+     *
+     * @return plik zapisanego indeksu mapowanego albo null, gdy zapisano tylko JSON
+     */
+    private File writeSnapshot(MasterSnapshot state) throws IOException {
+        HashFileCodec.write(hashFile, state::forEach);
+        File written;
+        try {
+            written = MappedHashIndex.publish(indexFile, state::forEach);
+        } catch (IOException e) {
+            System.err.println("Failed to write hash index: " + e.getMessage());
+            return null;
+        }
+        MappedHashIndex.deleteStale(indexFile);
+        return written;
+    }
+
     // ====== KLASY WEWNĘTRZNE ======
 
     /**
      * Informacje o haszu pliku przechowywane w JSON.
      * Pusty konstruktor i settery są wymagane przez Jackson do deserializacji.
+     * {@code fullHash} jest zapisywany tylko dla dużych plików haszowanych w trybie FULL,
+     * a {@code sampleVersion} tylko dla plików haszowanych próbkowo (brak = wersja 1).
+     * Hasze są trzymane jako {@code long}; w JSON mają postać szesnastkową.
      */
     @SuppressWarnings("unused") // Używane przez Jackson do deserializacji JSON
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonPropertyOrder({"relativePath", "hash", "fullHash", "sampleVersion", "lastModified", "fileSize"})
     public static class FileHashInfo {
         private String relativePath;
-        private String hash;
+        private long hash;
+        private long fullHash;
+        @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+        private int sampleVersion;
         private long lastModified;
         private long fileSize;
 
         /** Wymagany przez Jackson do deserializacji */
         public FileHashInfo() {}
 
-        public FileHashInfo(String relativePath, String hash, long lastModified, long fileSize) {
+        public FileHashInfo(String relativePath, long hash, long lastModified, long fileSize) {
             this.relativePath = relativePath;
             this.hash = hash;
             this.lastModified = lastModified;
@@ -282,32 +1160,51 @@ public class HashStorageService {
         public String getRelativePath() { return relativePath; }
         /** Wymagany przez Jackson do deserializacji */
         public void setRelativePath(String relativePath) { this.relativePath = relativePath; }
-        public String getHash() { return hash; }
-        public void setHash(String hash) { this.hash = hash; }
+        @JsonIgnore public long getHash() { return hash; }
+        @JsonIgnore public void setHash(long hash) { this.hash = hash; }
+        /** {@link HashCodes#NO_HASH}, gdy hasz pełny nie był liczony */
+        @JsonIgnore public long getFullHash() { return fullHash; }
+        @JsonIgnore public void setFullHash(long fullHash) { this.fullHash = fullHash; }
+        public int getSampleVersion() { return sampleVersion; }
+        public void setSampleVersion(int sampleVersion) { this.sampleVersion = sampleVersion; }
         public long getLastModified() { return lastModified; }
         public void setLastModified(long lastModified) { this.lastModified = lastModified; }
         public long getFileSize() { return fileSize; }
         public void setFileSize(long fileSize) { this.fileSize = fileSize; }
 
+        @JsonProperty("hash") String getHashHex() { return HashCodes.toHex(hash); }
+        @JsonProperty("hash") void setHashHex(String hex) { this.hash = HashCodes.fromHex(hex); }
+        @JsonProperty("fullHash") String getFullHashHex() { return HashCodes.toHex(fullHash); }
+        @JsonProperty("fullHash") void setFullHashHex(String hex) { this.fullHash = HashCodes.fromHex(hex); }
+
         public File getAbsoluteFile(File masterLocation) {
             return new File(masterLocation, relativePath.replace('/', File.separatorChar));
         }
     }
 
+    /**
+     * Duplikaty w folderze głównym: grupy plików o tej samej zawartości, kopie ponad pierwszą
+     * w każdej grupie i zajmowane przez nie bajty.
+     */
+    public record DuplicateSummary(int groups, long duplicateFiles, long wastedBytes) {}
+
+    /** Zmiany wykryte podczas walidacji: ścieżka względna → hasz zawartości. */
     public static class ValidationResult {
-        private final Map<String, String> newFiles = new HashMap<>();
-        private final Map<String, String> modifiedFiles = new HashMap<>();
-        private final Map<String, String> deletedFiles = new HashMap<>();
+        private final Map<String, Long> newFiles = new HashMap<>();
+        private final Map<String, Long> modifiedFiles = new HashMap<>();
+        private final Map<String, Long> deletedFiles = new HashMap<>();
         private long processingTimeMs = 0;
         private double throughputMbPerSec = 0.0;
+        private int directoriesSkipped, directoriesExamined, filesSkipped, filesExamined;
+        private int sourceHashesReused, copiedFilesHashed;
 
-        public void addNewFile(String path, String hash) { newFiles.put(path, hash); }
-        public void addModifiedFile(String path, String hash) { modifiedFiles.put(path, hash); }
-        public void addDeletedFile(String path, String hash) { deletedFiles.put(path, hash); }
+        public void addNewFile(String path, long hash) { newFiles.put(path, hash); }
+        public void addModifiedFile(String path, long hash) { modifiedFiles.put(path, hash); }
+        public void addDeletedFile(String path, long hash) { deletedFiles.put(path, hash); }
 
-        public Map<String, String> getNewFiles() { return newFiles; }
-        public Map<String, String> getModifiedFiles() { return modifiedFiles; }
-        public Map<String, String> getDeletedFiles() { return deletedFiles; }
+        public Map<String, Long> getNewFiles() { return newFiles; }
+        public Map<String, Long> getModifiedFiles() { return modifiedFiles; }
+        public Map<String, Long> getDeletedFiles() { return deletedFiles; }
 
         public boolean hasChanges() {
             return !newFiles.isEmpty() || !modifiedFiles.isEmpty() || !deletedFiles.isEmpty();
@@ -323,5 +1220,28 @@ public class HashStorageService {
         public double getThroughputMbPerSec() { return throughputMbPerSec; }
 
         public String getFormattedDuration() { return FileUtilities.formatDuration(processingTimeMs); }
+
+        /** Katalog pominięty dzięki odciskowi albo przejrzany, z liczbą jego plików. */
+        public void recordDirectory(boolean skipped, int fileCount) {
+            if (skipped) {
+                directoriesSkipped++;
+                filesSkipped += fileCount;
+            } else {
+                directoriesExamined++;
+                filesExamined += fileCount;
+            }
+        }
+
+        public int getDirectoriesSkipped() { return directoriesSkipped; }
+        public int getDirectoriesExamined() { return directoriesExamined; }
+        public int getFilesSkipped() { return filesSkipped; }
+        public int getFilesExamined() { return filesExamined; }
+
+        /** Pliki skopiowane przez kopię zapasową zarejestrowane z haszem źródła, bez ponownego odczytu. */
+        public void setSourceHashesReused(int count) { this.sourceHashesReused = count; }
+        public int getSourceHashesReused() { return sourceHashesReused; }
+        /** Pliki skopiowane przez kopię zapasową, które trzeba było zahaszować w folderze głównym. */
+        public void setCopiedFilesHashed(int count) { this.copiedFilesHashed = count; }
+        public int getCopiedFilesHashed() { return copiedFilesHashed; }
     }
 }
@@ -0,0 +1,123 @@
+package org.example.service;
+
+import org.example.model.BackupConfiguration.ExecutionMode;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Silnik haszowania wspólny dla całej aplikacji. Kalkulatory ({@link MultiThreadedHashCalculator})
+ * nie tworzą własnych wątków - przekazują tu porcje pracy wątków roboczych swoich przebiegów.
+ * <p>
+ * Pula wątków platformowych rośnie do największej liczby wątków, o którą poprosił kalkulator,
+ * a wątki bezczynne dłużej niż {@value #IDLE_THREAD_KEEP_ALIVE_S} s są zwalniane. Gdy w kolejce
+ * puli czeka praca innego przebiegu, wątek roboczy oddaje miejsce po bieżącym zadaniu i ustawia
+ * się na końcu kolejki - równoległe przebiegi dzielą pulę po równo zamiast czekać na siebie.
+ * Blokujące I/O nie trafia do {@code ForkJoinPool.commonPool()}.
+ * <p>
+ * Wątki wirtualne ({@link ExecutionMode#VIRTUAL_THREADS}) dzielą jeden semafor liczenia haszy
+ * o liczbie rdzeni. Instancje {@link FileHasher} z buforami krążą między przebiegami.
+ */
+public final class HashingEngine {
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final long IDLE_THREAD_KEEP_ALIVE_S = 60;
+    private static final HashingEngine SHARED = new HashingEngine();
+
+    /** Przebieg haszowania widziany z zewnątrz: postęp i możliwość przerwania. */
+    public interface Job {
+        String getDescription();
+        int getSubmittedCount();
+        int getCompletedCount();
+        void cancel();
+    }
+
+    private final ThreadPoolExecutor platformWorkers;
+    private final ExecutorService virtualWorkers;
+    private final Semaphore cpuPermits = new Semaphore(CORES, true);
+    private final Queue<FileHasher> idleHashers = new ConcurrentLinkedQueue<>();
+    private final Set<Job> activeJobs = ConcurrentHashMap.newKeySet();
+
+    private HashingEngine() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.platformWorkers = new ThreadPoolExecutor(CORES, CORES, IDLE_THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "HashEngine-" + threadNumber.getAndIncrement());
+                // Wyniki zapisuje wywołujący po zakończeniu przebiegu - bezczynne wątki nie blokują wyjścia
+                t.setDaemon(true);
+                return t;
+            });
+        this.platformWorkers.allowCoreThreadTimeOut(true);
+        this.virtualWorkers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("HashEngine-v", 1).factory());
+    }
+
+    public static HashingEngine getShared() { return SHARED; }
+
+    // ====== WĄTKI ======
+
+    /** Powiększa pulę wątków platformowych do co najmniej {@code threads}; nigdy jej nie zmniejsza. */
+    synchronized void ensureThreads(int threads) {
+        if (threads <= platformWorkers.getMaximumPoolSize()) return;
+        platformWorkers.setMaximumPoolSize(threads);
+        platformWorkers.setCorePoolSize(threads);
+        System.out.println("Hashing engine: platform pool grown to " + threads + " threads");
+    }
+
+    Executor executorFor(ExecutionMode mode) {
+        return mode == ExecutionMode.VIRTUAL_THREADS ? virtualWorkers : platformWorkers;
+    }
+
+    /**
+     * Czy wątek roboczy powinien oddać miejsce: w puli platformowej czeka praca innego przebiegu.
+     * Wątki wirtualne nie czekają na miejsce, więc nie ustępują.
+     */
+    boolean shouldYield(ExecutionMode mode) {
+        return mode != ExecutionMode.VIRTUAL_THREADS && !platformWorkers.getQueue().isEmpty();
+    }
+
+    /** Limit jednoczesnego liczenia haszy dla wątków wirtualnych - wspólny dla wszystkich przebiegów. */
+    Semaphore cpuPermits() { return cpuPermits; }
+
+    // ====== SILNIKI HASZUJĄCE ======
+
+    FileHasher borrowHasher() {
+        FileHasher hasher = idleHashers.poll();
+        return hasher != null ? hasher : new FileHasher();
+    }
+
+    void returnHasher(FileHasher hasher) {
+        hasher.bind(null, null, null);
+        // Wątki wirtualne mogą pożyczyć wiele instancji naraz - nie trzymaj więcej buforów niż wątków puli
+        if (idleHashers.size() < Math.max(CORES, platformWorkers.getMaximumPoolSize())) {
+            idleHashers.offer(hasher);
+        }
+    }
+
+    // ====== PRZEBIEGI ======
+
+    void jobStarted(Job job) {
+        activeJobs.add(job);
+        if (activeJobs.size() > 1) {
+            System.out.println("Hashing engine: " + job.getDescription() + " shares workers with " +
+                (activeJobs.size() - 1) + " other job(s)");
+        }
+    }
+
+    void jobFinished(Job job) {
+        activeJobs.remove(job);
+    }
+
+    /** Przebiegi trwające w tej chwili, np. do przerwania wszystkich przy zamykaniu aplikacji. */
+    public List<Job> getActiveJobs() { return List.copyOf(activeJobs); }
+}
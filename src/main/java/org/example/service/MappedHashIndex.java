@@ -0,0 +1,406 @@
+package org.example.service;
+
+import net.openhft.hashing.LongHashFunction;
+import org.example.util.HashCodes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Indeks haszy folderu głównego w pliku mapowanym do pamięci. Otwarcie kosztuje O(1) niezależnie
+ * od liczby wpisów - strony pliku są wczytywane przez system dopiero przy odczycie, a dane
+ * pozostają poza stertą.
+ * <p>
+ * Układ pliku: nagłówek, rekordy o stałym rozmiarze ({@value #RECORD_SIZE} B: hasz, hasz pełny,
+ * data modyfikacji, rozmiar, położenie i długość ścieżki, wersja planu próbkowania), dwie tablice
+ * z adresowaniem otwartym (po haszu ścieżki i po haszu zawartości) oraz obszar ścieżek w UTF-8.
+ * Szczelina tablicy to górne 32 bity klucza i numer rekordu + 1 (0 = pusta), więc kolizje
+ * są odrzucane bez czytania rekordu. Rekord z haszem pełnym występuje w tablicy zawartości
+ * dwa razy - można go znaleźć po każdym z haszy.
+ * <p>
+ * Plik jest zapisywany w całości przy kompaktowaniu dziennika i tylko odczytywany.
+ * Mapowanie zwalnia odśmiecacz, gdy nikt już nie używa instancji - do tego czasu pliku nie
+ * można podmienić (Windows nie pozwala zastąpić ani usunąć pliku ze zmapowanym widokiem).
+ * Dlatego każde kompaktowanie zapisuje nową generację ({@code <wskaźnik>.<numer>}), a mały plik
+ * wskaźnika, nigdy nie mapowany, wskazuje aktualną ({@link #publish}, {@link #current}).
+ * Stare generacje są usuwane, gdy nic ich już nie mapuje ({@link #deleteStale}).
+ * <p>
+ * Wyszukiwanie po nazwie pliku i rozmiarze (wykrywanie bez haszowania) używa tablicy na stercie,
+ * budowanej przy pierwszym zapytaniu raz na plik indeksu - wszystkie migawki z tym plikiem
+ * ją współdzielą.
+ */
+final class MappedHashIndex {
+
+    private static final int MAGIC = 0x4D465831; // "MFX1"
+    private static final int POINTER_MAGIC = 0x4D465850; // "MFXP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 48;
+    private static final int MIN_TABLE_CAPACITY = 16;
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final LongHashFunction PATH_HASH = LongHashFunction.xx3();
+    private static final long SIZE_MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+
+    // Przesunięcia pól rekordu
+    private static final int HASH = 0;
+    private static final int FULL_HASH = 8;
+    private static final int LAST_MODIFIED = 16;
+    private static final int FILE_SIZE = 24;
+    private static final int PATH_OFFSET = 32;
+    private static final int PATH_LENGTH = 40;
+    private static final int SAMPLE_VERSION = 44;
+
+    private final MemorySegment segment;
+    private final int size;
+    private final long recordsOffset;
+    private final long pathTableOffset;
+    private final int pathTableMask;
+    private final long hashTableOffset;
+    private final int hashTableMask;
+    private final long stringsOffset;
+    /** Klucze nazwa + rozmiar i numery rekordów w tych samych szczelinach; null do pierwszego zapytania. */
+    private volatile NameSizeTable nameSizeTable;
+
+    private record NameSizeTable(long[] keys, int[] records) {}
+
+    private MappedHashIndex(MemorySegment segment) throws IOException {
+        this.segment = segment;
+        if (segment.byteSize() < HEADER_SIZE || segment.get(INT, 0) != MAGIC || segment.get(INT, 4) != VERSION) {
+            throw new IOException("not a hash index file");
+        }
+        this.size = (int) segment.get(LONG, 8);
+        int pathCapacity = (int) segment.get(LONG, 16);
+        int hashCapacity = (int) segment.get(LONG, 24);
+        this.recordsOffset = HEADER_SIZE;
+        this.pathTableOffset = recordsOffset + (long) size * RECORD_SIZE;
+        this.hashTableOffset = pathTableOffset + (long) pathCapacity * Long.BYTES;
+        this.stringsOffset = hashTableOffset + (long) hashCapacity * Long.BYTES;
+        this.pathTableMask = pathCapacity - 1;
+        this.hashTableMask = hashCapacity - 1;
+        if (Integer.bitCount(pathCapacity) != 1 || Integer.bitCount(hashCapacity) != 1
+                || stringsOffset + segment.get(LONG, 32) != segment.byteSize()) {
+            throw new IOException("truncated hash index file");
+        }
+    }
+
+    /** Mapuje plik indeksu; nie czyta jego treści poza nagłówkiem. */
+    static MappedHashIndex open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new MappedHashIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto()));
+        }
+    }
+
+    // ====== ODCZYT ======
+
+    int size() { return size; }
+
+    /** Numer rekordu o podanej ścieżce względnej albo -1. */
+    int findByPath(String relativePath) {
+        long key = PATH_HASH.hashChars(relativePath);
+        byte[] path = null;
+        for (int slot = (int) key & pathTableMask; ; slot = (slot + 1) & pathTableMask) {
+            long entry = segment.get(LONG, pathTableOffset + (long) slot * Long.BYTES);
+            if (entry == 0) return -1;
+            if ((int) (entry >>> 32) != (int) (key >>> 32)) continue;
+            int record = (int) entry - 1;
+            if (path == null) path = relativePath.getBytes(StandardCharsets.UTF_8);
+            if (pathEquals(record, path)) return record;
+        }
+    }
+
+    /** Przekazuje numery rekordów, których hasz lub hasz pełny jest równy {@code hash}. */
+    void forEachWithHash(long hash, IntConsumer action) {
+        if (!HashCodes.isPresent(hash)) return;
+        for (int slot = (int) mix(hash) & hashTableMask; ; slot = (slot + 1) & hashTableMask) {
+            long entry = segment.get(LONG, hashTableOffset + (long) slot * Long.BYTES);
+            if (entry == 0) return;
+            if ((int) (entry >>> 32) != (int) (hash >>> 32)) continue;
+            int record = (int) entry - 1;
+            if (hash(record) == hash || fullHash(record) == hash) action.accept(record);
+        }
+    }
+
+    /**
+     * Przekazuje numery rekordów, których ścieżka kończy się nazwą {@code fileName} (UTF-8, bez
+     * katalogu) i których rozmiar to {@code fileSize}. Kolizje klucza są odrzucane po rekordzie.
+     */
+    void forEachWithNameAndSize(byte[] fileName, long fileSize, IntConsumer action) {
+        NameSizeTable table = nameSizeTable();
+        long key = nameSizeKey(fileName, 0, fileName.length, fileSize);
+        int mask = table.keys().length - 1;
+        for (int slot = (int) mix(key) & mask; table.records()[slot] != 0; slot = (slot + 1) & mask) {
+            if (table.keys()[slot] != key) continue;
+            int record = table.records()[slot] - 1;
+            if (fileSize(record) == fileSize && nameEquals(record, fileName)) action.accept(record);
+        }
+    }
+
+    long hash(int record) { return segment.get(LONG, recordOffset(record) + HASH); }
+    long fullHash(int record) { return segment.get(LONG, recordOffset(record) + FULL_HASH); }
+    long fileSize(int record) { return segment.get(LONG, recordOffset(record) + FILE_SIZE); }
+
+    String path(int record) {
+        long offset = recordOffset(record);
+        long pathOffset = segment.get(LONG, offset + PATH_OFFSET);
+        int length = segment.get(INT, offset + PATH_LENGTH);
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, stringsOffset + pathOffset, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Nowy obiekt z danymi rekordu - zmiany w nim nie dotyczą pliku. */
+    HashStorageService.FileHashInfo get(int record) {
+        long offset = recordOffset(record);
+        HashStorageService.FileHashInfo info = new HashStorageService.FileHashInfo(path(record),
+            segment.get(LONG, offset + HASH), segment.get(LONG, offset + LAST_MODIFIED), segment.get(LONG, offset + FILE_SIZE));
+        info.setFullHash(segment.get(LONG, offset + FULL_HASH));
+        info.setSampleVersion(segment.get(INT, offset + SAMPLE_VERSION));
+        return info;
+    }
+
+    private long recordOffset(int record) {
+        return recordsOffset + (long) record * RECORD_SIZE;
+    }
+
+    private boolean nameEquals(int record, byte[] name) {
+        long offset = recordOffset(record);
+        int length = segment.get(INT, offset + PATH_LENGTH);
+        if (length < name.length) return false;
+        long end = stringsOffset + segment.get(LONG, offset + PATH_OFFSET) + length;
+        if (length > name.length && segment.get(ValueLayout.JAVA_BYTE, end - name.length - 1) != '/') return false;
+        return MemorySegment.mismatch(segment, end - name.length, end, MemorySegment.ofArray(name), 0, name.length) == -1;
+    }
+
+    /** Równoległe pierwsze zapytania mogą zbudować tablicę dwa razy - wynik jest ten sam. */
+    private NameSizeTable nameSizeTable() {
+        NameSizeTable table = nameSizeTable;
+        if (table != null) return table;
+        int capacity = tableCapacity(size);
+        long[] keys = new long[capacity];
+        int[] records = new int[capacity];
+        byte[] path = new byte[256];
+        for (int record = 0; record < size; record++) {
+            long offset = recordOffset(record);
+            int length = segment.get(INT, offset + PATH_LENGTH);
+            if (path.length < length) path = Arrays.copyOf(path, Math.max(length, path.length * 2));
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, stringsOffset + segment.get(LONG, offset + PATH_OFFSET),
+                path, 0, length);
+            int nameStart = length;
+            while (nameStart > 0 && path[nameStart - 1] != '/') nameStart--;
+            long key = nameSizeKey(path, nameStart, length - nameStart, fileSize(record));
+            int slot = (int) mix(key) & (capacity - 1);
+            while (records[slot] != 0) slot = (slot + 1) & (capacity - 1);
+            keys[slot] = key;
+            records[slot] = record + 1;
+        }
+        table = new NameSizeTable(keys, records);
+        nameSizeTable = table;
+        return table;
+    }
+
+    private static long nameSizeKey(byte[] name, int offset, int length, long fileSize) {
+        return PATH_HASH.hashBytes(name, offset, length) ^ (fileSize * SIZE_MULTIPLIER);
+    }
+
+    private boolean pathEquals(int record, byte[] path) {
+        long offset = recordOffset(record);
+        if (segment.get(INT, offset + PATH_LENGTH) != path.length) return false;
+        long start = stringsOffset + segment.get(LONG, offset + PATH_OFFSET);
+        return MemorySegment.mismatch(segment, start, start + path.length,
+            MemorySegment.ofArray(path), 0, path.length) == -1;
+    }
+
+    // ====== ZAPIS ======
+
+    /**
+     * Zapisuje indeks do pliku tymczasowego i atomowo podmienia nim {@code file}. Źródło
+     * (np. {@code snapshot::forEach}) jest przeglądane trzy razy: rozmiary, rekordy z budową
+     * tablic, ścieżki - na stercie są tylko tablice, wpisy nie są zbierane w kolekcji.
+     */
+    static void write(File file, Consumer<Consumer<HashStorageService.FileHashInfo>> entries) throws IOException {
+        long[] totals = new long[3]; // rekordy, szczeliny tablicy zawartości, bajty ścieżek
+        entries.accept(info -> {
+            totals[0]++;
+            totals[1] += HashCodes.isPresent(info.getFullHash()) ? 2 : 1;
+            totals[2] += utf8Length(info.getRelativePath());
+        });
+        int count = (int) totals[0];
+        long[] pathTable = new long[tableCapacity(count)];
+        long[] hashTable = new long[tableCapacity((int) totals[1])];
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath()), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(count);
+            out.writeLong(pathTable.length);
+            out.writeLong(hashTable.length);
+            out.writeLong(totals[2]);
+            out.write(new byte[HEADER_SIZE - 40]);
+
+            long[] written = new long[2]; // rekordy, bajty ścieżek
+            HashFileCodec.forEach(entries, info -> {
+                int record = (int) written[0]++;
+                if (record >= count) throw new IOException("hash index entries changed while writing");
+                insert(pathTable, PATH_HASH.hashChars(info.getRelativePath()), record);
+                insert(hashTable, info.getHash(), mix(info.getHash()), record);
+                if (HashCodes.isPresent(info.getFullHash())) {
+                    insert(hashTable, info.getFullHash(), mix(info.getFullHash()), record);
+                }
+                int pathLength = utf8Length(info.getRelativePath());
+                out.writeLong(info.getHash());
+                out.writeLong(info.getFullHash());
+                out.writeLong(info.getLastModified());
+                out.writeLong(info.getFileSize());
+                out.writeLong(written[1]);
+                out.writeInt(pathLength);
+                out.writeInt(info.getSampleVersion());
+                written[1] += pathLength;
+            });
+            if (written[0] != count || written[1] != totals[2]) {
+                throw new IOException("hash index entries changed while writing");
+            }
+            for (long entry : pathTable) out.writeLong(entry);
+            for (long entry : hashTable) out.writeLong(entry);
+            HashFileCodec.forEach(entries, info -> out.write(info.getRelativePath().getBytes(StandardCharsets.UTF_8)));
+        }
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Długość tekstu w UTF-8 bez kodowania go do tablicy - tyle samo co {@code getBytes(UTF_8).length}:
+     * para zastępcza to 4 B, a pojedynczy znak zastępczy jest kodowany jako {@code ?}.
+     */
+    private static int utf8Length(String text) {
+        int length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 2;
+                i++;
+            } else if (c >= 0x800 && !Character.isSurrogate(c)) {
+                length += 2;
+            } else if (c >= 0x80 && !Character.isSurrogate(c)) {
+                length += 1;
+            }
+        }
+        return length;
+    }
+
+    // ====== GENERACJE ======
+
+    /** Aktualna generacja wskazana przez {@code pointerFile} albo null (brak, uszkodzony lub stary format). */
+    static File current(File pointerFile) {
+        if (!pointerFile.exists()) return null;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(pointerFile.toPath()))) {
+            if (in.readInt() != POINTER_MAGIC) return null;
+            File file = generationFile(pointerFile, in.readLong());
+            return file.exists() ? file : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Zapisuje indeks jako nową generację i atomowo przestawia na nią wskaźnik. Zmapowane
+     * wcześniejsze generacje nie są ruszane, więc zapis działa także w trakcie ich używania.
+     *
+     * @return plik zapisanej generacji
+     */
+    static File publish(File pointerFile, Consumer<Consumer<HashStorageService.FileHashInfo>> entries) throws IOException {
+        long generation = 0;
+        for (File file : generations(pointerFile)) {
+            generation = Math.max(generation, generationOf(pointerFile, file));
+        }
+        File file = generationFile(pointerFile, generation + 1);
+        write(file, entries);
+
+        File tempFile = new File(pointerFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tempFile.toPath()))) {
+            out.writeInt(POINTER_MAGIC);
+            out.writeLong(generation + 1);
+        }
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tempFile.toPath(), pointerFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    /**
+     * Usuwa generacje inne niż aktualna (i pozostałości przerwanych zapisów). Plik wciąż
+     * zmapowany, którego system nie pozwala usunąć, zostaje do następnego wywołania.
+     */
+    static void deleteStale(File pointerFile) {
+        File current = current(pointerFile);
+        for (File file : generations(pointerFile)) {
+            if (current != null && file.getName().equals(current.getName())) continue;
+            if (!file.delete()) {
+                System.out.println("Hash index: " + file.getName() + " still in use, will be deleted later");
+            }
+        }
+    }
+
+    /** Pliki o nazwie {@code <wskaźnik>.*} - generacje i pliki tymczasowe. */
+    private static File[] generations(File pointerFile) {
+        String prefix = pointerFile.getName() + ".";
+        File[] files = pointerFile.getAbsoluteFile().getParentFile().listFiles((_, name) -> name.startsWith(prefix));
+        return files != null ? files : new File[0];
+    }
+
+    private static File generationFile(File pointerFile, long generation) {
+        return new File(pointerFile.getPath() + "." + generation);
+    }
+
+    /** Numer generacji z nazwy pliku; 0 dla plików tymczasowych. */
+    private static long generationOf(File pointerFile, File file) {
+        try {
+            return Long.parseLong(file.getName().substring(pointerFile.getName().length() + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** Wypełnienie najwyżej w połowie - krótkie łańcuchy sondowania. */
+    private static int tableCapacity(int entries) {
+        return Math.max(MIN_TABLE_CAPACITY, Integer.highestOneBit(Math.max(1, entries) * 2 - 1) << 1);
+    }
+
+    private static void insert(long[] table, long key, int record) {
+        insert(table, key, key, record);
+    }
+
+    private static void insert(long[] table, long key, long position, int record) {
+        int mask = table.length - 1;
+        int slot = (int) position & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = (key & 0xFFFFFFFF00000000L) | (record + 1L);
+    }
+
+    /** Hasze zawartości są równomierne, ale górne bity trafiają do szczeliny - pozycja z dolnych po wymieszaniu. */
+    private static long mix(long hash) {
+        return hash * 0x9E3779B97F4A7C15L;
+    }
+}
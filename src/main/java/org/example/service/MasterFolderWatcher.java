@@ -0,0 +1,187 @@
+package org.example.service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Obserwuje drzewo folderu głównego przez {@link WatchService} i przekazuje zmienione ścieżki
+ * w paczkach. Każdy katalog jest rejestrowany osobno (rekurencyjnie, także katalogi utworzone
+ * w trakcie obserwacji). Zdarzenia są zbierane, aż w folderze przez {@value #QUIET_PERIOD_MS} ms
+ * nic się nie dzieje - kopiowany plik daje wiele zdarzeń modyfikacji, a ma być haszowany raz.
+ * Przy ciągłych zmianach paczka jest wysyłana najpóźniej po {@value #MAX_BATCH_DELAY_MS} ms.
+ * <p>
+ * Nowy katalog i przepełnienie kolejki zdarzeń są zgłaszane jako zmiana całego poddrzewa -
+ * pliki utworzone przed rejestracją katalogu lub zgubione zdarzenia wykryje jego przeglądanie.
+ * Usunięty (lub przeniesiony) obserwowany katalog też jest zgłaszany jako poddrzewo - tylko
+ * obserwator wie, że usunięta ścieżka była katalogiem, a nie plikiem.
+ * <p>
+ * Wstrzymany obserwator ({@link #pause()}) nadal zbiera zdarzenia, ale paczkę wysyła dopiero
+ * po {@link #resume()} - pliki zapisywane w tym czasie nie są haszowane w połowie zapisu.
+ */
+final class MasterFolderWatcher {
+
+    private static final long QUIET_PERIOD_MS = 1_500;
+    private static final long MAX_BATCH_DELAY_MS = 10_000;
+
+    /** Odbiorca paczek zmian; wywoływany w wątku obserwatora. */
+    interface Listener {
+        /**
+         * @param paths    pliki lub katalogi utworzone, zmienione albo usunięte
+         * @param subtrees katalogi do przejrzenia w całości
+         */
+        void changed(Set<Path> paths, Set<Path> subtrees);
+    }
+
+    private final Path root;
+    private final Listener listener;
+    private final String ignoredPrefix;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    /** Zarejestrowane katalogi do chwili zdarzenia ich usunięcia - klucz może stracić ważność wcześniej. */
+    private final Set<Path> registeredDirectories = new HashSet<>();
+    private final Set<Path> pendingPaths = new LinkedHashSet<>();
+    private final Set<Path> pendingSubtrees = new LinkedHashSet<>();
+    private WatchService watchService;
+    private Thread thread;
+    private volatile boolean paused;
+
+    /** @param ignoredPrefix przedrostek nazw plików, których zmiany są pomijane (np. pliki indeksu) */
+    MasterFolderWatcher(Path root, String ignoredPrefix, Listener listener) {
+        this.root = root;
+        this.ignoredPrefix = ignoredPrefix;
+        this.listener = listener;
+    }
+
+    /** Rejestracja drzewa odbywa się już w wątku obserwatora - start wraca od razu. */
+    synchronized void start() throws IOException {
+        if (thread != null) return;
+        watchService = FileSystems.getDefault().newWatchService();
+        thread = new Thread(this::run, "MasterWatcher");
+        // Zdarzenia niezapisane przy zamknięciu wykryje walidacja przy następnym starcie
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized void stop() {
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close master folder watcher: " + e.getMessage());
+        }
+        thread = null;
+    }
+
+    synchronized boolean isRunning() { return thread != null; }
+
+    void pause() { paused = true; }
+
+    /** Zebrane zmiany zostaną wysłane po okresie ciszy, jak zwykła paczka. */
+    void resume() { paused = false; }
+
+    // ====== PĘTLA ZDARZEŃ ======
+
+    private void run() {
+        try {
+            long start = System.currentTimeMillis();
+            registerTree(root);
+            System.out.println("Master watcher: watching " + directories.size() + " directories (registered in " +
+                (System.currentTimeMillis() - start) + " ms)");
+
+            long batchStartedAt = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(QUIET_PERIOD_MS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    if (!hasPending()) batchStartedAt = System.currentTimeMillis();
+                    handle(key);
+                }
+                if (hasPending() && !paused
+                        && (key == null || System.currentTimeMillis() - batchStartedAt >= MAX_BATCH_DELAY_MS)) {
+                    deliver();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Zatrzymanie obserwatora
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path directory = directories.get(key);
+        if (directory != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    pendingSubtrees.add(directory);
+                    continue;
+                }
+                Path path = directory.resolve((Path) event.context());
+                if (path.getFileName().toString().startsWith(ignoredPrefix)) continue;
+
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    registerTree(path);
+                    pendingSubtrees.add(path);
+                } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && registeredDirectories.remove(path)) {
+                    pendingSubtrees.add(path);
+                } else {
+                    pendingPaths.add(path);
+                }
+            }
+        }
+        if (!key.reset()) {
+            // Katalog usunięty - jego wpisy usunie zdarzenie z katalogu nadrzędnego
+            directories.remove(key);
+        }
+    }
+
+    private void registerTree(Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    directories.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                    registeredDirectories.add(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Master watcher: failed to watch " + start + ": " + e.getMessage());
+        }
+    }
+
+    private boolean hasPending() {
+        return !pendingPaths.isEmpty() || !pendingSubtrees.isEmpty();
+    }
+
+    private void deliver() {
+        Set<Path> paths = new LinkedHashSet<>(pendingPaths);
+        Set<Path> subtrees = new LinkedHashSet<>(pendingSubtrees);
+        pendingPaths.clear();
+        pendingSubtrees.clear();
+        try {
+            listener.changed(paths, subtrees);
+        } catch (RuntimeException e) {
+            System.err.println("Master watcher: failed to apply changes: " + e.getMessage());
+        }
+    }
+}
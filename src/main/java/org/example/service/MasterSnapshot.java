@@ -0,0 +1,120 @@
+package org.example.service;
+
+import org.example.util.HashCodes;
+import org.example.util.LongHashSet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Niezmienna migawka indeksu folderu głównego ({@link HashStorageService#getSnapshot}) złożona
+ * z tych samych warstw co indeks: zmapowanego pliku (niezmiennego), zamrożonego zbioru jego
+ * zacienionych rekordów i zamrożonych zmian w pamięci. Utworzenie migawki to O(1) - nic nie
+ * jest kopiowane; dane kopiuje dopiero pierwszy zapis po zamrożeniu, i tylko warstwę w pamięci.
+ * Zmiany wprowadzane później przez walidację lub obserwatora folderu nie są w migawce widoczne.
+ * <p>
+ * Wpisy są dekodowane przy odczycie i każdy czytelnik dostaje własne obiekty. Wyszukiwanie po
+ * nazwie i rozmiarze (bez haszowania) korzysta z tablic obu warstw - migawka niczego nie buduje.
+ */
+public final class MasterSnapshot {
+
+    private final long generation;
+    private final MappedHashIndex index;
+    private final ShadowedRecords shadowed;
+    private final HashEntryStore changes;
+    /** Kluczem zawartości jest hasz pełny, jeśli jest dostępny (tryb FULL). */
+    private final boolean fullHashKeys;
+
+    /** @param index zmapowany indeks albo null; wtedy {@code shadowed} też jest null */
+    MasterSnapshot(long generation, MappedHashIndex index, ShadowedRecords shadowed, HashEntryStore changes,
+                   boolean fullHashKeys) {
+        this.generation = generation;
+        this.index = index;
+        this.shadowed = shadowed;
+        this.changes = changes;
+        this.fullHashKeys = fullHashKeys;
+    }
+
+    // ====== ODCZYT ======
+
+    long generation() { return generation; }
+
+    /** Liczba plików w indeksie. */
+    public int size() {
+        return changes.size() + (index != null ? index.size() - shadowed.size() : 0);
+    }
+
+    /**
+     * Wpis o podanym kluczu zawartości albo null. W zmapowanym pliku czytane są tylko strony
+     * z pasującymi rekordami; rekord, którego pasuje tylko drugi hasz (np. próbkowany, gdy kluczem
+     * jest pełny), nie jest zwracany.
+     */
+    public HashStorageService.FileHashInfo findByContentHash(long contentHash) {
+        HashStorageService.FileHashInfo info = changes.findByContentHash(contentHash);
+        if (info != null || index == null) return info;
+        HashStorageService.FileHashInfo[] found = new HashStorageService.FileHashInfo[1];
+        index.forEachWithHash(contentHash, record -> {
+            if (found[0] == null && contentKey(record) == contentHash && !shadowed.contains(record)) {
+                found[0] = index.get(record);
+            }
+        });
+        return found[0];
+    }
+
+    /** Wszystkie wpisy o podanym kluczu zawartości - kopie tej samej zawartości w folderze głównym. */
+    public List<HashStorageService.FileHashInfo> findAllByContentHash(long contentHash) {
+        List<HashStorageService.FileHashInfo> found = new ArrayList<>();
+        changes.forEachWithContentHash(contentHash, found::add);
+        if (index != null) {
+            index.forEachWithHash(contentHash, record -> {
+                if (contentKey(record) == contentHash && !shadowed.contains(record)) found.add(index.get(record));
+            });
+        }
+        return found;
+    }
+
+    /** Przekazuje wszystkie wpisy migawki. */
+    public void forEach(Consumer<HashStorageService.FileHashInfo> action) {
+        if (index != null) {
+            for (int record = 0; record < index.size(); record++) {
+                if (!shadowed.contains(record)) action.accept(index.get(record));
+            }
+        }
+        changes.forEach(action);
+    }
+
+    /** Przekazuje po jednym wpisie na klucz zawartości - pozostałe kopie tej samej zawartości są pomijane. */
+    public void forEachDistinctContent(Consumer<HashStorageService.FileHashInfo> action) {
+        LongHashSet seen = new LongHashSet(size());
+        forEach(info -> {
+            long key = fullHashKeys && HashCodes.isPresent(info.getFullHash()) ? info.getFullHash() : info.getHash();
+            if (seen.add(key)) action.accept(info);
+        });
+    }
+
+    /** Czy w folderze głównym jest plik o tej nazwie i rozmiarze (wykrywanie bez haszowania). */
+    public boolean containsNameAndSize(String fileName, long fileSize) {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        if (changes.containsNameAndSize(name, fileSize)) return true;
+        if (index == null) return false;
+        boolean[] found = new boolean[1];
+        index.forEachWithNameAndSize(name, fileSize, record -> {
+            if (!shadowed.contains(record)) found[0] = true;
+        });
+        return found[0];
+    }
+
+    /** Klucz pary nazwa + rozmiar dla plików źródłowych porównywanych między sobą. */
+    static String nameAndSizeKey(String fileName, long fileSize) {
+        return fileName + "|" + fileSize;
+    }
+
+    // ====== POMOCNICZE ======
+
+    private long contentKey(int record) {
+        long fullHash = index.fullHash(record);
+        return fullHashKeys && HashCodes.isPresent(fullHash) ? fullHash : index.hash(record);
+    }
+}
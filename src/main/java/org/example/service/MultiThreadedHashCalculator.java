@@ -1,126 +1,904 @@
 package org.example.service;
 
-import net.openhft.hashing.LongHashFunction;
+import org.example.model.BackupConfiguration.ExecutionMode;
+import org.example.model.BackupConfiguration.HashMode;
+import org.example.model.BackupConfiguration.HashScheduling;
 import org.example.util.FileUtilities;
+import org.example.util.HashCodes;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BooleanSupplier;
 
 /**
  * Wielowątkowy kalkulator hashy xxHash3 dla plików.
  * Zoptymalizowany dla dużych plików z wykorzystaniem próbkowania fragmentów.
+ * Kalkulator nie ma własnych wątków - wątki robocze przebiegów działają w puli {@link HashingEngine}
+ * wspólnej dla całej aplikacji, więc utworzenie kalkulatora jest tanie, a równoległe przebiegi
+ * dzielą pulę. Każdy wątek roboczy korzysta z własnego {@link FileHasher} z buforem bezpośrednim.
+ * W trybie FULL pliki powyżej 1GB są dzielone na zakresy haszowane przez kilka wątków naraz,
+ * a zadania zakresów trafiają do tej samej kolejki co zadania całych plików.
+ * Zadania są grupowane według urządzenia i podlegają limitom {@link DeviceIoScheduler}.
+ * Pliki można podawać w trakcie przebiegu ({@link HashStream}), np. prosto z przeglądania katalogów.
+ * Domyślnie zadania są pobierane od największych ({@link HashScheduling#LARGEST_FIRST}), a małe pliki
+ * wypełniają resztę - przebieg nie kończy się jednym wątkiem haszującym ostatni duży film.
+ * W trybie {@link ExecutionMode#VIRTUAL_THREADS} każde zadanie pliku działa w wątku wirtualnym,
+ * więc oczekiwanie na {@code open}/{@code read} nie zajmuje rdzenia; samo liczenie haszy
+ * jest ograniczone semaforem o liczbie rdzeni.
+ * Anulowanie działa także wewnątrz pliku - między porcjami odczytu {@link FileHasher} - a postęp
+ * w bajtach trafia do {@link ProgressCallback#onBytes} co {@value #BYTE_PROGRESS_INTERVAL_MS} ms.
  */
 public class MultiThreadedHashCalculator {
 
-    private static final AtomicInteger POOL_NUMBER = new AtomicInteger(1);
-    private static final int SMALL_FILE_THRESHOLD_MB = 100;
     private static final int LARGE_FILE_THRESHOLD_MB = 500;
-    private static final int CHUNK_SIZE = 10 * 1024 * 1024; // 10MB
-    private static final int NUM_CHUNKS = 10;
+    private static final long PARALLEL_RANGE_THRESHOLD = 1024L * 1024 * 1024; // 1GB
+    private static final int RANGE_BLOCKS = 16; // 16 bloków po 16MB = 256MB na zakres
+    private static final int STREAM_QUEUE_CAPACITY = 4096;
+    private static final int VIRTUAL_WORKERS_PER_CORE = 16;
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final long BYTE_PROGRESS_INTERVAL_MS = 200;
+
+    /** Wspólny wątek raportujący postęp bajtowy wszystkich przebiegów. */
+    private static final ScheduledExecutorService PROGRESS_TICKER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "HashProgress");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final int threadCount;
-    private final ExecutorService executor;
-    private final boolean ownsExecutor;
+    private final HashMode hashMode;
+    private final HashScheduling scheduling;
+    private final ExecutionMode executionMode;
+    /** Liczba zadań plików wykonywanych naraz - w trybie wirtualnym większa niż liczba wątków haszujących. */
+    private final int ioConcurrency;
+    /** Limit jednoczesnego liczenia haszy w trybie wirtualnym, null w stałej puli. */
+    private final Semaphore cpuPermits;
+    private final HashingEngine engine = HashingEngine.getShared();
+    private final Executor executor;
+    private final PageCacheAdvisor pageCache = PageCacheAdvisor.getShared();
+    private volatile boolean adaptiveThreads;
+
+    /** Rodzaj hasza liczonego w jednym przebiegu. */
+    private enum Pass {
+        /** Hasz pierwszego bloku pliku ({@link FileHasher#HEAD_BLOCK_SIZE}). */
+        HEAD,
+        /** Hasz podstawowy i, w trybie FULL, pełny dla plików próbkowanych. */
+        PRIMARY,
+        /** Tylko hasz pełny plików próbkowanych, bez ponownego liczenia hasza podstawowego. */
+        FULL_ONLY
+    }
 
     public MultiThreadedHashCalculator(int threadCount) {
+        this(threadCount, HashMode.SAMPLED);
+    }
+
+    public MultiThreadedHashCalculator(int threadCount, HashMode hashMode) {
+        this(threadCount, hashMode, HashScheduling.LARGEST_FIRST);
+    }
+
+    public MultiThreadedHashCalculator(int threadCount, HashMode hashMode, HashScheduling scheduling) {
+        this(threadCount, hashMode, scheduling, ExecutionMode.FIXED_POOL);
+    }
+
+    /**
+     * @param executionMode przy {@link ExecutionMode#VIRTUAL_THREADS} na pliki czeka do
+     *                      {@value #VIRTUAL_WORKERS_PER_CORE} wątków wirtualnych na rdzeń (nie mniej niż
+     *                      {@code threadCount}), a hasze liczy naraz najwyżej tyle wątków, ile jest rdzeni
+     */
+    public MultiThreadedHashCalculator(int threadCount, HashMode hashMode, HashScheduling scheduling,
+                                       ExecutionMode executionMode) {
         this.threadCount = Math.max(1, threadCount);
+        this.hashMode = hashMode != null ? hashMode : HashMode.SAMPLED;
+        this.scheduling = scheduling != null ? scheduling : HashScheduling.LARGEST_FIRST;
+        this.executionMode = executionMode != null ? executionMode : ExecutionMode.FIXED_POOL;
 
-        if (this.threadCount == Runtime.getRuntime().availableProcessors()) {
-            this.executor = ForkJoinPool.commonPool();
-            this.ownsExecutor = false;
+        if (this.executionMode == ExecutionMode.VIRTUAL_THREADS) {
+            this.ioConcurrency = Math.max(this.threadCount, CORES * VIRTUAL_WORKERS_PER_CORE);
+            this.cpuPermits = engine.cpuPermits();
         } else {
-            int poolNum = POOL_NUMBER.getAndIncrement();
-            AtomicInteger threadNum = new AtomicInteger(1);
-            this.executor = Executors.newFixedThreadPool(this.threadCount, r -> {
-                Thread t = new Thread(r, "HashCalculator-" + poolNum + "-" + threadNum.getAndIncrement());
-                t.setDaemon(false);
-                return t;
-            });
-            this.ownsExecutor = true;
+            this.ioConcurrency = this.threadCount;
+            this.cpuPermits = null;
+            engine.ensureThreads(this.threadCount);
         }
-        System.out.println("MultiThreadedHashCalculator initialized with " + this.threadCount + " threads");
+        this.executor = engine.executorFor(this.executionMode);
+        System.out.println("MultiThreadedHashCalculator initialized with " + describeThreads() +
+            " (" + this.hashMode + " mode, " + this.scheduling + ")");
+    }
+
+    /**
+     * Włącza tryb adaptacyjny: liczba wątków z konstruktora staje się górnym limitem, a liczba wątków
+     * pracujących na każdym urządzeniu jest dostrajana według zmierzonej przepustowości
+     * i zapamiętywana w {@link ConcurrencyHistory}. Dotyczy przebiegów rozpoczętych po wywołaniu.
+     */
+    public void setAdaptiveThreads(boolean adaptiveThreads) {
+        this.adaptiveThreads = adaptiveThreads;
+    }
+
+    /**
+     * Zwraca hasz podstawowy (próbkowany) i, w trybie FULL, hasz pełny każdego pliku.
+     * Wyniki są indeksowane tak jak lista {@code files}.
+     */
+    public HashResults calculateHashResults(List<File> files,
+            ProgressCallback progressCallback, BooleanSupplier isCancelled) throws InterruptedException {
+        return runPass(files, Pass.PRIMARY, progressCallback, isCancelled);
+    }
+
+    /**
+     * Zwraca hasze pierwszego bloku plików (jako {@link HashResults#hash}). Dla plików nie większych
+     * niż blok wynik jest równy haszowi podstawowemu, bo obejmuje całą zawartość.
+     */
+    public HashResults calculateHeadHashes(List<File> files,
+            ProgressCallback progressCallback, BooleanSupplier isCancelled) throws InterruptedException {
+        return runPass(files, Pass.HEAD, progressCallback, isCancelled);
     }
 
-    public Map<String, String> calculateHashes(List<File> files,
-                                               ProgressCallback progressCallback, BooleanSupplier isCancelled) throws InterruptedException {
+    /**
+     * Zwraca hasze pełne plików próbkowanych (jako {@link HashResults#fullHash}) niezależnie
+     * od trybu kalkulatora. Pliki poniżej progu próbkowania są pomijane - ich hasz podstawowy już jest pełny.
+     */
+    public HashResults calculateFullHashes(List<File> files,
+            ProgressCallback progressCallback, BooleanSupplier isCancelled) throws InterruptedException {
+        return runPass(files, Pass.FULL_ONLY, progressCallback, isCancelled);
+    }
 
-        long startTime = System.currentTimeMillis();
-        System.out.println("Starting multi-threaded hash calculation of " + files.size() + " files using " + threadCount + " threads");
+    /**
+     * Otwiera przebieg hasza podstawowego, do którego pliki są podawane na bieżąco.
+     * Zobacz {@link HashStream}.
+     */
+    public HashStream openStream(ProgressCallback progressCallback, BooleanSupplier isCancelled) {
+        return startStream(Pass.PRIMARY, ioConcurrency, progressCallback, isCancelled);
+    }
+
+    /** Jak {@link #openStream}, ale liczy hasze pierwszego bloku - zobacz {@link #calculateHeadHashes}. */
+    public HashStream openHeadStream(ProgressCallback progressCallback, BooleanSupplier isCancelled) {
+        return startStream(Pass.HEAD, ioConcurrency, progressCallback, isCancelled);
+    }
 
-        Map<String, String> results = new ConcurrentHashMap<>();
-        AtomicInteger completed = new AtomicInteger(0);
-        AtomicInteger errors = new AtomicInteger(0);
-        AtomicInteger fileIndex = new AtomicInteger(0);
-        AtomicInteger progressReportCounter = new AtomicInteger(0);
-        CountDownLatch latch = new CountDownLatch(threadCount);
+    private HashResults runPass(List<File> files, Pass pass,
+            ProgressCallback progressCallback, BooleanSupplier isCancelled) throws InterruptedException {
 
-        int progressBatchSize = Math.max(1, files.size() / 1000);
+        System.out.println("Starting multi-threaded " + pass + " hash calculation of " + files.size() +
+            " files using " + describeThreads());
 
-        for (int i = 0; i < threadCount; i++) {
-            executor.submit(() -> processFiles(files, results, fileIndex, completed, errors,
-                progressReportCounter, progressBatchSize, progressCallback, isCancelled, latch));
+        // Nie ma sensu uruchamiać więcej wątków, niż łącznie przyjmą urządzenia
+        DeviceIoScheduler scheduler = DeviceIoScheduler.getShared();
+        Set<DeviceIoScheduler.Device> devices = new HashSet<>();
+        files.forEach(file -> devices.add(scheduler.deviceFor(file)));
+        long deviceCapacity = devices.stream().mapToLong(DeviceIoScheduler.Device::getLimit).sum();
+        int workerCount = (int) Math.max(1, Math.min(ioConcurrency, deviceCapacity));
+
+        try (HashStream stream = startStream(pass, workerCount, progressCallback, isCancelled)) {
+            stream.submitAll(files);
+            return stream.finish();
         }
+    }
 
-        waitForCompletion(latch, isCancelled);
+    private HashStream startStream(Pass pass, int workerCount,
+            ProgressCallback progressCallback, BooleanSupplier isCancelled) {
+        HashRun run = new HashRun(pass, workerCount, progressCallback, isCancelled);
+        HashStream stream = new HashStream(run);
+        engine.jobStarted(stream);
+        for (int i = 0; i < run.workerCount; i++) {
+            executor.execute(run::processTasks);
+        }
+        run.startByteProgress();
+        return stream;
+    }
 
-        long totalTime = System.currentTimeMillis() - startTime;
-        logCompletionStats(files, results.size(), errors.get(), totalTime);
+    /**
+     * Przebieg, do którego pliki są podawane w trakcie jego trwania, np. prosto z przeglądania katalogów.
+     * Wątki robocze zaczynają haszować pierwszy podany plik, nie czekając na kolejne. Kolejki zadań
+     * mają ograniczoną pojemność ({@code STREAM_QUEUE_CAPACITY} zadań), więc szybkie przeglądanie katalogów
+     * czeka na haszowanie zamiast gromadzić w pamięci wszystkie pliki.
+     * <p>
+     * Metody wywołuje jeden wątek podający. Zamknięcie strumienia bez {@link #finish()} anuluje przebieg.
+     */
+    public final class HashStream implements AutoCloseable, HashingEngine.Job {
+        private final HashRun run;
+        private final long startTime = System.currentTimeMillis();
+        private boolean finished;
 
-        if (progressCallback != null && (isCancelled == null || !isCancelled.getAsBoolean())) {
-            double mbPerSecond = calculateThroughput(files, totalTime);
-            String timingMessage = "Completed in " + FileUtilities.formatDuration(totalTime) +
-                                  " (" + String.format("%.1f", mbPerSecond) + " MB/s)";
-            progressCallback.onProgress(results.size(), files.size(), timingMessage, errors.get());
+        private HashStream(HashRun run) {
+            this.run = run;
+        }
+
+        /** Dodaje plik do przebiegu i zwraca jego pozycję w {@link HashResults}. */
+        public int submit(File file) throws InterruptedException {
+            if (finished) throw new IllegalStateException("Hash stream already finished");
+            return run.submit(file);
+        }
+
+        /**
+         * Dodaje całą listę; pozycje w wynikach odpowiadają pozycjom na liście. Przy {@link HashScheduling#LARGEST_FIRST}
+         * zadania trafiają do kolejek od największych plików, bo kolejki nie mieszczą naraz dużej listy.
+         */
+        private void submitAll(List<File> files) throws InterruptedException {
+            long[] sizes = new long[files.size()];
+            for (int i = 0; i < files.size(); i++) {
+                run.results.append(files.get(i));
+                sizes[i] = files.get(i).length();
+            }
+            if (scheduling == HashScheduling.LARGEST_FIRST) {
+                Integer[] order = new Integer[files.size()];
+                Arrays.setAll(order, i -> i);
+                Arrays.sort(order, (a, b) -> Long.compare(sizes[b], sizes[a]));
+                for (int index : order) run.schedule(files.get(index), index, sizes[index]);
+            } else {
+                for (int i = 0; i < files.size(); i++) run.schedule(files.get(i), i, sizes[i]);
+            }
+        }
+
+        @Override
+        public String getDescription() { return run.pass + " hashing (" + run.workerCount + " workers)"; }
+        @Override
+        public int getSubmittedCount() { return run.results.size(); }
+        @Override
+        public int getCompletedCount() { return run.completed.get(); }
+
+        /** Przerywa przebieg z innego wątku; {@link #finish()} wróci z wynikami częściowymi. */
+        @Override
+        public void cancel() {
+            run.abort();
+        }
+
+        /** Kończy podawanie plików i czeka, aż wszystkie zostaną przehaszowane. */
+        public HashResults finish() throws InterruptedException {
+            finished = true;
+            run.completeInput();
+            waitForCompletion(run.latch, run.isCancelled);
+            run.stopByteProgress();
+            engine.jobFinished(this);
+
+            long totalTime = System.currentTimeMillis() - startTime;
+            run.memoryStats.finish();
+            logCompletionStats(run.results.size(), run.submittedBytes, run.hashedCount.get(), run.errors.get(),
+                totalTime, run.memoryStats);
+            if (run.splitFileCount > 0) {
+                System.out.println("- Files split into parallel ranges: " + run.splitFileCount);
+            }
+            run.queues.forEach(queue -> System.out.println("- Device " + queue.device.getId() + ": " +
+                queue.taskCount + " tasks, limit " + (queue.device.isLimited() ? queue.device.getLimit() : ioConcurrency)));
+            run.logTail();
+            run.queues.forEach(DeviceQueue::finishAdaptive);
+
+            if (run.progressCallback != null && !run.isCancelled()) {
+                double mbPerSecond = calculateThroughput(run.submittedBytes, totalTime);
+                String timingMessage = "Completed in " + FileUtilities.formatDuration(totalTime) +
+                                      " (" + String.format("%.1f", mbPerSecond) + " MB/s)";
+                run.progressCallback.onProgress(run.hashedCount.get(), run.results.size(), timingMessage, run.errors.get());
+            }
+            return run.results;
+        }
+
+        @Override
+        public void close() {
+            if (!finished) {
+                finished = true;
+                run.abort();
+            }
+            run.stopByteProgress();
+            engine.jobFinished(this);
+        }
+    }
+
+    // ====== ZADANIA ======
+
+    private boolean computesFullHash(Pass pass) {
+        return pass == Pass.FULL_ONLY || (pass == Pass.PRIMARY && hashMode == HashMode.FULL);
+    }
+
+    private boolean shouldSplit(Pass pass, long fileSize) {
+        return computesFullHash(pass) && threadCount > 1 && fileSize >= PARALLEL_RANGE_THRESHOLD;
+    }
+
+    /** Szacowana liczba bajtów czytanych przy haszowaniu całego pliku w danym przebiegu. */
+    private long wholeFileCost(Pass pass, File file, long fileSize) {
+        if (pass == Pass.HEAD) return Math.min(fileSize, FileHasher.HEAD_BLOCK_SIZE);
+        if (!FileHasher.isSampled(fileSize)) return fileSize;
+        long sampledBytes = pass == Pass.FULL_ONLY ? 0 : SamplePlan.forFile(file).bytesRead(fileSize);
+        return computesFullHash(pass) ? fileSize + sampledBytes : sampledBytes;
+    }
+
+    /**
+     * Zadanie dla wątku roboczego: cały plik albo część pliku dzielonego na zakresy.
+     * Dla pliku dzielonego {@code firstBlock < 0} oznacza część liczącą hasz próbkowany
+     * (pomijaną w przebiegu {@link Pass#FULL_ONLY}). {@code cost} to szacowana liczba
+     * czytanych bajtów, według której porządkuje {@link HashScheduling#LARGEST_FIRST}.
+     */
+    private record HashTask(File file, int index, SplitFile split, long firstBlock, long endBlock, long cost) {
+        /** Najpierw najdroższe zadania; przy równym koszcie w kolejności podania. */
+        static final Comparator<HashTask> LARGEST_FIRST = Comparator.comparingLong(HashTask::cost).reversed()
+            .thenComparingInt(HashTask::index);
+
+        static HashTask whole(File file, int index, long cost) { return new HashTask(file, index, null, -1, -1, cost); }
+    }
+
+    /**
+     * Stan pliku haszowanego równolegle w zakresach. Sumy częściowe hasza pełnego
+     * są dodawane w dowolnej kolejności - {@link FileHasher#combineBlock} jest przemienne.
+     */
+    private static final class SplitFile {
+        private final File file;
+        private final int index;
+        private final long fileSize;
+        private final SamplePlan plan;
+        private final AtomicLong fullAccumulator = new AtomicLong();
+        private final AtomicInteger pendingParts;
+        private final AtomicLong startTime = new AtomicLong();
+        private volatile long sampledHash;
+        private volatile boolean failed;
+
+        SplitFile(File file, int index, long fileSize, int parts) {
+            this.file = file;
+            this.index = index;
+            this.fileSize = fileSize;
+            this.plan = SamplePlan.forFile(file);
+            this.pendingParts = new AtomicInteger(parts);
+        }
+    }
+
+    /**
+     * Kolejka zadań jednego urządzenia. Wątek bierze z niej zadanie tylko po zajęciu
+     * miejsca w limicie urządzenia w {@link DeviceIoScheduler}.
+     */
+    private static final class DeviceQueue {
+        private final DeviceIoScheduler.Device device;
+        private final Queue<HashTask> tasks;
+        private final AdaptiveLimit adaptive;
+        private int taskCount;
+
+        DeviceQueue(DeviceIoScheduler.Device device, HashScheduling scheduling, AdaptiveLimit adaptive) {
+            this.device = device;
+            this.tasks = scheduling == HashScheduling.LARGEST_FIRST
+                ? new PriorityBlockingQueue<>(64, HashTask.LARGEST_FIRST)
+                : new ConcurrentLinkedQueue<>();
+            this.adaptive = adaptive;
+        }
+
+        /** Zajmuje miejsce w limicie adaptacyjnym; bez trybu adaptacyjnego zawsze się udaje. */
+        boolean tryEnter() { return adaptive == null || adaptive.tryEnter(); }
+
+        /** Zwalnia miejsce zajęte przez {@link #tryEnter()}; zadanie null oznacza brak pracy. */
+        void leave(HashTask task, long taskNanos) {
+            if (adaptive == null) return;
+            if (task == null) {
+                adaptive.cancelEntry();
+            } else {
+                adaptive.leave(task.cost(), taskNanos);
+            }
+        }
+
+        void finishAdaptive() {
+            if (adaptive != null) adaptive.finish();
+        }
+
+        void add(HashTask task) {
+            tasks.add(task);
+            taskCount++;
         }
 
-        return results;
+        boolean hasRemaining() { return !tasks.isEmpty(); }
+        HashTask poll() { return tasks.poll(); }
     }
 
-    private void processFiles(List<File> files, Map<String, String> results, AtomicInteger fileIndex,
-            AtomicInteger completed, AtomicInteger errors, AtomicInteger progressReportCounter,
-            int progressBatchSize, ProgressCallback progressCallback, BooleanSupplier isCancelled,
-            CountDownLatch latch) {
-        try {
+    /**
+     * Liczba wątków pracujących jednocześnie na jednym urządzeniu w trybie adaptacyjnym.
+     * Co okno pomiarowe przepustowość jest porównywana z najlepszą dotąd: wątek jest dokładany,
+     * dopóki przepustowość rośnie o co najmniej {@link #MIN_GAIN}, a po plateau limit wraca do
+     * najlepszej wartości. Jeśli potem czas zadania wyraźnie rośnie bez zysku przepustowości
+     * (np. dysk obciąża inny proces), wątek jest zdejmowany - i oddawany, gdy czas zadania wróci do normy.
+     * Okna, w których limit nie był wykorzystany (brak pracy), nie są oceniane.
+     */
+    private static final class AdaptiveLimit {
+        private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+        private static final double MIN_GAIN = 1.05;
+        private static final double LATENCY_GROWTH = 1.5;
+        private static final double LATENCY_RECOVERED = 1.1;
+        private static final int DEFAULT_START = 2;
+
+        private final String deviceId;
+        private final int ceiling;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger peakActive = new AtomicInteger();
+        private final LongAdder windowBytes = new LongAdder();
+        private final LongAdder windowTasks = new LongAdder();
+        private final LongAdder windowTaskNanos = new LongAdder();
+        private volatile int limit;
+        private volatile long windowStart = System.nanoTime();
+        private boolean settled;
+        private int bestLimit;
+        private double bestThroughput;
+        private double bestLatencyMs;
+
+        AdaptiveLimit(DeviceIoScheduler.Device device, int threadCount) {
+            this.deviceId = device.getId();
+            this.ceiling = Math.max(1, Math.min(threadCount, device.getLimit()));
+            int remembered = ConcurrencyHistory.getShared().recall(deviceId);
+            this.limit = Math.clamp(remembered > 0 ? remembered : DEFAULT_START, 1, ceiling);
+            System.out.println("Adaptive hashing on " + deviceId + ": starting with " + limit + " of max " + ceiling +
+                " threads" + (remembered > 0 ? " (remembered)" : ""));
+        }
+
+        boolean tryEnter() {
             while (true) {
-                if (isCancelled != null && isCancelled.getAsBoolean()) break;
+                int current = active.get();
+                if (current >= limit) return false;
+                if (active.compareAndSet(current, current + 1)) {
+                    peakActive.accumulateAndGet(current + 1, Math::max);
+                    return true;
+                }
+            }
+        }
+
+        void cancelEntry() {
+            active.decrementAndGet();
+        }
 
-                int currentIndex = fileIndex.getAndIncrement();
-                if (currentIndex >= files.size()) break;
+        void leave(long bytes, long taskNanos) {
+            active.decrementAndGet();
+            windowBytes.add(bytes);
+            windowTasks.increment();
+            windowTaskNanos.add(taskNanos);
+            long now = System.nanoTime();
+            if (now - windowStart >= WINDOW_NANOS) evaluate(now);
+        }
 
-                File file = files.get(currentIndex);
-                processFile(file, results, errors, isCancelled);
+        private synchronized void evaluate(long now) {
+            long elapsed = now - windowStart;
+            if (elapsed < WINDOW_NANOS) return;
+            windowStart = now;
+            long bytes = windowBytes.sumThenReset();
+            long tasks = windowTasks.sumThenReset();
+            long taskNanos = windowTaskNanos.sumThenReset();
+            int peak = peakActive.getAndSet(active.get());
+            if (tasks == 0 || peak < limit) return;
 
-                int current = completed.incrementAndGet();
-                reportProgress(current, files.size(), file.getName(), errors.get(),
-                    progressReportCounter, progressBatchSize, progressCallback, isCancelled);
+            double throughput = bytes / (1024.0 * 1024.0) / (elapsed / 1e9);
+            double latencyMs = taskNanos / 1e6 / tasks;
+            int current = limit;
+            if (throughput > bestThroughput * MIN_GAIN) {
+                bestThroughput = throughput;
+                bestLatencyMs = latencyMs;
+                bestLimit = current;
+                if (!settled && current < ceiling) {
+                    changeLimit(current + 1, "throughput rising", throughput, latencyMs);
+                } else {
+                    settled = true;
+                }
+            } else if (!settled) {
+                settled = true;
+                changeLimit(bestLimit, "throughput plateau", throughput, latencyMs);
+            } else if (latencyMs > bestLatencyMs * LATENCY_GROWTH && current > 1) {
+                changeLimit(current - 1, "task latency up without throughput gain", throughput, latencyMs);
+            } else if (latencyMs < bestLatencyMs * LATENCY_RECOVERED && current < bestLimit) {
+                changeLimit(current + 1, "task latency recovered", throughput, latencyMs);
             }
-        } finally {
-            latch.countDown();
+        }
+
+        private void changeLimit(int newLimit, String reason, double throughput, double latencyMs) {
+            if (newLimit == limit) return;
+            System.out.println("Adaptive hashing on " + deviceId + ": " + limit + " -> " + newLimit + " threads (" +
+                reason + ", " + String.format("%.1f MB/s, %.1f ms/task", throughput, latencyMs) + ")");
+            limit = newLimit;
+        }
+
+        synchronized void finish() {
+            if (bestLimit == 0) return;
+            System.out.println("- Adaptive threads on " + deviceId + ": best " + bestLimit +
+                String.format(" (%.1f MB/s)", bestThroughput));
+            ConcurrencyHistory.getShared().remember(deviceId, bestLimit);
         }
     }
 
-    private void processFile(File file, Map<String, String> results, AtomicInteger errors, BooleanSupplier isCancelled) {
-        try {
-            long fileStart = System.currentTimeMillis();
-            String hash = calculateFileHash(file);
+    /**
+     * Stan jednego przebiegu współdzielony przez wątki robocze. Pliki podaje jeden wątek
+     * przez {@link #submit}; wątki robocze kończą pracę, gdy podawanie jest zakończone,
+     * a kolejki są puste.
+     */
+    private final class HashRun {
+        private static final long DEVICE_WAIT_MS = 50;
+        /** Znacznik z {@link #claimQueue}: wątek roboczy czeka poza pulą na nowe zadania. */
+        private static final DeviceQueue PARKED = new DeviceQueue(null, HashScheduling.IN_ORDER, null);
+
+        private final List<DeviceQueue> queues = new CopyOnWriteArrayList<>();
+        private final Map<DeviceIoScheduler.Device, DeviceQueue> queuesByDevice = new HashMap<>();
+        private final int workerCount;
+        private final Pass pass;
+        private final HashResults results = new HashResults();
+        private final AtomicInteger hashedCount = new AtomicInteger(0);
+        private final AtomicInteger completed = new AtomicInteger(0);
+        private final AtomicInteger errors = new AtomicInteger(0);
+        private final AtomicInteger queueRotation = new AtomicInteger(0);
+        private final AtomicInteger progressReportCounter = new AtomicInteger(0);
+        private final Semaphore queueCapacity = new Semaphore(STREAM_QUEUE_CAPACITY);
+        private final Object workSignal = new Object();
+        private final CountDownLatch latch;
+        private final MemoryStats memoryStats = new MemoryStats();
+        private final ProgressCallback progressCallback;
+        private final BooleanSupplier isCancelled;
+        private volatile boolean inputComplete;
+        private volatile boolean aborted;
+        private volatile long lastTaskTakenAt;
+        private final AtomicLong workerExitTimeSum = new AtomicLong();
+        private final AtomicLong lastWorkerExit = new AtomicLong();
+        private int waitingWorkers;
+        private int parkedWorkers;
+        private long submittedBytes;
+        private int splitFileCount;
+        private final LongAdder bytesRead = new LongAdder();
+        private volatile long plannedBytes;
+        private ScheduledFuture<?> byteProgress;
+
+        HashRun(Pass pass, int workerCount, ProgressCallback progressCallback, BooleanSupplier isCancelled) {
+            this.pass = pass;
+            this.workerCount = workerCount;
+            this.progressCallback = progressCallback;
+            this.isCancelled = isCancelled;
+            this.latch = new CountDownLatch(workerCount);
+        }
+
+        // ====== PODAWANIE PLIKÓW ======
 
-            if (hash != null && (isCancelled == null || !isCancelled.getAsBoolean())) {
-                results.put(file.getAbsolutePath(), hash);
-                logLargeFileProcessing(file, fileStart);
-            } else if (hash == null) {
-                errors.incrementAndGet();
+        int submit(File file) throws InterruptedException {
+            int index = results.append(file);
+            schedule(file, index, file.length());
+            return index;
+        }
+
+        /** Tworzy zadania dla pliku z już przydzieloną pozycją w wynikach. */
+        void schedule(File file, int index, long fileSize) throws InterruptedException {
+            DeviceQueue queue = queuesByDevice.computeIfAbsent(DeviceIoScheduler.getShared().deviceFor(file), device -> {
+                DeviceQueue created = new DeviceQueue(device, scheduling,
+                    adaptiveThreads ? new AdaptiveLimit(device, ioConcurrency) : null);
+                queues.add(created);
+                return created;
+            });
+            addTasks(file, index, fileSize, queue);
+        }
+
+        void completeInput() {
+            inputComplete = true;
+            synchronized (workSignal) {
+                workSignal.notifyAll();
+                // Odłożone wątki muszą wrócić, żeby dokończyć pracę albo zakończyć przebieg
+                for (; parkedWorkers > 0; parkedWorkers--) {
+                    executor.execute(this::processTasks);
+                }
             }
-        } catch (Exception e) {
-            if (isCancelled == null || !isCancelled.getAsBoolean()) {
-                System.err.println("Error hashing file " + file.getAbsolutePath() + ": " + e.getMessage());
-                errors.incrementAndGet();
+        }
+
+        void abort() {
+            aborted = true;
+            completeInput();
+        }
+
+        private void addTasks(File file, int index, long fileSize, DeviceQueue queue) throws InterruptedException {
+            submittedBytes += fileSize;
+            if (!shouldSplit(pass, fileSize)) {
+                enqueue(queue, HashTask.whole(file, index, wholeFileCost(pass, file, fileSize)));
+                return;
+            }
+
+            long blockCount = (fileSize + FileHasher.FULL_HASH_BLOCK_SIZE - 1) / FileHasher.FULL_HASH_BLOCK_SIZE;
+            int rangeCount = (int) ((blockCount + RANGE_BLOCKS - 1) / RANGE_BLOCKS);
+            boolean withSampled = pass != Pass.FULL_ONLY;
+            SplitFile split = new SplitFile(file, index, fileSize, withSampled ? rangeCount + 1 : rangeCount);
+            splitFileCount++;
+            if (withSampled) {
+                enqueue(queue, new HashTask(file, index, split, -1, -1, split.plan.bytesRead(fileSize)));
             }
+            for (long first = 0; first < blockCount; first += RANGE_BLOCKS) {
+                long end = Math.min(blockCount, first + RANGE_BLOCKS);
+                long cost = Math.min(fileSize, end * FileHasher.FULL_HASH_BLOCK_SIZE) - first * FileHasher.FULL_HASH_BLOCK_SIZE;
+                enqueue(queue, new HashTask(file, index, split, first, end, cost));
+            }
+        }
+
+        /** Czeka na miejsce w kolejkach (albo anulowanie) i budzi wątek roboczy czekający na pracę. */
+        private void enqueue(DeviceQueue queue, HashTask task) throws InterruptedException {
+            do {
+                if (isCancelled()) return;
+            } while (!queueCapacity.tryAcquire(DEVICE_WAIT_MS, TimeUnit.MILLISECONDS));
+            plannedBytes += task.cost();
+            queue.add(task);
+            signalWork();
+        }
+
+        private void signalWork() {
+            synchronized (workSignal) {
+                if (waitingWorkers > 0) {
+                    workSignal.notify();
+                } else if (parkedWorkers > 0) {
+                    parkedWorkers--;
+                    executor.execute(this::processTasks);
+                }
+            }
+        }
+
+        /**
+         * Odkłada wątek roboczy poza pulę, jeśli wciąż nie ma zadań. Sprawdzenie pod tym samym monitorem
+         * co {@link #signalWork()} sprawia, że zadanie dodane w międzyczasie nie zostanie przeoczone.
+         */
+        private boolean park() {
+            synchronized (workSignal) {
+                if (inputComplete || isCancelled()) return false;
+                for (DeviceQueue queue : queues) {
+                    if (queue.hasRemaining()) return false;
+                }
+                parkedWorkers++;
+                return true;
+            }
+        }
+
+        // ====== WĄTKI ROBOCZE ======
+
+        /**
+         * Porcja pracy wątku roboczego w puli {@link HashingEngine}. Gdy w puli czeka praca innego
+         * przebiegu, porcja kończy się po bieżącym zadaniu i wątek roboczy wraca na koniec kolejki puli.
+         * Bez zadań (np. gdy przeglądanie katalogów nie nadąża) nie zajmuje wątku puli, tylko czeka
+         * poza nią, aż {@link #signalWork()} przekaże go ponownie do puli. Dla przebiegu wciąż jest aktywny.
+         */
+        void processTasks() {
+            long allocatedAtStart = MemoryStats.currentThreadAllocatedBytes();
+            FileHasher hasher = engine.borrowHasher();
+            boolean yielded = false;
+            boolean parked = false;
+            try {
+                hasher.bind(cpuPermits, bytesRead, this::isCancelled);
+                DeviceQueue queue;
+                while ((queue = claimQueue()) != null) {
+                    if (queue == PARKED) {
+                        parked = true;
+                        break;
+                    }
+                    HashTask task = null;
+                    long taskStart = System.nanoTime();
+                    try {
+                        task = queue.poll();
+                        if (task == null) continue;
+                        queueCapacity.release();
+                        lastTaskTakenAt = System.currentTimeMillis();
+
+                        if (task.split() == null) {
+                            processFile(task.file(), task.index(), hasher);
+                            fileCompleted(task.file());
+                        } else {
+                            processPart(task, hasher);
+                        }
+                    } finally {
+                        queue.device.release();
+                        if (queue.adaptive != null) {
+                            queue.leave(task, System.nanoTime() - taskStart);
+                            signalWork();
+                        }
+                    }
+                    if (engine.shouldYield(executionMode)) {
+                        yielded = true;
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                yielded = false;
+            } finally {
+                memoryStats.recordWorker(hasher, MemoryStats.currentThreadAllocatedBytes() - allocatedAtStart);
+                engine.returnHasher(hasher);
+                if (yielded) {
+                    executor.execute(this::processTasks);
+                } else if (!parked) {
+                    long exitTime = System.currentTimeMillis();
+                    workerExitTimeSum.addAndGet(exitTime);
+                    lastWorkerExit.accumulateAndGet(exitTime, Math::max);
+                    latch.countDown();
+                }
+            }
+        }
+
+        /**
+         * Ogon przebiegu: czas od pobrania ostatniego zadania z kolejek do zakończenia ostatniego wątku,
+         * czyli okres, w którym pracuje mniej wątków, niż uruchomiono. Czas bezczynności sumuje
+         * dla wszystkich wątków okres między ich zakończeniem a końcem przebiegu.
+         */
+        void logTail() {
+            long end = lastWorkerExit.get();
+            if (end == 0 || latch.getCount() > 0) return;
+            long tailMs = lastTaskTakenAt > 0 ? end - lastTaskTakenAt : 0;
+            long idleThreadMs = workerCount * end - workerExitTimeSum.get();
+            System.out.println("- Scheduling " + scheduling + ": tail with fewer than " + workerCount +
+                " threads busy " + tailMs + "ms, idle thread time " + idleThreadMs + "ms");
+        }
+
+        /**
+         * Zwraca kolejkę z pracą, dla której zajęto miejsce na urządzeniu, {@link #PARKED}, gdy wątek
+         * bez pracy oddał miejsce w puli innemu przebiegowi, albo null po zakończeniu.
+         * Kolejki są przeglądane rotacyjnie, więc wolny dysk nie czeka na zajęty.
+         */
+        private DeviceQueue claimQueue() throws InterruptedException {
+            while (!isCancelled()) {
+                // Odczyt przed przeglądem kolejek: zadania dodane przed zakończeniem podawania będą widoczne
+                boolean complete = inputComplete;
+                DeviceQueue waitingQueue = null;
+                boolean throttled = false;
+                int queueCount = queues.size();
+                int start = queueCount > 0 ? Math.floorMod(queueRotation.getAndIncrement(), queueCount) : 0;
+                for (int i = 0; i < queueCount; i++) {
+                    DeviceQueue queue = queues.get((start + i) % queueCount);
+                    if (!queue.hasRemaining()) continue;
+                    if (!queue.tryEnter()) {
+                        throttled = true;
+                        continue;
+                    }
+                    if (queue.device.tryAcquire()) {
+                        if (queue.hasRemaining()) return queue;
+                        queue.device.release();
+                    } else if (waitingQueue == null) {
+                        waitingQueue = queue;
+                    }
+                    queue.leave(null, 0);
+                }
+
+                if (waitingQueue != null) {
+                    // Wszystkie urządzenia z pracą są zajęte - poczekaj krótko na jedno z nich
+                    if (waitingQueue.tryEnter()) {
+                        if (waitingQueue.device.tryAcquire(DEVICE_WAIT_MS)) {
+                            if (waitingQueue.hasRemaining()) return waitingQueue;
+                            waitingQueue.device.release();
+                        }
+                        waitingQueue.leave(null, 0);
+                    } else {
+                        awaitWork();
+                    }
+                } else if (complete && !throttled) {
+                    return null;
+                } else if (!throttled && engine.shouldYield(executionMode) && park()) {
+                    // Brak nowych zadań, a w puli czeka inny przebieg - wątek wróci przez signalWork()
+                    return PARKED;
+                } else {
+                    // Brak nowych zadań albo limit adaptacyjny wyczerpany - poczekaj na sygnał
+                    awaitWork();
+                }
+            }
+            return null;
+        }
+
+        /** Czeka na nowe zadanie; limit czasu chroni przed przeoczonym powiadomieniem. */
+        private void awaitWork() throws InterruptedException {
+            synchronized (workSignal) {
+                waitingWorkers++;
+                try {
+                    workSignal.wait(DEVICE_WAIT_MS);
+                } finally {
+                    waitingWorkers--;
+                }
+            }
+        }
+
+        private void processFile(File file, int index, FileHasher hasher) {
+            try {
+                long fileStart = System.currentTimeMillis();
+                boolean hashed = calculateFileHash(file, index, hasher, pass, results);
+
+                if (hashed && !isCancelled()) {
+                    hashedCount.incrementAndGet();
+                    fileHashed(index);
+                    logLargeFileProcessing(file, fileStart);
+                } else if (!hashed) {
+                    errors.incrementAndGet();
+                }
+            } catch (Exception e) {
+                if (!isCancelled()) {
+                    System.err.println("Error hashing file " + file.getAbsolutePath() + ": " + e.getMessage());
+                    errors.incrementAndGet();
+                }
+            }
+        }
+
+        private void processPart(HashTask task, FileHasher hasher) {
+            SplitFile split = task.split();
+            split.startTime.compareAndSet(0, System.currentTimeMillis());
+            try (FileChannel channel = FileHasher.open(split.file)) {
+                if (task.firstBlock() < 0) {
+                    split.sampledHash = hasher.hash(channel, split.plan);
+                    // Tylko próbki - resztę pliku czytają właśnie zadania zakresów i same zwalniają swoje strony
+                    pageCache.dropSamples(split.file, split.plan, split.fileSize);
+                } else {
+                    split.fullAccumulator.addAndGet(
+                        hasher.fullHashRange(channel, split.fileSize, task.firstBlock(), task.endBlock()));
+                    long offset = task.firstBlock() * FileHasher.FULL_HASH_BLOCK_SIZE;
+                    pageCache.dropCache(split.file, offset, Math.min(split.fileSize - offset,
+                        (task.endBlock() - task.firstBlock()) * FileHasher.FULL_HASH_BLOCK_SIZE));
+                }
+            } catch (OutOfMemoryError | IOException e) {
+                split.failed = true;
+                logHashError(split.file, e);
+            } catch (CancellationException e) {
+                split.failed = true;
+            } catch (Exception e) {
+                split.failed = true;
+                System.err.println("UNEXPECTED ERROR hashing range of " + split.file.getAbsolutePath() + ": " +
+                    e.getClass().getName() + " - " + e.getMessage());
+            }
+
+            if (split.pendingParts.decrementAndGet() == 0) {
+                finishSplitFile(split, hasher);
+            }
+        }
+
+        private void finishSplitFile(SplitFile split, FileHasher hasher) {
+            if (split.failed) {
+                if (!isCancelled()) errors.incrementAndGet();
+            } else if (!isCancelled()) {
+                results.setFullHash(split.index, hasher.finishFullHash(split.fullAccumulator.get(), split.fileSize));
+                if (pass != Pass.FULL_ONLY) {
+                    results.setHash(split.index, split.sampledHash);
+                    results.setSampleVersion(split.index, split.plan.getVersion());
+                }
+                hashedCount.incrementAndGet();
+                fileHashed(split.index);
+                logLargeFileProcessing(split.file, split.startTime.get());
+            }
+            fileCompleted(split.file);
+        }
+
+        private void fileHashed(int index) {
+            if (progressCallback == null) return;
+            try {
+                progressCallback.onFileHashed(index, results);
+            } catch (RuntimeException e) {
+                System.err.println("File hashed callback failed: " + e.getMessage());
+            }
+        }
+
+        private void fileCompleted(File file) {
+            int current = completed.incrementAndGet();
+            // Podczas podawania plików suma jest tylko dolnym oszacowaniem - rośnie z każdym plikiem
+            int total = results.size();
+            reportProgress(current, total, file.getName(), errors.get(),
+                progressReportCounter, Math.max(1, total / 1000), progressCallback, isCancelled);
+        }
+
+        // ====== POSTĘP BAJTOWY ======
+
+        void startByteProgress() {
+            if (progressCallback == null) return;
+            byteProgress = PROGRESS_TICKER.scheduleAtFixedRate(this::reportBytes,
+                BYTE_PROGRESS_INTERVAL_MS, BYTE_PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        /** Zatrzymuje raportowanie; po zwykłym zakończeniu wysyła ostatni, pełny stan. */
+        synchronized void stopByteProgress() {
+            if (byteProgress == null) return;
+            byteProgress.cancel(false);
+            byteProgress = null;
+            reportBytes();
+        }
+
+        private void reportBytes() {
+            if (isCancelled()) return;
+            try {
+                progressCallback.onBytes(bytesRead.sum(), plannedBytes);
+            } catch (RuntimeException e) {
+                System.err.println("Byte progress callback failed: " + e.getMessage());
+            }
+        }
+
+        private boolean isCancelled() {
+            return aborted || (isCancelled != null && isCancelled.getAsBoolean());
         }
     }
 
@@ -159,116 +937,220 @@ public class MultiThreadedHashCalculator {
         }
     }
 
-    private void logCompletionStats(List<File> files, int resultCount, int errorCount, long totalTime) {
-        double avgTimePerFile = files.isEmpty() ? 0 : (double) totalTime / files.size();
-        double mbPerSecond = calculateThroughput(files, totalTime);
+    private void logCompletionStats(int fileCount, long totalBytes, int resultCount, int errorCount, long totalTime,
+            MemoryStats memoryStats) {
+        double avgTimePerFile = fileCount == 0 ? 0 : (double) totalTime / fileCount;
+        double mbPerSecond = calculateThroughput(totalBytes, totalTime);
 
         System.out.println("Multi-threaded hash calculation completed:");
-        System.out.println("- Files processed: " + resultCount + "/" + files.size());
+        System.out.println("- Files processed: " + resultCount + "/" + fileCount);
         System.out.println("- Total time: " + totalTime + "ms");
         System.out.println("- Average per file: " + String.format("%.1f", avgTimePerFile) + "ms");
         System.out.println("- Throughput: " + String.format("%.1f", mbPerSecond) + " MB/s");
-        System.out.println("- Threads used: " + threadCount);
+        System.out.println("- Threads used: " + describeThreads());
         System.out.println("- Errors: " + errorCount);
+        System.out.println("- Pooled buffer files: " + memoryStats.pooledFiles.get() +
+            ", mapped files: " + memoryStats.mappedFiles.get());
+        System.out.println("- Heap allocated by workers: " + memoryStats.formatAllocated(resultCount));
+        System.out.println("- GC: " + memoryStats.gcCount + " collections, " + memoryStats.gcTimeMs + "ms");
     }
 
-    private double calculateThroughput(List<File> files, long totalTimeMs) {
-        long totalBytes = files.stream().mapToLong(File::length).sum();
+    private double calculateThroughput(long totalBytes, long totalTimeMs) {
         double totalMB = totalBytes / (1024.0 * 1024.0);
         double totalSeconds = totalTimeMs / 1000.0;
         return totalSeconds > 0 ? totalMB / totalSeconds : 0;
     }
 
-    private String calculateFileHash(File file) {
-        try {
-            LongHashFunction hashFunction = LongHashFunction.xx3();
-            long fileSize = file.length();
-            long smallFileThreshold = SMALL_FILE_THRESHOLD_MB * 1024L * 1024L;
+    /**
+     * Zapisuje hasze pliku w pozycji {@code index} wyników. Każdy plik ma własną pozycję,
+     * więc wątki nie rywalizują o wspólną strukturę.
+     */
+    private boolean calculateFileHash(File file, int index, FileHasher hasher, Pass pass, HashResults results) {
+        try (FileChannel channel = FileHasher.open(file)) {
+            if (pass == Pass.HEAD) {
+                results.setHash(index, hasher.headHash(channel));
+                pageCache.dropCache(file, 0, FileHasher.HEAD_BLOCK_SIZE);
+                return true;
+            }
 
-            if (fileSize < smallFileThreshold) {
-                return hashSmallFile(file, hashFunction);
-            } else {
-                return hashLargeFile(file, hashFunction, fileSize);
+            SamplePlan plan = SamplePlan.forFile(file);
+            boolean sampled = FileHasher.isSampled(channel.size());
+            if (computesFullHash(pass) && sampled) {
+                results.setFullHash(index, hasher.fullHash(channel));
+            }
+            if (pass != Pass.FULL_ONLY) {
+                results.setHash(index, hasher.hash(channel, plan));
+                results.setSampleVersion(index, sampled ? plan.getVersion() : 0);
             }
+            pageCache.dropCache(file);
+            return true;
         } catch (OutOfMemoryError | IOException e) {
             logHashError(file, e);
-            return null;
+            return false;
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
             System.err.println("UNEXPECTED ERROR hashing file " + file.getAbsolutePath() +
                 " (size: " + (file.length() / 1024 / 1024) + " MB): " + e.getClass().getName() + " - " + e.getMessage());
-            return null;
+            return false;
         }
     }
 
-    private String hashSmallFile(File file, LongHashFunction hashFunction) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file)) {
-            byte[] fileBytes = fis.readAllBytes();
-            return String.format("%016x", hashFunction.hashBytes(fileBytes));
-        }
+    private void logHashError(File file, Throwable e) {
+        String errorType = e instanceof OutOfMemoryError ? "OUT OF MEMORY" : "IO ERROR";
+        System.err.println(errorType + " hashing file " + file.getAbsolutePath() +
+            " (size: " + (file.length() / 1024 / 1024) + " MB): " + e.getMessage());
     }
 
-    private String hashLargeFile(File file, LongHashFunction hashFunction, long fileSize) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file)) {
-            long spacing = fileSize / NUM_CHUNKS;
-            byte[] buffer = new byte[CHUNK_SIZE];
-            long hash = 0;
-            long currentPosition = 0;
+    private String describeThreads() {
+        return executionMode == ExecutionMode.VIRTUAL_THREADS
+            ? ioConcurrency + " virtual threads (" + CORES + " hashing at once)"
+            : threadCount + " threads";
+    }
 
-            for (int i = 0; i < NUM_CHUNKS; i++) {
-                long targetPosition = i * spacing;
-                long skipAmount = targetPosition - currentPosition;
+    /**
+     * Wyniki jednego przebiegu w tablicach równoległych, indeksowanych kolejnością podania plików - bez obiektu na plik
+     * i bez postaci szesnastkowej. {@link HashCodes#NO_HASH} oznacza brak hasza (błąd, anulowanie
+     * albo hasz nieliczony w danym przebiegu). {@code fullHash} jest ustawiony tylko dla plików,
+     * których hasz podstawowy jest próbkowany; {@code sampleVersion} to wersja {@link SamplePlan}
+     * użytego dla hasza podstawowego (0, gdy plik haszowano w całości).
+     * <p>
+     * Wątki robocze piszą do rozłącznych pozycji; odczyt jest bezpieczny po zakończeniu przebiegu.
+     */
+    public static final class HashResults {
+        private static final int CHUNK_BITS = 12;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
 
-                if (skipAmount > 0) {
-                    long skipped = fis.skip(skipAmount);
-                    currentPosition += skipped;
-                }
+        /** Porcja pozycji. Wyniki rosną o całe porcje, więc zapisane pozycje nigdy nie są kopiowane. */
+        private static final class Chunk {
+            private final File[] files = new File[CHUNK_SIZE];
+            private final long[] hashes = new long[CHUNK_SIZE];
+            private final long[] fullHashes = new long[CHUNK_SIZE];
+            private final int[] sampleVersions = new int[CHUNK_SIZE];
+        }
 
-                int toRead = (int) Math.min(CHUNK_SIZE, fileSize - targetPosition);
-                int totalRead = readFully(fis, buffer, toRead);
-                currentPosition += totalRead;
+        private volatile Chunk[] chunks = new Chunk[0];
+        private volatile int size;
 
-                if (totalRead > 0) {
-                    long chunkHash = hashFunction.hashBytes(buffer, 0, totalRead);
-                    hash = (i == 0) ? chunkHash : Long.rotateLeft(hash, 1) ^ chunkHash;
-                }
+        HashResults() {}
+
+        HashResults(List<File> files) {
+            files.forEach(this::append);
+        }
+
+        /** Dodaje pozycję na końcu. Wywołuje tylko wątek podający pliki, przed utworzeniem zadań. */
+        int append(File file) {
+            int index = size;
+            int chunkIndex = index >>> CHUNK_BITS;
+            Chunk[] current = chunks;
+            if (chunkIndex == current.length) {
+                current = Arrays.copyOf(current, Math.max(4, current.length * 2));
+                for (int i = chunkIndex; i < current.length; i++) current[i] = new Chunk();
+                chunks = current;
             }
+            current[chunkIndex].files[index & CHUNK_MASK] = file;
+            size = index + 1;
+            return index;
+        }
 
-            return String.format("%016x", hash);
+        private Chunk chunk(int index) {
+            if (index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+            return chunks[index >>> CHUNK_BITS];
         }
-    }
 
-    private int readFully(FileInputStream fis, byte[] buffer, int toRead) throws IOException {
-        int totalRead = 0;
-        int bytesRead;
-        while (totalRead < toRead && (bytesRead = fis.read(buffer, totalRead, toRead - totalRead)) != -1) {
-            totalRead += bytesRead;
+        public int size() { return size; }
+        public File file(int index) { return chunk(index).files[index & CHUNK_MASK]; }
+        public long hash(int index) { return chunk(index).hashes[index & CHUNK_MASK]; }
+        public long fullHash(int index) { return chunk(index).fullHashes[index & CHUNK_MASK]; }
+        public int sampleVersion(int index) { return chunk(index).sampleVersions[index & CHUNK_MASK]; }
+
+        /** Hasz identyfikujący zawartość: pełny, jeśli policzony, w przeciwnym razie podstawowy. */
+        public long contentHash(int index) {
+            long fullHash = fullHash(index);
+            return HashCodes.isPresent(fullHash) ? fullHash : hash(index);
         }
-        return totalRead;
-    }
 
-    private void logHashError(File file, Throwable e) {
-        String errorType = e instanceof OutOfMemoryError ? "OUT OF MEMORY" : "IO ERROR";
-        System.err.println(errorType + " hashing file " + file.getAbsolutePath() +
-            " (size: " + (file.length() / 1024 / 1024) + " MB): " + e.getMessage());
+        public boolean isHashed(int index) { return HashCodes.isPresent(contentHash(index)); }
+
+        void setHash(int index, long hash) { chunk(index).hashes[index & CHUNK_MASK] = hash; }
+        void setFullHash(int index, long fullHash) { chunk(index).fullHashes[index & CHUNK_MASK] = fullHash; }
+        void setSampleVersion(int index, int version) { chunk(index).sampleVersions[index & CHUNK_MASK] = version; }
     }
 
-    public void shutdown() {
-        if (!ownsExecutor) return;
+    /**
+     * Liczniki alokacji i GC dla jednego przebiegu {@link #runPass}.
+     * Alokacje są mierzone per wątek roboczy, więc nie obejmują pracy innych części aplikacji.
+     */
+    private static final class MemoryStats {
+        private static final java.lang.management.ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicInteger pooledFiles = new AtomicInteger();
+        private final AtomicInteger mappedFiles = new AtomicInteger();
+        private final long gcCountAtStart = totalGcCount();
+        private final long gcTimeAtStart = totalGcTimeMs();
+        private long gcCount;
+        private long gcTimeMs;
+
+        static long currentThreadAllocatedBytes() {
+            if (THREAD_BEAN instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getCurrentThreadAllocatedBytes();
+            }
+            return 0;
+        }
 
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                executor.shutdownNow();
+        void recordWorker(FileHasher hasher, long allocated) {
+            allocatedBytes.addAndGet(Math.max(0, allocated));
+            if (hasher != null) {
+                pooledFiles.addAndGet(hasher.getPooledFiles());
+                mappedFiles.addAndGet(hasher.getMappedFiles());
             }
-        } catch (InterruptedException e) {
-            executor.shutdownNow();
-            Thread.currentThread().interrupt();
+        }
+
+        void finish() {
+            gcCount = totalGcCount() - gcCountAtStart;
+            gcTimeMs = totalGcTimeMs() - gcTimeAtStart;
+        }
+
+        String formatAllocated(int fileCount) {
+            long bytes = allocatedBytes.get();
+            long perFile = fileCount > 0 ? bytes / fileCount : 0;
+            return FileUtilities.formatFileSize(bytes) + " (" + perFile + " B/file)";
+        }
+
+        private static long totalGcCount() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(c -> c > 0).sum();
+        }
+
+        private static long totalGcTimeMs() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(t -> t > 0).sum();
         }
     }
 
     @FunctionalInterface
     public interface ProgressCallback {
         void onProgress(int current, int total, String currentFile, int errors);
+
+        /**
+         * Postęp w bajtach, wywoływany z osobnego wątku co {@value MultiThreadedHashCalculator#BYTE_PROGRESS_INTERVAL_MS} ms,
+         * także w trakcie haszowania jednego dużego pliku. {@code totalBytes} to szacowana liczba
+         * bajtów do odczytania w zadaniach przyjętych dotąd do przebiegu (rośnie przy podawaniu plików).
+         */
+        default void onBytes(long processedBytes, long totalBytes) {}
+
+        /**
+         * Wywoływane z wątku roboczego zaraz po zapisaniu haszy pliku {@code index} w {@code results},
+         * tylko dla plików przehaszowanych bez błędu. Musi wrócić od razu - wątek czeka z kolejnym plikiem.
+         */
+        default void onFileHashed(int index, HashResults results) {}
+
+        /** Procent 0-100 do paska postępu; szacunek sumy może być chwilowo mniejszy niż odczytane bajty. */
+        static int bytePercent(long processedBytes, long totalBytes) {
+            return totalBytes <= 0 ? 0 : (int) Math.min(100, processedBytes * 100 / totalBytes);
+        }
     }
 }
 
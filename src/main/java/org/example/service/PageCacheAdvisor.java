@@ -0,0 +1,126 @@
+package org.example.service;
+
+import org.example.model.BackupConfiguration;
+
+import java.io.File;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntConsumer;
+
+/**
+ * Wskazówki dla pamięci podręcznej stron systemu ({@code posix_fadvise}) wywoływane przez FFM API.
+ * Po haszowaniu lub kopiowaniu zwalnia strony pliku ({@code POSIX_FADV_DONTNEED}) - przejście przez
+ * wielo-terabajtowy folder nie wypycha z pamięci wszystkiego, czego używa reszta systemu.
+ * <p>
+ * Zwalnianie dotyczy stron pliku, a nie deskryptora, więc plik jest na chwilę otwierany własnym
+ * deskryptorem ({@code open}/{@code close} przez FFM) - bez sięgania do wnętrza kanałów JDK.
+ * Poza Linuksem (brak funkcji) albo gdy wskazówki są wyłączone w konfiguracji, wszystkie metody
+ * nic nie robią. Błędy wywołań są ignorowane - to tylko wskazówki.
+ */
+public final class PageCacheAdvisor {
+
+    private static final PageCacheAdvisor SHARED = new PageCacheAdvisor();
+
+    // Wartości z <fcntl.h> dla Linuksa
+    private static final int POSIX_FADV_DONTNEED = 4;
+    private static final int O_RDONLY = 0;
+    private static final int O_CLOEXEC = 0x80000;
+
+    private final MethodHandle fadvise;
+    private final MethodHandle open;
+    private final MethodHandle close;
+    private volatile boolean enabled = true;
+
+    private PageCacheAdvisor() {
+        MethodHandle fadviseHandle = null;
+        MethodHandle openHandle = null;
+        MethodHandle closeHandle = null;
+        try {
+            Linker linker = Linker.nativeLinker();
+            SymbolLookup libc = linker.defaultLookup();
+            if (libc.find("posix_fadvise").isPresent()) {
+                fadviseHandle = linker.downcallHandle(libc.find("posix_fadvise").get(), FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT));
+                // open(path, flags, ...) jest wariadyczna - argument mode (od indeksu 2) nie jest przekazywany
+                openHandle = linker.downcallHandle(libc.find("open").orElseThrow(), FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT), Linker.Option.firstVariadicArg(2));
+                closeHandle = linker.downcallHandle(libc.find("close").orElseThrow(), FunctionDescriptor.of(
+                    ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+            }
+        } catch (RuntimeException | LinkageError e) {
+            // Brak natywnego dostępu (np. bez --enable-native-access) - strony nie są zwalniane
+            fadviseHandle = null;
+        }
+        this.fadvise = fadviseHandle;
+        this.open = openHandle;
+        this.close = closeHandle;
+
+        System.out.println("Page cache hints: " + (fadvise == null ? "posix_fadvise unavailable" : "posix_fadvise available"));
+    }
+
+    public static PageCacheAdvisor getShared() { return SHARED; }
+
+    public void configure(BackupConfiguration configuration) {
+        this.enabled = configuration.isPageCacheHints();
+    }
+
+    public boolean isActive() { return enabled && fadvise != null; }
+
+    // ====== WSKAZÓWKI ======
+
+    /**
+     * Zwalnia strony całego pliku. Brudne strony (np. świeżo skopiowanego pliku docelowego)
+     * jądro najpierw zleca do zapisu i zwalnia te, które są już czyste.
+     */
+    public void dropCache(File file) {
+        dropCache(file, 0, 0);
+    }
+
+    /** Zwalnia strony zakresu pliku ({@code length} 0 oznacza do końca pliku). */
+    public void dropCache(File file, long offset, long length) {
+        if (isActive()) withDescriptor(file, fd -> advise(fd, offset, length, POSIX_FADV_DONTNEED));
+    }
+
+    /** Zwalnia strony próbek planu - pozostałe strony pliku mogą być właśnie czytane przez inne zadania. */
+    void dropSamples(File file, SamplePlan plan, long fileSize) {
+        if (!isActive()) return;
+        withDescriptor(file, fd -> {
+            for (int sample = 0; sample < plan.getSampleCount(); sample++) {
+                advise(fd, plan.offset(sample, fileSize), plan.length(sample, fileSize), POSIX_FADV_DONTNEED);
+            }
+        });
+    }
+
+    /** Otwiera plik tylko do odczytu na czas wskazówek. */
+    private void withDescriptor(File file, IntConsumer action) {
+        byte[] path = file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+        try (Arena arena = Arena.ofConfined()) {
+            // Zaalokowana pamięć jest wyzerowana, więc ostatni bajt kończy ciąg C
+            MemorySegment cPath = arena.allocate(path.length + 1L);
+            MemorySegment.copy(path, 0, cPath, ValueLayout.JAVA_BYTE, 0, path.length);
+            int fd = (int) open.invokeExact(cPath, O_RDONLY | O_CLOEXEC);
+            if (fd < 0) return;
+            try {
+                action.accept(fd);
+            } finally {
+                int _ = (int) close.invokeExact(fd);
+            }
+        } catch (Throwable e) {
+            // Tylko wskazówka - plik mógł zniknąć w międzyczasie
+        }
+    }
+
+    private void advise(int fd, long offset, long length, int advice) {
+        try {
+            int _ = (int) fadvise.invokeExact(fd, offset, length, advice);
+        } catch (Throwable e) {
+            // Tylko wskazówka
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.service;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Wersjonowany plan próbkowania dużych plików: liczba i rozmiar próbek oraz ich rozmieszczenie.
+ * <p>
+ * Numer wersji jest zapisywany razem z haszem w {@code .mfbcm_hashes.json}. Zmiana planu dla typu
+ * pliku wymaga nowej wersji - wtedy ponownie haszowane są tylko wpisy tego typu, a pozostałe
+ * (w tym wszystkie wpisy zapisane przed wprowadzeniem wersji) pozostają ważne.
+ */
+final class SamplePlan {
+
+    /** Pierwotny plan: 10 próbek po 10MB rozłożonych równomiernie od początku pliku. */
+    static final SamplePlan V1 = new SamplePlan(1, 10, 10 * 1024 * 1024);
+
+    private static final Map<Integer, SamplePlan> VERSIONS = new HashMap<>();
+    private static final Map<String, SamplePlan> BY_EXTENSION = new HashMap<>();
+
+    static {
+        register(V1);
+        // Dostrojone plany dla typów plików rejestruje się tutaj, np.:
+        // register(new SamplePlan(2, 16, 4 * 1024 * 1024), "mkv", "mp4");
+    }
+
+    private final int version;
+    private final int sampleCount;
+    private final int sampleSize;
+
+    SamplePlan(int version, int sampleCount, int sampleSize) {
+        if (version < 1 || sampleCount < 1 || sampleSize < 1 || sampleSize > FileHasher.POOLED_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Invalid sample plan v" + version +
+                ": " + sampleCount + " x " + sampleSize + " bytes");
+        }
+        this.version = version;
+        this.sampleCount = sampleCount;
+        this.sampleSize = sampleSize;
+    }
+
+    private static void register(SamplePlan plan, String... extensions) {
+        SamplePlan previous = VERSIONS.putIfAbsent(plan.version, plan);
+        if (previous != null && previous != plan) {
+            throw new IllegalStateException("Duplicate sample plan version: " + plan.version);
+        }
+        for (String extension : extensions) {
+            BY_EXTENSION.put(extension, plan);
+        }
+    }
+
+    // ====== WYBÓR PLANU ======
+
+    static SamplePlan forFile(File file) {
+        String name = file.getName();
+        int lastDot = name.lastIndexOf('.');
+        if (lastDot <= 0) return V1;
+        return BY_EXTENSION.getOrDefault(name.substring(lastDot + 1).toLowerCase(Locale.ROOT), V1);
+    }
+
+    /** Zwraca plan o podanej wersji; 0 oznacza wpis sprzed wersjonowania, czyli V1. */
+    static SamplePlan forVersion(int version) {
+        return version <= 0 ? V1 : VERSIONS.get(version);
+    }
+
+    // ====== ROZMIESZCZENIE PRÓBEK ======
+
+    int getVersion() { return version; }
+    int getSampleCount() { return sampleCount; }
+
+    long offset(int sample, long fileSize) {
+        return sample * (fileSize / sampleCount);
+    }
+
+    int length(int sample, long fileSize) {
+        return (int) Math.min(sampleSize, fileSize - offset(sample, fileSize));
+    }
+
+    /** Łączna liczba bajtów odczytywanych przez próbki pliku o podanym rozmiarze. */
+    long bytesRead(long fileSize) {
+        long bytes = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            bytes += length(i, fileSize);
+        }
+        return bytes;
+    }
+}
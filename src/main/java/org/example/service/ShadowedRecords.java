@@ -0,0 +1,70 @@
+package org.example.service;
+
+/**
+ * Rekordy zmapowanego indeksu ({@link MappedHashIndex}) zastąpione wpisem w pamięci albo usunięte
+ * od zapisu indeksu - bit na rekord. Sprawdzenie rekordu nie wymaga dekodowania jego ścieżki.
+ * <p>
+ * {@link #freeze()} zwraca niezmienną kopię w O(1): obie instancje współdzielą tablicę bitów,
+ * a pierwszy zapis po zamrożeniu kopiuje ją (rekordów / 8 bajtów). Zapis jest synchronizowany
+ * przez właściciela; zamrożona kopia jest tylko czytana.
+ */
+final class ShadowedRecords {
+
+    private long[] words;
+    private int count;
+    private boolean shared;
+    private final boolean frozen;
+
+    ShadowedRecords(int records) {
+        this.words = new long[(records + 63) >>> 6];
+        this.frozen = false;
+    }
+
+    private ShadowedRecords(ShadowedRecords source) {
+        this.words = source.words;
+        this.count = source.count;
+        this.frozen = true;
+    }
+
+    // ====== ODCZYT ======
+
+    int size() { return count; }
+
+    boolean contains(int record) {
+        return (words[record >>> 6] & (1L << record)) != 0;
+    }
+
+    /** Najmniejszy zacieniony rekord nie mniejszy niż {@code from} albo -1. */
+    int next(int from) {
+        int word = from >>> 6;
+        if (word >= words.length) return -1;
+        long bits = words[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == words.length) return -1;
+            bits = words[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    // ====== ZAPIS ======
+
+    /** Zwraca false, jeśli rekord był już zacieniony. */
+    boolean add(int record) {
+        if (frozen) throw new IllegalStateException("Frozen record set");
+        long bit = 1L << record;
+        if ((words[record >>> 6] & bit) != 0) return false;
+        if (shared) {
+            words = words.clone();
+            shared = false;
+        }
+        words[record >>> 6] |= bit;
+        count++;
+        return true;
+    }
+
+    ShadowedRecords freeze() {
+        if (frozen) return this;
+        shared = true;
+        return new ShadowedRecords(this);
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wstępny filtr duplikatów oparty na rozmiarze pliku.
+ * Plik, którego rozmiaru nie ma żaden inny plik źródłowy ani wpis folderu głównego,
+ * nie może być duplikatem, więc nie trzeba go haszować.
+ * <p>
+ * Pliki są podawane w trakcie przeglądania katalogów. Plik staje się kandydatem,
+ * gdy jego rozmiar ma wpis folderu głównego albo powtórzy się wśród plików źródłowych - wtedy
+ * kandydatem staje się też wcześniejszy, dotąd jedyny plik o tym rozmiarze. Pliki, których
+ * rozmiar nie powtórzył się do końca przeglądania, są unikalne.
+ * <p>
+ * Kandydaci są przekazywani w kolejności wykrycia kolizji, nie przeglądania; pozycja nadana
+ * przez odbiorcę jest zapamiętywana dla pozycji pliku w kolejności przeglądania.
+ */
+final class SizeCollisionFilter {
+
+    private static final int NOT_CANDIDATE = -1;
+
+    /** Odbiera kandydata i zwraca nadaną mu pozycję (np. w przebiegu haszowania). */
+    @FunctionalInterface
+    interface CandidateSink {
+        int accept(File file, long size) throws InterruptedException;
+    }
+
+    private final Set<Long> masterSizes;
+    private final CandidateSink sink;
+    private final List<File> files = new ArrayList<>();
+    private final Map<Long, Integer> singleFileBySize = new HashMap<>();
+    private long[] sizes = new long[1024];
+    private int[] slots = new int[1024];
+    private int candidateCount;
+
+    SizeCollisionFilter(Set<Long> masterSizes, CandidateSink sink) {
+        this.masterSizes = masterSizes;
+        this.sink = sink;
+    }
+
+    void add(File file) throws InterruptedException {
+        int index = files.size();
+        long size = file.length();
+        if (index == sizes.length) {
+            sizes = Arrays.copyOf(sizes, index * 2);
+            slots = Arrays.copyOf(slots, index * 2);
+        }
+        files.add(file);
+        sizes[index] = size;
+        slots[index] = NOT_CANDIDATE;
+
+        if (!masterSizes.contains(size)) {
+            Integer single = singleFileBySize.putIfAbsent(size, index);
+            if (single == null) return;
+            if (single != NOT_CANDIDATE) {
+                singleFileBySize.put(size, NOT_CANDIDATE);
+                markCandidate(single);
+            }
+        }
+        markCandidate(index);
+    }
+
+    private void markCandidate(int index) throws InterruptedException {
+        slots[index] = sink.accept(files.get(index), sizes[index]);
+        candidateCount++;
+    }
+
+    /** Kończy filtrowanie; pliki bez kolizji pozostają unikalne. */
+    void finish() {
+        System.out.println("Size prefilter: " + skippedCount() + " of " + size() +
+            " files have a unique size and will not be hashed");
+    }
+
+    int size() { return files.size(); }
+    File file(int index) { return files.get(index); }
+    long fileSize(int index) { return sizes[index]; }
+    int candidateCount() { return candidateCount; }
+    int skippedCount() { return files.size() - candidateCount; }
+    boolean isCandidate(int index) { return slots[index] != NOT_CANDIDATE; }
+
+    /** Pozycja nadana kandydatowi przez odbiorcę. */
+    int slot(int index) { return slots[index]; }
+
+    List<File> files() { return files; }
+    long[] sizes() { return Arrays.copyOf(sizes, files.size()); }
+}
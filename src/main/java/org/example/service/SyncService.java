@@ -7,6 +7,7 @@ import org.example.model.SyncResult;
 import javax.swing.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
@@ -18,7 +19,8 @@ import java.util.concurrent.CancellationException;
  */
 public class SyncService extends SwingWorker<SyncResult, OperationProgress> {
 
-    private static final String HASH_FILE_NAME = ".mfbcm_hashes.json";
+    /** Migawka indeksu haszy i jej dzienniki ({@code .mfbcm_hashes.json}, {@code .mfbcm_hashes.journal}, ...) */
+    private static final String HASH_FILES_PREFIX = ".mfbcm_hashes";
     private static final String TEMP_DIR_NAME = ".mfbcm_temp";
 
     private final BackupConfiguration configuration;
@@ -131,11 +133,19 @@ public class SyncService extends SwingWorker<SyncResult, OperationProgress> {
                 return;
             }
         }
-        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        try {
+            DeviceIoScheduler.getShared().run(source.toFile(), target.toFile(), () ->
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES));
+            PageCacheAdvisor.getShared().dropCache(source.toFile());
+            PageCacheAdvisor.getShared().dropCache(target.toFile());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for device: " + source.getFileName());
+        }
     }
 
     private boolean isSystemFile(Path file) {
-        return file.getFileName().toString().equals(HASH_FILE_NAME);
+        return file.getFileName().toString().startsWith(HASH_FILES_PREFIX);
     }
 
     private boolean isSystemDirectory(Path dir) {
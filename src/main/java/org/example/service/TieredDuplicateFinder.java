@@ -0,0 +1,382 @@
+package org.example.service;
+
+import org.example.model.DetectionTierStats;
+import org.example.util.HashCodes;
+import org.example.util.LongHashSet;
+import org.example.util.LongObjectHashMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Etapowe potwierdzanie duplikatów: rozmiar → hasz pierwszego bloku → hasz próbkowany → hasz pełny.
+ * Każdy kolejny etap czyta więcej danych, ale tylko dla kandydatów, którzy przetrwali poprzednie.
+ * <p>
+ * Wpisy folderu głównego biorą udział w porównaniu: hasz próbkowany i pełny pochodzą z indeksu,
+ * a pierwszy blok (lub brakujący hasz pełny) jest czytany z dysku tylko dla wpisów,
+ * które wciąż kolidują z jakimś plikiem źródłowym. Pliki źródłowe są identyfikowane kolejnością
+ * podania. Instancja służy do jednego wyszukiwania.
+ */
+final class TieredDuplicateFinder implements AutoCloseable {
+
+    /** Dostarcza callback postępu dla etapu o podanej nazwie. */
+    @FunctionalInterface
+    interface TierProgress {
+        MultiThreadedHashCalculator.ProgressCallback forTier(String tierName);
+    }
+
+    /**
+     * @param sourceFiles   pliki źródłowe w kolejności podania
+     * @param contentHashes hasze identyfikujące zawartość plików źródłowych (równoległe do {@code sourceFiles});
+     *                      {@link HashCodes#NO_HASH} oznacza plik wykluczony przed haszowaniem zawartości
+     * @param failed        pozycje plików źródłowych, których nie udało się odczytać
+     * @param masterMatches wpisy folderu głównego potwierdzone jako duplikaty (hasz zawartości → wpis)
+     */
+    record Result(List<File> sourceFiles, long[] contentHashes, BitSet failed,
+                  LongObjectHashMap<HashStorageService.FileHashInfo> masterMatches, List<DetectionTierStats> tierStats) {}
+
+    /** Kandydaci etapu: pozycje plików źródłowych i wpisy folderu głównego. */
+    private record Survivors(int[] sources, List<HashStorageService.FileHashInfo> masters) {}
+
+    private static final long SIZE_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final int NOT_READ = -1;
+
+    private final MultiThreadedHashCalculator calculator;
+    private final File masterLocation;
+    private final boolean confirmWithFullHash;
+    private final List<DetectionTierStats> tierStats = new ArrayList<>();
+    private final BitSet failed = new BitSet();
+    private final Map<Long, List<HashStorageService.FileHashInfo>> pendingMastersBySize = new HashMap<>();
+    private final List<HashStorageService.FileHashInfo> masterCandidates = new ArrayList<>();
+    private final List<Integer> masterHeadSlots = new ArrayList<>();
+    private TierProgress progress;
+    private BooleanSupplier isCancelled;
+    private long startTime;
+    private SizeCollisionFilter sizeFilter;
+    private MultiThreadedHashCalculator.HashStream headStream;
+    private long headBytesRead;
+    private List<File> sources;
+    private long[] sizes;
+    private long[] contentHashes;
+
+    /**
+     * @param calculator          kalkulator w trybie SAMPLED - hasze pełne są liczone osobnym przebiegiem
+     * @param confirmWithFullHash czy duże pliki zgodne w haszu próbkowanym potwierdzać haszem pełnym
+     */
+    TieredDuplicateFinder(MultiThreadedHashCalculator calculator, File masterLocation, boolean confirmWithFullHash) {
+        this.calculator = calculator;
+        this.masterLocation = masterLocation;
+        this.confirmWithFullHash = confirmWithFullHash;
+    }
+
+    /**
+     * Rozpoczyna wyszukiwanie. Pliki źródłowe są potem podawane przez {@link #accept} w kolejności
+     * przeglądania katalogów, a etap pierwszego bloku haszuje kandydatów już w jego trakcie.
+     */
+    void begin(MasterSnapshot master, TierProgress progress, BooleanSupplier isCancelled) {
+        this.progress = progress;
+        this.isCancelled = isCancelled;
+        this.startTime = System.currentTimeMillis();
+        master.forEachDistinctContent(info ->
+            pendingMastersBySize.computeIfAbsent(info.getFileSize(), _ -> new ArrayList<>()).add(info));
+        this.sizeFilter = new SizeCollisionFilter(new HashSet<>(pendingMastersBySize.keySet()), this::submitHeadCandidate);
+        this.headStream = calculator.openHeadStream(progress.forTier("head block"), isCancelled);
+    }
+
+    void accept(File sourceFile) throws InterruptedException {
+        sizeFilter.add(sourceFile);
+    }
+
+    /** Kończy podawanie plików i przeprowadza pozostałe etapy. Pliki źródłowe są identyfikowane kolejnością podania. */
+    Result finish() throws InterruptedException {
+        // ====== ETAP 1: ROZMIAR ======
+        sizeFilter.finish();
+        recordTier("Size", sizeFilter.size(), sizeFilter.skippedCount(), 0, startTime);
+        this.sources = sizeFilter.files();
+        this.sizes = sizeFilter.sizes();
+        this.contentHashes = new long[sources.size()];
+
+        int[] candidates = new int[sizeFilter.candidateCount()];
+        for (int i = 0, next = 0; i < sources.size(); i++) {
+            if (sizeFilter.isCandidate(i)) candidates[next++] = i;
+        }
+
+        Survivors survivors = headTier(candidates);
+        survivors = sampledTier(survivors);
+
+        LongObjectHashMap<HashStorageService.FileHashInfo> masterMatches = new LongObjectHashMap<>();
+        if (confirmWithFullHash) {
+            survivors = fullTier(survivors, masterMatches);
+        } else {
+            System.out.println("Full hash tier skipped - sampled hashes are final in SAMPLED mode");
+        }
+        for (HashStorageService.FileHashInfo info : survivors.masters()) {
+            masterMatches.putIfAbsent(info.getHash(), info);
+        }
+
+        return new Result(sources, contentHashes, failed, masterMatches, tierStats);
+    }
+
+    /** Przerywa haszowanie pierwszych bloków, jeśli wyszukiwanie nie doszło do {@link #finish()}. */
+    @Override
+    public void close() {
+        if (headStream != null) headStream.close();
+    }
+
+    /**
+     * Kandydat z filtra rozmiaru trafia od razu do haszowania pierwszego bloku. Przy pierwszej
+     * kolizji danego rozmiaru dołączają wpisy folderu głównego o tym rozmiarze.
+     */
+    private int submitHeadCandidate(File file, long size) throws InterruptedException {
+        List<HashStorageService.FileHashInfo> sameSize = pendingMastersBySize.remove(size);
+        if (sameSize != null) {
+            for (HashStorageService.FileHashInfo info : sameSize) {
+                masterCandidates.add(info);
+                // Mały plik mieści się w bloku - jego hasz z indeksu jest haszem pierwszego bloku
+                if (info.getFileSize() <= FileHasher.HEAD_BLOCK_SIZE) {
+                    masterHeadSlots.add(NOT_READ);
+                } else {
+                    masterHeadSlots.add(headStream.submit(info.getAbsoluteFile(masterLocation)));
+                    headBytesRead += FileHasher.HEAD_BLOCK_SIZE;
+                }
+            }
+        }
+        headBytesRead += Math.min(FileHasher.HEAD_BLOCK_SIZE, size);
+        return headStream.submit(file);
+    }
+
+    // ====== ETAP 2: PIERWSZY BLOK ======
+
+    /** Czas etapu liczony jest od początku przeglądania - haszowanie biegnie równolegle z nim. */
+    private Survivors headTier(int[] candidateSources) throws InterruptedException {
+        MultiThreadedHashCalculator.HashResults headHashes = headStream.finish();
+        checkCancelled();
+
+        long[] sourceHashes = new long[candidateSources.length];
+        for (int i = 0; i < candidateSources.length; i++) {
+            int source = candidateSources[i];
+            sourceHashes[i] = recordSourceHash(source, headHashes.hash(sizeFilter.slot(source)));
+            if (sizes[source] <= FileHasher.HEAD_BLOCK_SIZE) contentHashes[source] = sourceHashes[i];
+        }
+
+        long[] masterHashes = new long[masterCandidates.size()];
+        for (int m = 0; m < masterCandidates.size(); m++) {
+            int slot = masterHeadSlots.get(m);
+            masterHashes[m] = slot == NOT_READ ? masterCandidates.get(m).getHash() : headHashes.hash(slot);
+        }
+
+        Survivors survivors = narrow(candidateSources, sourceHashes, masterCandidates, masterHashes);
+        recordTier("Head block", candidateSources.length,
+            countPresent(sourceHashes) - survivors.sources().length, headBytesRead, startTime);
+        return survivors;
+    }
+
+    // ====== ETAP 3: HASZ PRÓBKOWANY ======
+
+    /**
+     * Dla plików mieszczących się w pierwszym bloku hasz tego bloku jest już haszem podstawowym,
+     * więc nie są czytane ponownie. Hasze wpisów folderu głównego pochodzą z indeksu.
+     */
+    private Survivors sampledTier(Survivors candidates) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        int[] candidateSources = candidates.sources();
+        long[] sourceHashes = new long[candidateSources.length];
+        int[] readIndex = new int[candidateSources.length];
+        List<File> toRead = new ArrayList<>();
+        long bytesRead = 0;
+        for (int i = 0; i < candidateSources.length; i++) {
+            int source = candidateSources[i];
+            readIndex[i] = -1;
+            if (sizes[source] <= FileHasher.HEAD_BLOCK_SIZE) {
+                sourceHashes[i] = contentHashes[source];
+            } else {
+                readIndex[i] = toRead.size();
+                toRead.add(sources.get(source));
+                bytesRead += sampledBytes(sources.get(source), sizes[source]);
+            }
+        }
+
+        MultiThreadedHashCalculator.HashResults hashes = toRead.isEmpty() ? null
+            : calculator.calculateHashResults(toRead, progress.forTier("sampled hash"), isCancelled);
+        checkCancelled();
+        for (int i = 0; i < candidateSources.length; i++) {
+            if (readIndex[i] < 0) continue;
+            sourceHashes[i] = recordSourceHash(candidateSources[i], hashes.hash(readIndex[i]));
+            contentHashes[candidateSources[i]] = sourceHashes[i];
+        }
+
+        List<HashStorageService.FileHashInfo> masters = candidates.masters();
+        long[] masterHashes = new long[masters.size()];
+        for (int m = 0; m < masters.size(); m++) {
+            masterHashes[m] = masters.get(m).getHash();
+        }
+
+        Survivors survivors = narrow(candidateSources, sourceHashes, masters, masterHashes);
+        recordTier("Sampled hash", candidateSources.length,
+            countPresent(sourceHashes) - survivors.sources().length, bytesRead, start);
+        return survivors;
+    }
+
+    private long sampledBytes(File file, long size) {
+        return FileHasher.isSampled(size) ? SamplePlan.forFile(file).bytesRead(size) : size;
+    }
+
+    // ====== ETAP 4: HASZ PEŁNY ======
+
+    /**
+     * Potwierdza haszem pełnym tylko pliki próbkowane - hasz podstawowy mniejszych plików
+     * obejmuje już całą zawartość. Zwraca ocalałe wpisy folderu głównego identyfikowane haszem
+     * podstawowym; potwierdzone pełnym haszem trafiają od razu do {@code masterMatches}.
+     */
+    private Survivors fullTier(Survivors candidates, LongObjectHashMap<HashStorageService.FileHashInfo> masterMatches)
+            throws InterruptedException {
+        long start = System.currentTimeMillis();
+        int[] confirmedSources = Arrays.stream(candidates.sources())
+            .filter(source -> !FileHasher.isSampled(sizes[source])).toArray();
+        int[] sampledSources = Arrays.stream(candidates.sources())
+            .filter(source -> FileHasher.isSampled(sizes[source])).toArray();
+        List<HashStorageService.FileHashInfo> confirmedMasters = new ArrayList<>();
+        List<HashStorageService.FileHashInfo> sampledMasters = new ArrayList<>();
+        for (HashStorageService.FileHashInfo info : candidates.masters()) {
+            (FileHasher.isSampled(info.getFileSize()) ? sampledMasters : confirmedMasters).add(info);
+        }
+        if (sampledSources.length == 0) {
+            return new Survivors(confirmedSources, confirmedMasters);
+        }
+
+        List<File> toRead = new ArrayList<>();
+        long bytesRead = 0;
+        for (int source : sampledSources) {
+            toRead.add(sources.get(source));
+            bytesRead += sizes[source];
+        }
+        long[] masterHashes = new long[sampledMasters.size()];
+        int[] masterReadIndex = new int[sampledMasters.size()];
+        for (int m = 0; m < sampledMasters.size(); m++) {
+            HashStorageService.FileHashInfo info = sampledMasters.get(m);
+            masterHashes[m] = info.getFullHash();
+            masterReadIndex[m] = -1;
+            if (!HashCodes.isPresent(info.getFullHash())) {
+                masterReadIndex[m] = toRead.size();
+                toRead.add(info.getAbsoluteFile(masterLocation));
+                bytesRead += info.getFileSize();
+            }
+        }
+
+        MultiThreadedHashCalculator.HashResults fullHashes = calculator.calculateFullHashes(
+            toRead, progress.forTier("full hash"), isCancelled);
+        checkCancelled();
+
+        long[] sourceHashes = new long[sampledSources.length];
+        for (int i = 0; i < sampledSources.length; i++) {
+            sourceHashes[i] = recordSourceHash(sampledSources[i], fullHashes.fullHash(i));
+            contentHashes[sampledSources[i]] = sourceHashes[i];
+        }
+        for (int m = 0; m < sampledMasters.size(); m++) {
+            if (masterReadIndex[m] >= 0) masterHashes[m] = fullHashes.fullHash(masterReadIndex[m]);
+        }
+
+        Survivors survivors = narrow(sampledSources, sourceHashes, sampledMasters, masterHashes);
+        Set<HashStorageService.FileHashInfo> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+        matched.addAll(survivors.masters());
+        for (int m = 0; m < sampledMasters.size(); m++) {
+            if (matched.contains(sampledMasters.get(m))) {
+                masterMatches.putIfAbsent(masterHashes[m], sampledMasters.get(m));
+            }
+        }
+        recordTier("Full hash", sampledSources.length,
+            countPresent(sourceHashes) - survivors.sources().length, bytesRead, start);
+
+        int[] confirmed = Arrays.copyOf(confirmedSources, confirmedSources.length + survivors.sources().length);
+        System.arraycopy(survivors.sources(), 0, confirmed, confirmedSources.length, survivors.sources().length);
+        return new Survivors(confirmed, confirmedMasters);
+    }
+
+    // ====== METODY POMOCNICZE ======
+
+    /**
+     * Plik bez hasza (błąd odczytu) jest oznaczany jako nieudany i traci
+     * wcześniejszą identyfikację zawartości.
+     */
+    private long recordSourceHash(int source, long hash) {
+        if (!HashCodes.isPresent(hash)) {
+            failed.set(source);
+            contentHashes[source] = HashCodes.NO_HASH;
+        }
+        return hash;
+    }
+
+    /**
+     * Zostawia pliki źródłowe, których grupa (rozmiar, hasz) zawiera inny plik źródłowy
+     * lub wpis folderu głównego, oraz wpisy folderu głównego zgodne z jakimś plikiem źródłowym.
+     * Hasze {@link HashCodes#NO_HASH} (błąd odczytu) nie należą do żadnej grupy.
+     */
+    private Survivors narrow(int[] sourceIndexes, long[] sourceHashes,
+                             List<HashStorageService.FileHashInfo> masters, long[] masterHashes) {
+        LongHashSet seen = new LongHashSet(sourceIndexes.length);
+        LongHashSet repeated = new LongHashSet();
+        for (int i = 0; i < sourceIndexes.length; i++) {
+            if (!HashCodes.isPresent(sourceHashes[i])) continue;
+            long key = groupKey(sizes[sourceIndexes[i]], sourceHashes[i]);
+            if (!seen.add(key)) repeated.add(key);
+        }
+
+        LongHashSet masterKeys = new LongHashSet();
+        List<HashStorageService.FileHashInfo> survivingMasters = new ArrayList<>();
+        for (int m = 0; m < masters.size(); m++) {
+            if (!HashCodes.isPresent(masterHashes[m])) continue;
+            long key = groupKey(masters.get(m).getFileSize(), masterHashes[m]);
+            if (seen.contains(key)) {
+                masterKeys.add(key);
+                survivingMasters.add(masters.get(m));
+            }
+        }
+
+        int[] survivingSources = new int[sourceIndexes.length];
+        int count = 0;
+        for (int i = 0; i < sourceIndexes.length; i++) {
+            if (!HashCodes.isPresent(sourceHashes[i])) continue;
+            long key = groupKey(sizes[sourceIndexes[i]], sourceHashes[i]);
+            if (repeated.contains(key) || masterKeys.contains(key)) survivingSources[count++] = sourceIndexes[i];
+        }
+        return new Survivors(Arrays.copyOf(survivingSources, count), survivingMasters);
+    }
+
+    /** Łączy rozmiar z haszem w jeden klucz grupy; wynik nigdy nie jest {@link HashCodes#NO_HASH}. */
+    private static long groupKey(long size, long hash) {
+        long key = hash ^ (size * SIZE_MULTIPLIER);
+        return HashCodes.isPresent(key) ? key : 1;
+    }
+
+    private static int countPresent(long[] hashes) {
+        int count = 0;
+        for (long hash : hashes) {
+            if (HashCodes.isPresent(hash)) count++;
+        }
+        return count;
+    }
+
+    private void recordTier(String name, int candidates, int eliminated, long bytesRead, long startTime) {
+        DetectionTierStats stats = new DetectionTierStats(name, candidates, eliminated, bytesRead,
+            System.currentTimeMillis() - startTime);
+        tierStats.add(stats);
+        System.out.println("Duplicate tier " + stats);
+    }
+
+    private void checkCancelled() {
+        if (isCancelled.getAsBoolean()) {
+            throw new CancellationException("Duplicate detection cancelled");
+        }
+    }
+}
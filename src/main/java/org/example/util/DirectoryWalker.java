@@ -0,0 +1,107 @@
+package org.example.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Przegląda katalogi w tej samej kolejności co {@link FileUtilities#collectFilesFromDirectory}
+ * (rekurencyjnie, alfabetycznie), ale przekazuje znalezione pliki multimedialne od razu,
+ * bez zbierania całego drzewa w pamięci. Dzięki temu haszowanie może ruszyć z pierwszym plikiem.
+ * <p>
+ * Dopóki przeglądanie trwa, łączna liczba plików jest szacowana ze średniej liczby plików
+ * na już przejrzany katalog i liczby katalogów czekających w kolejce. Liczniki zapisuje tylko
+ * wątek przeglądający; odczyt z innych wątków (np. callbacków postępu) jest bezpieczny.
+ */
+public final class DirectoryWalker {
+
+    private static final byte SKIPPED = 0;
+    private static final byte MEDIA_FILE = 1;
+    private static final byte DIRECTORY = 2;
+
+    @FunctionalInterface
+    public interface FileSink {
+        void accept(File file) throws InterruptedException;
+    }
+
+    private final boolean includeSubdirectories;
+    private final BooleanSupplier isCancelled;
+    private volatile int discoveredFiles;
+    private volatile int listedDirectories;
+    private volatile int pendingDirectories;
+    private volatile boolean finished;
+
+    public DirectoryWalker(boolean includeSubdirectories, BooleanSupplier isCancelled) {
+        this.includeSubdirectories = includeSubdirectories;
+        this.isCancelled = isCancelled;
+    }
+
+    public void walk(Collection<File> roots, FileSink sink) throws InterruptedException {
+        pendingDirectories = roots.size();
+        try {
+            for (File root : roots) {
+                if (isCancelled()) break;
+                walkDirectory(root, sink);
+            }
+        } finally {
+            finished = true;
+        }
+    }
+
+    private void walkDirectory(File directory, FileSink sink) throws InterruptedException {
+        pendingDirectories--;
+        if (!directory.isDirectory() || isCancelled()) return;
+
+        File[] entries = directory.listFiles();
+        listedDirectories++;
+        if (entries == null) return;
+
+        Arrays.sort(entries, Comparator.comparing(File::getName));
+
+        // Podkatalogi są liczone przed zejściem w głąb, żeby oszacowanie widziało całą kolejkę
+        byte[] kinds = new byte[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].isFile()) {
+                kinds[i] = FileUtilities.isMultimediaFile(entries[i]) ? MEDIA_FILE : SKIPPED;
+            } else if (includeSubdirectories && entries[i].isDirectory()) {
+                kinds[i] = DIRECTORY;
+                pendingDirectories++;
+            }
+        }
+
+        for (int i = 0; i < entries.length; i++) {
+            if (isCancelled()) return;
+            if (kinds[i] == MEDIA_FILE) {
+                discoveredFiles++;
+                sink.accept(entries[i]);
+            } else if (kinds[i] == DIRECTORY) {
+                walkDirectory(entries[i], sink);
+            }
+        }
+    }
+
+    // ====== POSTĘP ======
+
+    public int getDiscoveredFiles() { return discoveredFiles; }
+    public boolean isFinished() { return finished; }
+
+    /** Dokładna liczba plików po zakończeniu przeglądania, wcześniej oszacowanie (nie mniejsze niż znalezione). */
+    public int getEstimatedTotal() {
+        int discovered = discoveredFiles;
+        int listed = listedDirectories;
+        if (finished || listed == 0) return discovered;
+        long estimate = discovered + (long) pendingDirectories * discovered / listed;
+        return (int) Math.min(Integer.MAX_VALUE, estimate);
+    }
+
+    /** Suma do wyświetlenia: oszacowanie poprzedzone znakiem {@code ~}, dopóki przeglądanie trwa. */
+    public String formatTotal() {
+        return (finished ? "" : "~") + getEstimatedTotal();
+    }
+
+    private boolean isCancelled() {
+        return isCancelled != null && isCancelled.getAsBoolean();
+    }
+}
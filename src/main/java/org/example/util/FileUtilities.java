@@ -8,7 +8,9 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BooleanSupplier;
 
 /**
@@ -85,6 +87,23 @@ public final class FileUtilities {
 
     // ====== EXECUTORY ======
 
+    /**
+     * Executor krótkich zadań na plikach (np. odczyt metadanych): stała pula {@code threadCount} wątków
+     * albo, w trybie {@link BackupConfiguration.ExecutionMode#VIRTUAL_THREADS}, wątek wirtualny na zadanie.
+     */
+    public static ExecutorService newFileTaskExecutor(BackupConfiguration.ExecutionMode mode, int threadCount,
+                                                      String threadNamePrefix) {
+        if (mode == BackupConfiguration.ExecutionMode.VIRTUAL_THREADS) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadNamePrefix + "-v", 1).factory());
+        }
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return Executors.newFixedThreadPool(Math.max(1, threadCount), r -> {
+            Thread t = new Thread(r, threadNamePrefix + "-" + threadNumber.getAndIncrement());
+            t.setDaemon(false);
+            return t;
+        });
+    }
+
     public static void shutdownExecutor(ExecutorService executor, int timeoutSeconds) {
         if (executor == null) return;
         executor.shutdown();
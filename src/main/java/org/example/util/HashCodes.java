@@ -0,0 +1,51 @@
+package org.example.util;
+
+/**
+ * Hasze xxHash3 są w aplikacji przechowywane jako {@code long}. Postać szesnastkowa
+ * jest tworzona tylko na granicach: w pliku JSON i w interfejsie użytkownika.
+ * <p>
+ * Wartość {@link #NO_HASH} oznacza brak hasza. Prawdziwy hasz równy zero jest
+ * praktycznie niemożliwy (2<sup>-64</sup>), a w najgorszym razie plik zostanie
+ * potraktowany jak nieprzehaszowany i przeliczony ponownie.
+ */
+public final class HashCodes {
+
+    public static final long NO_HASH = 0L;
+
+    private static final int HEX_LENGTH = 16;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private HashCodes() {}
+
+    public static boolean isPresent(long hash) { return hash != NO_HASH; }
+
+    /**
+     * Szczelina startowa klucza w tablicach z adresowaniem otwartym. Hasze xxHash3 są dobrze
+     * rozłożone, ale mieszanie chroni przed kluczami o wspólnych młodszych bitach.
+     */
+    public static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Zwraca 16 znaków szesnastkowych albo null dla {@link #NO_HASH}. */
+    public static String toHex(long hash) {
+        if (hash == NO_HASH) return null;
+        char[] chars = new char[HEX_LENGTH];
+        for (int i = HEX_LENGTH - 1; i >= 0; i--) {
+            chars[i] = HEX_DIGITS[(int) (hash & 0xF)];
+            hash >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /** Odczytuje hasz zapisany szesnastkowo; brak lub niepoprawna wartość daje {@link #NO_HASH}. */
+    public static long fromHex(String hex) {
+        if (hex == null || hex.isEmpty() || hex.length() > HEX_LENGTH) return NO_HASH;
+        try {
+            return Long.parseUnsignedLong(hex, 16);
+        } catch (NumberFormatException e) {
+            return NO_HASH;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.util;
+
+/**
+ * Zbiór wartości {@code long} z adresowaniem otwartym, odpowiednik {@link LongObjectHashMap} bez wartości.
+ * Wartość {@link HashCodes#NO_HASH} (0) jest zarezerwowana. Klasa nie jest bezpieczna wątkowo.
+ */
+public final class LongHashSet {
+
+    private long[] keys;
+    private int size;
+    private int resizeThreshold;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        allocate(LongObjectHashMap.capacityFor(expectedSize));
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    public boolean contains(long key) {
+        if (key == HashCodes.NO_HASH) return false;
+        int mask = keys.length - 1;
+        for (int slot = HashCodes.mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return true;
+            if (keys[slot] == HashCodes.NO_HASH) return false;
+        }
+    }
+
+    /** Dodaje wartość; zwraca false, jeśli już była w zbiorze. */
+    public boolean add(long key) {
+        LongObjectHashMap.checkKey(key);
+        int mask = keys.length - 1;
+        for (int slot = HashCodes.mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return false;
+            if (keys[slot] == HashCodes.NO_HASH) {
+                keys[slot] = key;
+                if (++size > resizeThreshold) resize(keys.length * 2);
+                return true;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (long key : oldKeys) {
+            if (key == HashCodes.NO_HASH) continue;
+            int slot = HashCodes.mix(key) & mask;
+            while (keys[slot] != HashCodes.NO_HASH) slot = (slot + 1) & mask;
+            keys[slot] = key;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        resizeThreshold = (int) (capacity * 0.6f);
+    }
+}
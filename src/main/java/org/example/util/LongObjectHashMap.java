@@ -0,0 +1,187 @@
+package org.example.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * Mapa z kluczem {@code long} i adresowaniem otwartym (sondowanie liniowe).
+ * Klucze nie są opakowywane w {@link Long}, a wpis nie jest osobnym obiektem -
+ * przy milionach haszy to kilkadziesiąt bajtów mniej na wpis niż w {@code HashMap<String, V>}.
+ * <p>
+ * Klucz {@link HashCodes#NO_HASH} (0) oznacza pusty slot i nie może być użyty.
+ * Wartości nie mogą być null. Klasa nie jest bezpieczna wątkowo.
+ */
+public final class LongObjectHashMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int resizeThreshold;
+
+    public LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public LongObjectHashMap(LongObjectHashMap<V> source) {
+        this.keys = source.keys.clone();
+        this.values = source.values.clone();
+        this.size = source.size;
+        this.resizeThreshold = source.resizeThreshold;
+    }
+
+    // ====== ODCZYT ======
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int slot = findSlot(key);
+        return slot >= 0 ? (V) values[slot] : null;
+    }
+
+    public boolean containsKey(long key) {
+        return findSlot(key) >= 0;
+    }
+
+    // ====== ZAPIS ======
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        checkKey(key);
+        if (value == null) throw new NullPointerException("value");
+
+        int mask = keys.length - 1;
+        for (int slot = HashCodes.mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            if (keys[slot] == HashCodes.NO_HASH) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size > resizeThreshold) resize(keys.length * 2);
+                return null;
+            }
+        }
+    }
+
+    public V putIfAbsent(long key, V value) {
+        V existing = get(key);
+        return existing != null ? existing : put(key, value);
+    }
+
+    public V computeIfAbsent(long key, LongFunction<V> mapping) {
+        V existing = get(key);
+        if (existing != null) return existing;
+        V value = mapping.apply(key);
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Usuwa wpis, przesuwając wstecz kolejne wpisy z tej samej sekwencji sondowania,
+     * więc mapa nie potrzebuje znaczników usunięcia.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = findSlot(key);
+        if (slot < 0) return null;
+
+        V removed = (V) values[slot];
+        int mask = keys.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != HashCodes.NO_HASH; next = (next + 1) & mask) {
+            int home = HashCodes.mix(keys[next]) & mask;
+            // Wpis można przesunąć do luki, jeśli luka leży między jego slotem docelowym a obecnym
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = HashCodes.NO_HASH;
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, HashCodes.NO_HASH);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    // ====== ITERACJA ======
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> action) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != HashCodes.NO_HASH) action.accept(keys[slot], (V) values[slot]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> result = new ArrayList<>(size);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != HashCodes.NO_HASH) result.add((V) values[slot]);
+        }
+        return result;
+    }
+
+    // ====== POMOCNICZE ======
+
+    private int findSlot(long key) {
+        if (key == HashCodes.NO_HASH) return -1;
+        int mask = keys.length - 1;
+        for (int slot = HashCodes.mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return slot;
+            if (keys[slot] == HashCodes.NO_HASH) return -1;
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == HashCodes.NO_HASH) continue;
+            int slot = HashCodes.mix(oldKeys[i]) & mask;
+            while (keys[slot] != HashCodes.NO_HASH) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    static int capacityFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 1) / (double) LOAD_FACTOR) + 1;
+        return (int) Math.max(MIN_CAPACITY, Long.highestOneBit(needed - 1) << 1);
+    }
+
+    static void checkKey(long key) {
+        if (key == HashCodes.NO_HASH) throw new IllegalArgumentException("Key 0 is reserved for empty slots");
+    }
+}
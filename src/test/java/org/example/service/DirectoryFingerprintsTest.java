@@ -0,0 +1,104 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decyzje o pominięciu katalogu: odcisk jest wiarygodny tylko przy tej samej dacie modyfikacji
+ * i tylko dla katalogów zmienionych przed oknem niepewności przed zapisem odcisku.
+ */
+class DirectoryFingerprintsTest {
+
+    private static final long SCAN_START = 1_000_000;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void skipsOnlyDirectoriesWithSameDateOutsideRacyWindow() {
+        DirectoryFingerprints fingerprints = new DirectoryFingerprints(SCAN_START);
+        long modified = SCAN_START - DirectoryFingerprints.RACY_WINDOW_MS - 1;
+        DirectoryFingerprints.Fingerprint fingerprint = new DirectoryFingerprints.Fingerprint(modified, 3, 42);
+
+        assertTrue(fingerprints.isUnchanged(fingerprint, modified));
+        assertFalse(fingerprints.isUnchanged(fingerprint, modified + 1), "data katalogu się zmieniła");
+        assertFalse(fingerprints.isUnchanged(null, modified), "katalog bez odcisku");
+        assertFalse(fingerprints.isUnchanged(new DirectoryFingerprints.Fingerprint(0, 0, 0), 0), "nieznana data");
+
+        long racy = SCAN_START - DirectoryFingerprints.RACY_WINDOW_MS;
+        assertFalse(fingerprints.isUnchanged(new DirectoryFingerprints.Fingerprint(racy, 3, 42), racy),
+            "zmiana tuż przed zapisem odcisku mogła zostać przeoczona");
+    }
+
+    @Test
+    void digestDoesNotDependOnFileOrder() {
+        long forward = DirectoryFingerprints.digestOf("a.jpg", 100) + DirectoryFingerprints.digestOf("b.jpg", 200);
+        long backward = DirectoryFingerprints.digestOf("b.jpg", 200) + DirectoryFingerprints.digestOf("a.jpg", 100);
+        assertEquals(forward, backward);
+
+        long renamed = DirectoryFingerprints.digestOf("c.jpg", 100) + DirectoryFingerprints.digestOf("b.jpg", 200);
+        long resized = DirectoryFingerprints.digestOf("a.jpg", 101) + DirectoryFingerprints.digestOf("b.jpg", 200);
+        assertTrue(forward != renamed && forward != resized);
+    }
+
+    @Test
+    void splitsRelativePaths() {
+        assertEquals("", DirectoryFingerprints.directoryOf("a.jpg"));
+        assertEquals("x/y", DirectoryFingerprints.directoryOf("x/y/a.jpg"));
+        assertEquals("a.jpg", DirectoryFingerprints.fileNameOf("a.jpg"));
+        assertEquals("a.jpg", DirectoryFingerprints.fileNameOf("x/y/a.jpg"));
+    }
+
+    @Test
+    void listsSubdirectoriesOfSkippedDirectory() {
+        DirectoryFingerprints fingerprints = new DirectoryFingerprints(SCAN_START);
+        DirectoryFingerprints.Fingerprint any = new DirectoryFingerprints.Fingerprint(1, 0, 0);
+        fingerprints.put("", any);
+        fingerprints.put("x", any);
+        fingerprints.put("x/y", any);
+        assertEquals(List.of("x"), fingerprints.subdirectories(""));
+        assertEquals(List.of("y"), fingerprints.subdirectories("x"));
+        assertTrue(fingerprints.subdirectories("x/y").isEmpty());
+
+        // Dodanie odcisku unieważnia zapamiętane podkatalogi
+        fingerprints.put("z", any);
+        assertEquals(2, fingerprints.subdirectories("").size());
+    }
+
+    @Test
+    void savedFingerprintsKeepScanStart() throws IOException {
+        File file = tempDir.resolve("fingerprints.bin").toFile();
+        long modified = SCAN_START - DirectoryFingerprints.RACY_WINDOW_MS - 1;
+        DirectoryFingerprints saved = new DirectoryFingerprints(SCAN_START);
+        saved.put("", new DirectoryFingerprints.Fingerprint(modified, 2, 7));
+        saved.put("x/ż", new DirectoryFingerprints.Fingerprint(modified, 1, -5));
+        saved.save(file);
+
+        DirectoryFingerprints loaded = DirectoryFingerprints.load(file);
+        assertEquals(new DirectoryFingerprints.Fingerprint(modified, 2, 7), loaded.get(""));
+        assertEquals(new DirectoryFingerprints.Fingerprint(modified, 1, -5), loaded.get("x/ż"));
+        assertTrue(loaded.isUnchanged(loaded.get(""), modified), "okno niepewności liczone od zapisanego startu");
+    }
+
+    @Test
+    void missingOrDamagedFileChecksEveryDirectory() throws IOException {
+        File file = tempDir.resolve("fingerprints.bin").toFile();
+        assertTrue(DirectoryFingerprints.load(file).isEmpty());
+
+        Files.write(file.toPath(), new byte[] {1, 2, 3});
+        DirectoryFingerprints damaged = DirectoryFingerprints.load(file);
+        assertTrue(damaged.isEmpty());
+        assertNull(damaged.get(""));
+    }
+}
@@ -0,0 +1,122 @@
+package org.example.service;
+
+import org.example.util.ProbeKeys;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Liczniki duplikatów: sumy po dodaniu i usunięciu kopii oraz usuwanie ostatniej kopii
+ * klucza, gdy łańcuch sondowania przechodzi przez koniec tablicy.
+ */
+class DuplicateCountsTest {
+
+    /** {@code new DuplicateCounts(1)} ma 16 szczelin. */
+    private static final int TABLE_MASK = 15;
+
+    @Test
+    void tracksGroupsCopiesAndWastedBytes() {
+        DuplicateCounts counts = new DuplicateCounts(1);
+        counts.add(1, 100);
+        counts.add(1, 100);
+        counts.add(1, 100);
+        counts.add(2, 50);
+        counts.add(3, 10);
+        counts.add(3, 10);
+        counts.add(0, 999); // brak hasza - pomijany
+        assertEquals(new HashStorageService.DuplicateSummary(2, 3, 210), counts.summary());
+        assertArrayEquals(new long[] {1, 3}, sortedKeys(counts));
+
+        counts.remove(1);
+        counts.remove(3);
+        assertEquals(new HashStorageService.DuplicateSummary(1, 1, 100), counts.summary());
+        assertArrayEquals(new long[] {1}, sortedKeys(counts));
+
+        counts.remove(2);
+        counts.remove(4); // nieznany klucz
+        assertEquals(new HashStorageService.DuplicateSummary(1, 1, 100), counts.summary());
+    }
+
+    @Test
+    void removesLastCopyFromChainWrappingAroundTable() {
+        List<Long> keys = new ArrayList<>();
+        keys.addAll(keysWithHome(TABLE_MASK, 3, 1));
+        keys.addAll(keysWithHome(0, 2, 1000));
+
+        for (int removed = 0; removed < keys.size(); removed++) {
+            DuplicateCounts counts = new DuplicateCounts(1);
+            for (long key : keys) {
+                counts.add(key, key);
+                counts.add(key, key);
+            }
+            // Zostaje jedna kopia, potem klucz znika z tablicy
+            counts.remove(keys.get(removed));
+            counts.remove(keys.get(removed));
+
+            long expectedBytes = 0;
+            for (int i = 0; i < keys.size(); i++) {
+                if (i != removed) expectedBytes += keys.get(i);
+            }
+            assertEquals(new HashStorageService.DuplicateSummary(keys.size() - 1, keys.size() - 1, expectedBytes),
+                counts.summary(), "after removing " + removed);
+            // Pozostałe klucze muszą być osiągalne - druga kopia każdego zwiększa sumy
+            for (int i = 0; i < keys.size(); i++) {
+                if (i != removed) counts.remove(keys.get(i));
+            }
+            assertEquals(new HashStorageService.DuplicateSummary(0, 0, 0), counts.summary());
+        }
+    }
+
+    @Test
+    void matchesMapUnderRandomOperations() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            int keyRange = seed % 2 == 0 ? 7 : 500;
+            DuplicateCounts counts = new DuplicateCounts(1);
+            Map<Long, Integer> expected = new HashMap<>();
+            for (int step = 0; step < 5000; step++) {
+                long key = 1 + random.nextInt(keyRange);
+                if (random.nextBoolean()) {
+                    counts.add(key, key * 10);
+                    expected.merge(key, 1, Integer::sum);
+                } else {
+                    counts.remove(key);
+                    expected.computeIfPresent(key, (_, n) -> n > 1 ? n - 1 : null);
+                }
+                assertEquals(summaryOf(expected), counts.summary(), "seed " + seed + " step " + step);
+            }
+        }
+    }
+
+    // ====== POMOCNICZE ======
+
+    private static HashStorageService.DuplicateSummary summaryOf(Map<Long, Integer> copies) {
+        int groups = 0;
+        long duplicateFiles = 0, wastedBytes = 0;
+        for (Map.Entry<Long, Integer> entry : copies.entrySet()) {
+            if (entry.getValue() < 2) continue;
+            groups++;
+            duplicateFiles += entry.getValue() - 1;
+            wastedBytes += (entry.getValue() - 1) * entry.getKey() * 10;
+        }
+        return new HashStorageService.DuplicateSummary(groups, duplicateFiles, wastedBytes);
+    }
+
+    private static long[] sortedKeys(DuplicateCounts counts) {
+        long[] keys = counts.duplicateKeys();
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static List<Long> keysWithHome(int home, int count, long start) {
+        return ProbeKeys.withHome(home, TABLE_MASK, count, start);
+    }
+}
@@ -0,0 +1,74 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Hasz pełny liczony z rozłącznych zakresów bloków (plik dzielony między wątki) musi być
+ * równy haszowi liczonemu w jednym przebiegu, niezależnie od podziału i kolejności zakresów.
+ */
+class FileHasherTest {
+
+    private static final int BLOCK = FileHasher.FULL_HASH_BLOCK_SIZE;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rangesInAnyOrderGiveUnsplitFullHash() throws IOException {
+        long fileSize = 3L * BLOCK + 12_345;
+        File file = randomFile("video.mkv", fileSize, 1);
+        FileHasher hasher = new FileHasher();
+        try (FileChannel channel = FileHasher.open(file)) {
+            long whole = hasher.fullHash(channel);
+
+            long reversed = hasher.fullHashRange(channel, fileSize, 2, 4)
+                + hasher.fullHashRange(channel, fileSize, 1, 2)
+                + hasher.fullHashRange(channel, fileSize, 0, 1);
+            assertEquals(whole, hasher.finishFullHash(reversed, fileSize));
+
+            long perBlock = 0;
+            for (long block = 3; block >= 0; block--) {
+                perBlock += hasher.fullHashRange(channel, fileSize, block, block + 1);
+            }
+            assertEquals(whole, hasher.finishFullHash(perBlock, fileSize));
+        }
+    }
+
+    @Test
+    void fullHashDependsOnBlockOrder() throws IOException {
+        long fileSize = 2L * BLOCK;
+        File file = randomFile("a.mkv", fileSize, 2);
+        byte[] content = Files.readAllBytes(file.toPath());
+        byte[] swapped = new byte[content.length];
+        System.arraycopy(content, BLOCK, swapped, 0, BLOCK);
+        System.arraycopy(content, 0, swapped, BLOCK, BLOCK);
+        File swappedFile = tempDir.resolve("b.mkv").toFile();
+        Files.write(swappedFile.toPath(), swapped);
+
+        FileHasher hasher = new FileHasher();
+        try (FileChannel first = FileHasher.open(file); FileChannel second = FileHasher.open(swappedFile)) {
+            assertNotEquals(hasher.fullHash(first), hasher.fullHash(second));
+        }
+    }
+
+    // ====== POMOCNICZE ======
+
+    private File randomFile(String name, long size, long seed) throws IOException {
+        byte[] content = new byte[(int) size];
+        new Random(seed).nextBytes(content);
+        Path path = tempDir.resolve(name);
+        Files.write(path, content);
+        return path.toFile();
+    }
+}
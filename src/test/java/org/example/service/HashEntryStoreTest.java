@@ -0,0 +1,211 @@
+package org.example.service;
+
+import org.example.util.ProbeKeys;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Kolumnowy magazyn wpisów: usuwanie z przesunięciem wstecz, gdy łańcuch sondowania
+ * przechodzi przez koniec tablicy, i zgodność z prostą mapą przy losowych operacjach.
+ */
+class HashEntryStoreTest {
+
+    /** Pusty magazyn ma tablice po 32 szczeliny, powiększane przy więcej niż 15 wpisach. */
+    private static final int TABLE_MASK = 31;
+
+    // ====== ŁAŃCUCHY PRZEZ KONIEC TABLICY ======
+
+    @Test
+    void removesFromContentChainWrappingAroundTable() {
+        // Trzy klucze z ostatniej szczeliny, jeden z przedostatniej i jeden z pierwszej:
+        // łańcuch zajmuje szczeliny 30, 31, 0, 1, 2, 3
+        List<Long> keys = new ArrayList<>();
+        keys.addAll(keysWithHome(31, 3, 1));
+        keys.addAll(keysWithHome(30, 1, 1000));
+        keys.addAll(keysWithHome(0, 1, 2000));
+
+        for (int removed = 0; removed < keys.size(); removed++) {
+            HashEntryStore store = new HashEntryStore(false);
+            for (int i = 0; i < keys.size(); i++) {
+                store.put(entry("file" + i + ".jpg", keys.get(i)));
+            }
+            assertNotNull(store.remove("file" + removed + ".jpg"));
+            assertEquals(keys.size() - 1, store.size());
+            for (int i = 0; i < keys.size(); i++) {
+                HashStorageService.FileHashInfo found = store.findByContentHash(keys.get(i));
+                if (i == removed) {
+                    assertNull(found, "removed key " + i);
+                } else {
+                    assertNotNull(found, "key " + i + " after removing " + removed);
+                    assertEquals("file" + i + ".jpg", found.getRelativePath());
+                }
+            }
+        }
+    }
+
+    @Test
+    void removesCopiesOfSameContentAcrossTableEnd() {
+        long key = keysWithHome(31, 1, 1).getFirst();
+        long other = keysWithHome(0, 1, 5000).getFirst();
+        HashEntryStore store = new HashEntryStore(false);
+        for (int i = 0; i < 4; i++) {
+            store.put(entry("copy" + i + ".jpg", key));
+        }
+        store.put(entry("other.jpg", other));
+
+        store.remove("copy1.jpg");
+        store.remove("copy0.jpg");
+        assertEquals(List.of("copy2.jpg", "copy3.jpg"), sorted(pathsWithContentHash(store, key)));
+        assertEquals(List.of("other.jpg"), pathsWithContentHash(store, other));
+
+        store.remove("copy3.jpg");
+        assertEquals(List.of("copy2.jpg"), pathsWithContentHash(store, key));
+        assertEquals(List.of("other.jpg"), pathsWithContentHash(store, other));
+    }
+
+    @Test
+    void replacingEntryMovesItToNewContentKey() {
+        List<Long> keys = keysWithHome(31, 3, 1);
+        HashEntryStore store = new HashEntryStore(false);
+        store.put(entry("a.jpg", keys.get(0)));
+        store.put(entry("b.jpg", keys.get(1)));
+        store.put(entry("a.jpg", keys.get(2)));
+
+        assertEquals(2, store.size());
+        assertNull(store.findByContentHash(keys.get(0)));
+        assertEquals("a.jpg", store.findByContentHash(keys.get(2)).getRelativePath());
+        assertEquals("b.jpg", store.findByContentHash(keys.get(1)).getRelativePath());
+    }
+
+    // ====== ZGODNOŚĆ Z MAPĄ ======
+
+    @Test
+    void matchesMapUnderRandomPutsAndRemoves() {
+        for (int seed = 0; seed < 20; seed++) {
+            // Mało ścieżek - tablice zostają małe i łańcuchy często przechodzą przez koniec;
+            // więcej ścieżek - powiększanie tablic w trakcie
+            checkAgainstMap(new Random(seed), seed % 2 == 0 ? 14 : 300, 8);
+        }
+    }
+
+    @Test
+    void usesFullHashAsContentKeyWhenConfigured() {
+        HashEntryStore store = new HashEntryStore(true);
+        HashStorageService.FileHashInfo withFull = entry("big.mkv", 5);
+        withFull.setFullHash(50);
+        store.put(withFull);
+        store.put(entry("small.jpg", 6));
+
+        assertNull(store.findByContentHash(5));
+        assertEquals("big.mkv", store.findByContentHash(50).getRelativePath());
+        assertEquals("small.jpg", store.findByContentHash(6).getRelativePath());
+        store.remove("big.mkv");
+        assertNull(store.findByContentHash(50));
+    }
+
+    @Test
+    void frozenCopyKeepsStateAndRejectsWrites() {
+        HashEntryStore store = new HashEntryStore(false);
+        store.put(entry("a.jpg", 1));
+        store.put(entry("dir/b.jpg", 2));
+        HashEntryStore frozen = store.freeze();
+
+        store.remove("a.jpg");
+        store.put(entry("dir/b.jpg", 3));
+        store.put(entry("dir/c.jpg", 4));
+
+        assertEquals(2, frozen.size());
+        assertEquals(1, frozen.get("a.jpg").getHash());
+        assertEquals(2, frozen.get("dir/b.jpg").getHash());
+        assertNull(frozen.get("dir/c.jpg"));
+        assertEquals("dir/b.jpg", frozen.findByContentHash(2).getRelativePath());
+        assertThrows(IllegalStateException.class, () -> frozen.put(entry("x.jpg", 9)));
+
+        assertEquals(2, store.size());
+        assertNull(store.get("a.jpg"));
+        assertEquals(3, store.get("dir/b.jpg").getHash());
+    }
+
+    // ====== POMOCNICZE ======
+
+    private static void checkAgainstMap(Random random, int pathCount, int hashCount) {
+        HashEntryStore store = new HashEntryStore(false);
+        Map<String, Long> expected = new HashMap<>();
+        for (int step = 0; step < 3000; step++) {
+            String path = "dir" + random.nextInt(3) + "/file" + random.nextInt(pathCount / 3 + 1) + ".jpg";
+            if (random.nextInt(3) == 0) {
+                Long removed = expected.remove(path);
+                HashStorageService.FileHashInfo info = store.remove(path);
+                assertEquals(removed, info != null ? info.getHash() : null, path);
+            } else {
+                long hash = 1 + random.nextInt(hashCount);
+                expected.put(path, hash);
+                store.put(entry(path, hash));
+            }
+
+            assertEquals(expected.size(), store.size());
+            if (step % 50 == 0 || expected.size() < 16) verify(store, expected, hashCount);
+        }
+        verify(store, expected, hashCount);
+    }
+
+    private static void verify(HashEntryStore store, Map<String, Long> expected, int hashCount) {
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            HashStorageService.FileHashInfo info = store.get(entry.getKey());
+            assertNotNull(info, entry.getKey());
+            assertEquals(entry.getValue().longValue(), info.getHash());
+        }
+        for (long hash = 1; hash <= hashCount; hash++) {
+            List<String> paths = new ArrayList<>();
+            for (Map.Entry<String, Long> entry : expected.entrySet()) {
+                if (entry.getValue() == hash) paths.add(entry.getKey());
+            }
+            assertEquals(sorted(paths), sorted(pathsWithContentHash(store, hash)), "hash " + hash);
+        }
+        assertEquals(sorted(new ArrayList<>(expected.keySet())), sorted(store.paths()));
+
+        // Ta sama nazwa w różnych katalogach; rozmiar wpisu zależy od hasza
+        Set<String> namesAndSizes = new HashSet<>();
+        expected.forEach((path, hash) -> namesAndSizes.add(DirectoryFingerprints.fileNameOf(path) + "|" + (1000 + hash)));
+        for (String path : expected.keySet()) {
+            String name = DirectoryFingerprints.fileNameOf(path);
+            for (long hash = 1; hash <= hashCount; hash++) {
+                assertEquals(namesAndSizes.contains(name + "|" + (1000 + hash)),
+                    store.containsNameAndSize(name.getBytes(StandardCharsets.UTF_8), 1000 + hash), name + " " + hash);
+            }
+        }
+    }
+
+    /** Klucze zawartości, których szczelina startowa w pustym magazynie to {@code home}. */
+    private static List<Long> keysWithHome(int home, int count, long start) {
+        return ProbeKeys.withHome(home, TABLE_MASK, count, start);
+    }
+
+    private static List<String> pathsWithContentHash(HashEntryStore store, long hash) {
+        List<String> paths = new ArrayList<>();
+        store.forEachWithContentHash(hash, info -> paths.add(info.getRelativePath()));
+        return paths;
+    }
+
+    private static List<String> sorted(List<String> paths) {
+        paths.sort(null);
+        return paths;
+    }
+
+    private static HashStorageService.FileHashInfo entry(String path, long hash) {
+        return new HashStorageService.FileHashInfo(path, hash, 1_700_000_000_000L, 1000 + hash);
+    }
+}
@@ -0,0 +1,110 @@
+package org.example.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Strumieniowy format pliku haszy musi być zgodny w obie strony z zapisem przez
+ * {@link ObjectMapper} (adnotacje Jackson na {@link HashStorageService.FileHashInfo}).
+ */
+class HashFileCodecTest {
+
+    private static final TypeReference<Map<String, HashStorageService.FileHashInfo>> MAP_TYPE = new TypeReference<>() {};
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsFileWrittenByObjectMapper() throws IOException {
+        Map<String, HashStorageService.FileHashInfo> written = new LinkedHashMap<>();
+        for (HashStorageService.FileHashInfo info : entries()) written.put(info.getRelativePath(), info);
+        File file = tempDir.resolve("hashes.json").toFile();
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, written);
+
+        List<HashStorageService.FileHashInfo> read = new ArrayList<>();
+        HashFileCodec.read(file, read::add);
+        assertSameEntries(entries(), read);
+    }
+
+    @Test
+    void objectMapperReadsFileWrittenByCodec() throws IOException {
+        File file = tempDir.resolve("hashes.json").toFile();
+        HashFileCodec.write(file, entries()::forEach);
+
+        Map<String, HashStorageService.FileHashInfo> read = new ObjectMapper().readValue(file, MAP_TYPE);
+        assertSameEntries(entries(), new ArrayList<>(read.values()));
+        assertEquals(List.copyOf(read.keySet()), entries().stream().map(HashStorageService.FileHashInfo::getRelativePath).toList());
+
+        List<HashStorageService.FileHashInfo> reread = new ArrayList<>();
+        HashFileCodec.read(file, reread::add);
+        assertSameEntries(entries(), reread);
+    }
+
+    @Test
+    void skipsUnknownFieldsAndPassesInvalidEntriesAsNull() throws IOException {
+        File file = tempDir.resolve("hashes.json").toFile();
+        Files.writeString(file.toPath(), """
+            {
+              "a.jpg": {"relativePath": "a.jpg", "hash": "00000000000000ff", "extra": {"nested": [1, 2]},
+                        "lastModified": 5, "fileSize": 10},
+              "b.jpg": null,
+              "c.jpg": [1, 2, 3],
+              "d.jpg": {"relativePath": "d.jpg", "hash": "not hex", "lastModified": 6, "fileSize": 11}
+            }""", StandardCharsets.UTF_8);
+
+        List<HashStorageService.FileHashInfo> read = new ArrayList<>();
+        HashFileCodec.read(file, read::add);
+        assertEquals(4, read.size());
+        assertEquals(0xFF, read.get(0).getHash());
+        assertEquals(10, read.get(0).getFileSize());
+        assertNull(read.get(1));
+        assertNull(read.get(2));
+        assertNotNull(read.get(3));
+        assertEquals(0, read.get(3).getHash());
+    }
+
+    // ====== POMOCNICZE ======
+
+    private static List<HashStorageService.FileHashInfo> entries() {
+        HashStorageService.FileHashInfo small = new HashStorageService.FileHashInfo("zdjęcia/wakacje 2024/IMG_1.jpg",
+            0x0123456789ABCDEFL, 1_700_000_000_000L, 2_000_000);
+        HashStorageService.FileHashInfo sampled = new HashStorageService.FileHashInfo("filmy/film.mkv",
+            0xF000000000000001L, 1_700_000_000_123L, 5_000_000_000L);
+        sampled.setSampleVersion(2);
+        HashStorageService.FileHashInfo full = new HashStorageService.FileHashInfo("filmy/\"cytat\".mp4",
+            42, 1_600_000_000_000L, 200_000_000);
+        full.setFullHash(-1);
+        full.setSampleVersion(1);
+        return List.of(small, sampled, full);
+    }
+
+    private static void assertSameEntries(List<HashStorageService.FileHashInfo> expected,
+                                          List<HashStorageService.FileHashInfo> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            HashStorageService.FileHashInfo e = expected.get(i), a = actual.get(i);
+            assertEquals(e.getRelativePath(), a.getRelativePath());
+            assertEquals(e.getHash(), a.getHash());
+            assertEquals(e.getFullHash(), a.getFullHash());
+            assertEquals(e.getSampleVersion(), a.getSampleVersion());
+            assertEquals(e.getLastModified(), a.getLastModified());
+            assertEquals(e.getFileSize(), a.getFileSize());
+        }
+    }
+}
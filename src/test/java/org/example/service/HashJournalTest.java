@@ -0,0 +1,322 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Dziennik zmian indeksu: odtworzenie zapisanych rekordów, odcięcie uszkodzonego ogona
+ * i kolejność odtwarzania po przerwanym kompaktowaniu.
+ */
+class HashJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    // ====== ODTWARZANIE ======
+
+    @Test
+    void replaysRecordsInOrder() throws IOException {
+        File file = journalFile();
+        HashJournal journal = new HashJournal(file);
+        journal.recordPut(entry("a.jpg", 1));
+        journal.recordPut(entry("dir/b.jpg", 2));
+        journal.recordDelete("a.jpg");
+        journal.recordPut(entry("dir/b.jpg", 3));
+        journal.recordPut(entry("c.jpg", 4));
+        journal.flush();
+        journal.close();
+
+        State state = new State();
+        assertFalse(new HashJournal(file).replay(state));
+        assertEquals(2, state.entries.size());
+        assertSameEntry(entry("dir/b.jpg", 3), state.entries.get("dir/b.jpg"));
+        assertSameEntry(entry("c.jpg", 4), state.entries.get("c.jpg"));
+    }
+
+    @Test
+    void replaysClearBetweenPuts() throws IOException {
+        File file = journalFile();
+        HashJournal journal = new HashJournal(file);
+        journal.recordPut(entry("a.jpg", 1));
+        journal.recordClear();
+        journal.recordPut(entry("b.jpg", 2));
+        journal.flush();
+        journal.close();
+
+        State state = new State();
+        new HashJournal(file).replay(state);
+        assertEquals(1, state.entries.size());
+        assertSameEntry(entry("b.jpg", 2), state.entries.get("b.jpg"));
+    }
+
+    @Test
+    void unflushedRecordsAreNotWritten() throws IOException {
+        File file = journalFile();
+        HashJournal journal = new HashJournal(file);
+        journal.recordPut(entry("a.jpg", 1));
+        journal.flush();
+        journal.recordPut(entry("b.jpg", 2));
+        journal.close();
+
+        State state = new State();
+        new HashJournal(file).replay(state);
+        assertEquals(1, state.entries.size());
+        assertNotNull(state.entries.get("a.jpg"));
+    }
+
+    // ====== USZKODZONY OGON ======
+
+    @Test
+    void truncatesIncompleteLastRecord() throws IOException {
+        File file = journalFile();
+        long firstRecordEnd = writeTwoRecords(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        State state = new State();
+        HashJournal journal = new HashJournal(file);
+        journal.replay(state);
+        assertEquals(1, state.entries.size());
+        assertNotNull(state.entries.get("a.jpg"));
+        assertEquals(firstRecordEnd, file.length());
+
+        // Nowe rekordy trafiają za ostatni poprawny, a nie za odcięte bajty
+        journal.recordPut(entry("c.jpg", 3));
+        journal.flush();
+        journal.close();
+        State reopened = new State();
+        new HashJournal(file).replay(reopened);
+        assertEquals(2, reopened.entries.size());
+        assertSameEntry(entry("c.jpg", 3), reopened.entries.get("c.jpg"));
+    }
+
+    @Test
+    void truncatesRecordWithBadChecksum() throws IOException {
+        File file = journalFile();
+        long firstRecordEnd = writeTwoRecords(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // Bajt wewnątrz treści drugiego rekordu
+            long position = firstRecordEnd + Integer.BYTES + 3;
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xFF);
+        }
+
+        State state = new State();
+        new HashJournal(file).replay(state);
+        assertEquals(1, state.entries.size());
+        assertNotNull(state.entries.get("a.jpg"));
+        assertEquals(firstRecordEnd, file.length());
+    }
+
+    @Test
+    void truncatesRecordWithUnknownType() throws IOException {
+        File file = journalFile();
+        writeTwoRecords(file);
+        long validLength = file.length();
+        appendRecord(file, new byte[] {42, 0, 1});
+
+        State state = new State();
+        HashJournal journal = new HashJournal(file);
+        journal.replay(state);
+        assertEquals(2, state.entries.size());
+        assertEquals(validLength, file.length());
+
+        // Rekordy dopisane po odcięciu są odtwarzane przy następnym otwarciu
+        journal.recordPut(entry("c.jpg", 3));
+        journal.flush();
+        journal.close();
+        State reopened = new State();
+        new HashJournal(file).replay(reopened);
+        assertEquals(3, reopened.entries.size());
+        assertSameEntry(entry("c.jpg", 3), reopened.entries.get("c.jpg"));
+    }
+
+    @Test
+    void keepsValidRecordsBeforeShortPayload() throws IOException {
+        File file = journalFile();
+        writeTwoRecords(file);
+        long validLength = file.length();
+        // Rekord dodania z poprawną sumą, urwany po ścieżce
+        appendRecord(file, new byte[] {1, 0, 5, 'c', '.', 'j', 'p', 'g', 0, 0});
+
+        State state = new State();
+        new HashJournal(file).replay(state);
+        assertEquals(2, state.entries.size());
+        assertTrue(file.exists());
+        assertEquals(validLength, file.length());
+    }
+
+    @Test
+    void discardsGarbageAfterValidRecords() throws IOException {
+        File file = journalFile();
+        writeTwoRecords(file);
+        long validLength = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(validLength);
+            raf.writeInt(Integer.MAX_VALUE);
+            raf.writeLong(42);
+        }
+
+        State state = new State();
+        new HashJournal(file).replay(state);
+        assertEquals(2, state.entries.size());
+        assertEquals(validLength, file.length());
+    }
+
+    @Test
+    void deletesJournalWithDamagedHeader() throws IOException {
+        File file = journalFile();
+        writeTwoRecords(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(0);
+        }
+
+        State state = new State();
+        new HashJournal(file).replay(state);
+        assertTrue(state.entries.isEmpty());
+        assertFalse(file.exists());
+    }
+
+    // ====== KOMPAKTOWANIE ======
+
+    @Test
+    void replaysRotatedJournalBeforeCurrentAfterCrash() throws IOException {
+        File file = journalFile();
+        HashJournal journal = new HashJournal(file);
+        journal.recordPut(entry("kept.jpg", 1));
+        journal.recordPut(entry("changed.jpg", 2));
+        journal.recordPut(entry("deleted.jpg", 3));
+        journal.recordDelete("restored.jpg");
+        journal.rotate();
+        assertTrue(journal.isCompacting());
+
+        journal.recordPut(entry("changed.jpg", 20));
+        journal.recordDelete("deleted.jpg");
+        journal.recordPut(entry("restored.jpg", 40));
+        journal.flush();
+        journal.close();
+        // Awaria przed zapisaniem migawki - finishCompaction() nie zostało wywołane
+
+        State state = new State();
+        assertTrue(new HashJournal(file).replay(state));
+        assertEquals(3, state.entries.size());
+        assertSameEntry(entry("kept.jpg", 1), state.entries.get("kept.jpg"));
+        assertSameEntry(entry("changed.jpg", 20), state.entries.get("changed.jpg"));
+        assertSameEntry(entry("restored.jpg", 40), state.entries.get("restored.jpg"));
+    }
+
+    @Test
+    void finishedCompactionLeavesOnlyNewRecords() throws IOException {
+        File file = journalFile();
+        HashJournal journal = new HashJournal(file);
+        journal.recordPut(entry("old.jpg", 1));
+        journal.rotate();
+        journal.recordPut(entry("new.jpg", 2));
+        journal.flush();
+        journal.finishCompaction();
+        journal.close();
+
+        State state = new State();
+        HashJournal reopened = new HashJournal(file);
+        assertFalse(reopened.isCompacting());
+        assertFalse(reopened.replay(state));
+        assertEquals(1, state.entries.size());
+        assertNotNull(state.entries.get("new.jpg"));
+    }
+
+    @Test
+    void needsCompactionCountsReplayedAndFlushedRecords() throws IOException {
+        File file = journalFile();
+        HashJournal journal = new HashJournal(file);
+        for (int i = 0; i < 10; i++) {
+            journal.recordPut(entry("file" + i + ".jpg", i + 1));
+        }
+        journal.flush();
+        assertTrue(journal.needsCompaction(10, 10));
+        assertFalse(journal.needsCompaction(10, 11));
+        journal.close();
+
+        HashJournal reopened = new HashJournal(file);
+        reopened.replay(new State());
+        assertTrue(reopened.needsCompaction(10, 10));
+        reopened.rotate();
+        assertFalse(reopened.needsCompaction(0, 1));
+        reopened.close();
+    }
+
+    // ====== POMOCNICZE ======
+
+    private File journalFile() {
+        return tempDir.resolve("hashes.journal").toFile();
+    }
+
+    /** Zwraca długość pliku po pierwszym rekordzie. */
+    private static long writeTwoRecords(File file) throws IOException {
+        HashJournal journal = new HashJournal(file);
+        journal.recordPut(entry("a.jpg", 1));
+        journal.flush();
+        long firstRecordEnd = file.length();
+        journal.recordPut(entry("b.jpg", 2));
+        journal.flush();
+        journal.close();
+        return firstRecordEnd;
+    }
+
+    /** Dopisuje na koniec pliku rekord o podanej treści i poprawnej sumie kontrolnej. */
+    private static void appendRecord(File file, byte[] payload) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(payload.length);
+            raf.write(payload);
+            raf.writeInt((int) crc.getValue());
+        }
+    }
+
+    private static HashStorageService.FileHashInfo entry(String path, long hash) {
+        HashStorageService.FileHashInfo info = new HashStorageService.FileHashInfo(path, hash, 1_700_000_000_000L + hash, 1000 + hash);
+        info.setFullHash(hash * 31);
+        info.setSampleVersion((int) (hash % 3));
+        return info;
+    }
+
+    private static void assertSameEntry(HashStorageService.FileHashInfo expected, HashStorageService.FileHashInfo actual) {
+        assertNotNull(actual, expected.getRelativePath());
+        assertEquals(expected.getRelativePath(), actual.getRelativePath());
+        assertEquals(expected.getHash(), actual.getHash());
+        assertEquals(expected.getFullHash(), actual.getFullHash());
+        assertEquals(expected.getSampleVersion(), actual.getSampleVersion());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+        assertEquals(expected.getFileSize(), actual.getFileSize());
+    }
+
+    private static final class State implements HashJournal.Replay {
+        final Map<String, HashStorageService.FileHashInfo> entries = new LinkedHashMap<>();
+
+        @Override
+        public void put(HashStorageService.FileHashInfo info) { entries.put(info.getRelativePath(), info); }
+
+        @Override
+        public void delete(String relativePath) { entries.remove(relativePath); }
+
+        @Override
+        public void clear() { entries.clear(); }
+    }
+}
@@ -0,0 +1,225 @@
+package org.example.service;
+
+import net.openhft.hashing.LongHashFunction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Zmapowany indeks haszy: zapis i odczyt rekordów oraz wyszukiwanie, gdy klucze w tablicach
+ * mają te same górne 32 bity (zapisane w szczelinie) i muszą być rozróżnione po rekordzie.
+ */
+class MappedHashIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    // ====== ZAPIS I ODCZYT ======
+
+    @Test
+    void writesAndOpensAllRecords() throws IOException {
+        Random random = new Random(17);
+        List<HashStorageService.FileHashInfo> entries = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            HashStorageService.FileHashInfo info = new HashStorageService.FileHashInfo(
+                "dir" + (i % 13) + "/zdjęcie_" + i + ".jpg", random.nextLong() | 1, random.nextLong(), random.nextInt(1 << 30));
+            if (i % 3 == 0) info.setFullHash(random.nextLong() | 1);
+            info.setSampleVersion(i % 2);
+            entries.add(info);
+        }
+
+        MappedHashIndex index = writeAndOpen(entries);
+        assertEquals(entries.size(), index.size());
+        for (HashStorageService.FileHashInfo expected : entries) {
+            int record = index.findByPath(expected.getRelativePath());
+            assertTrue(record >= 0, expected.getRelativePath());
+            assertSameEntry(expected, index.get(record));
+            assertEquals(expected.getFileSize(), index.fileSize(record));
+            assertEquals(List.of(record), recordsWithHash(index, expected.getHash()));
+            if (expected.getFullHash() != 0) {
+                assertEquals(List.of(record), recordsWithHash(index, expected.getFullHash()));
+            }
+        }
+        assertEquals(-1, index.findByPath("dir0/missing.jpg"));
+        assertEquals(List.of(), recordsWithHash(index, 0));
+    }
+
+    @Test
+    void storesPathsWithMultiByteCharacters() throws IOException {
+        List<HashStorageService.FileHashInfo> entries = List.of(
+            entry("zdjęcia/żółw.jpg", 1, 0), entry("写真/猫.png", 2, 0), entry("emoji/😀🐈.gif", 3, 0));
+        MappedHashIndex index = writeAndOpen(entries);
+        for (HashStorageService.FileHashInfo expected : entries) {
+            assertEquals(expected.getRelativePath(), index.path(index.findByPath(expected.getRelativePath())));
+        }
+    }
+
+    @Test
+    void opensEmptyIndex() throws IOException {
+        MappedHashIndex index = writeAndOpen(List.of());
+        assertEquals(0, index.size());
+        assertEquals(-1, index.findByPath("a.jpg"));
+        assertEquals(List.of(), recordsWithHash(index, 42));
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        File file = tempDir.resolve("index.bin").toFile();
+        MappedHashIndex.write(file, List.of(entry("a.jpg", 1, 0), entry("b.jpg", 2, 0))::forEach);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertThrows(IOException.class, () -> MappedHashIndex.open(file));
+    }
+
+    // ====== GENERACJE ======
+
+    @Test
+    void publishesNewGenerationWhileOldOneIsMapped() throws IOException {
+        File pointer = tempDir.resolve("index.idx").toFile();
+        File first = MappedHashIndex.publish(pointer, List.of(entry("a.jpg", 1, 0), entry("b.jpg", 2, 0))::forEach);
+        assertEquals(first, MappedHashIndex.current(pointer));
+        MappedHashIndex mapped = MappedHashIndex.open(first);
+
+        // Kompaktowanie w trakcie sesji: poprzednia generacja jest wciąż zmapowana
+        File second = MappedHashIndex.publish(pointer,
+            List.of(entry("a.jpg", 1, 0), entry("c.jpg", 3, 0), entry("d.jpg", 4, 0))::forEach);
+        assertNotEquals(first, second);
+        assertEquals(second, MappedHashIndex.current(pointer));
+        MappedHashIndex.deleteStale(pointer);
+
+        // Zmapowany widok nadal pokazuje stan sprzed kompaktowania
+        assertEquals(2, mapped.size());
+        assertEquals("b.jpg", mapped.path(mapped.findByPath("b.jpg")));
+        assertEquals(-1, mapped.findByPath("c.jpg"));
+
+        MappedHashIndex published = MappedHashIndex.open(MappedHashIndex.current(pointer));
+        assertEquals(3, published.size());
+        assertEquals(-1, published.findByPath("b.jpg"));
+        assertTrue(published.findByPath("d.jpg") >= 0);
+    }
+
+    @Test
+    void deletesStaleGenerationsButKeepsCurrent() throws IOException {
+        File pointer = tempDir.resolve("index.idx").toFile();
+        File first = MappedHashIndex.publish(pointer, List.of(entry("a.jpg", 1, 0))::forEach);
+        File second = MappedHashIndex.publish(pointer, List.of(entry("b.jpg", 2, 0))::forEach);
+        File leftover = new File(pointer.getPath() + ".7.tmp");
+        Files.write(leftover.toPath(), new byte[] {1});
+
+        MappedHashIndex.deleteStale(pointer);
+        assertFalse(first.exists());
+        assertFalse(leftover.exists());
+        assertTrue(second.exists());
+        assertEquals(second, MappedHashIndex.current(pointer));
+
+        // Numeracja rośnie dalej mimo usuniętych generacji
+        File third = MappedHashIndex.publish(pointer, List.of(entry("c.jpg", 3, 0))::forEach);
+        assertNotEquals(second, third);
+        assertEquals(third, MappedHashIndex.current(pointer));
+    }
+
+    @Test
+    void ignoresMissingOrForeignPointer() throws IOException {
+        File pointer = tempDir.resolve("index.idx").toFile();
+        assertNull(MappedHashIndex.current(pointer));
+        // Indeks zapisany pod nazwą wskaźnika przez wcześniejszą wersję
+        MappedHashIndex.write(pointer, List.of(entry("a.jpg", 1, 0))::forEach);
+        assertNull(MappedHashIndex.current(pointer));
+    }
+
+    // ====== KOLIZJE GÓRNYCH 32 BITÓW ======
+
+    @Test
+    void findsPathsWhoseHashesShareUpperBits() throws IOException {
+        LongHashFunction pathHash = LongHashFunction.xx3();
+        Map<Integer, String> byUpperBits = new HashMap<>();
+        List<HashStorageService.FileHashInfo> entries = new ArrayList<>();
+        for (int i = 0; entries.size() < 6; i++) {
+            String path = "photos/IMG_" + i + ".jpg";
+            String previous = byUpperBits.putIfAbsent((int) (pathHash.hashChars(path) >>> 32), path);
+            if (previous != null) {
+                entries.add(entry(previous, entries.size() + 1, 0));
+                entries.add(entry(path, entries.size() + 1, 0));
+            }
+        }
+        entries.add(entry("photos/other.jpg", 100, 0));
+
+        MappedHashIndex index = writeAndOpen(entries);
+        for (int record = 0; record < entries.size(); record++) {
+            assertEquals(record, index.findByPath(entries.get(record).getRelativePath()));
+        }
+        assertEquals(-1, index.findByPath("photos/IMG_missing.jpg"));
+    }
+
+    @Test
+    void separatesContentHashesSharingUpperBits() throws IOException {
+        long upper = 0x5A5A_1234_0000_0000L;
+        List<HashStorageService.FileHashInfo> entries = List.of(
+            entry("a.jpg", upper | 1, 0),
+            entry("b.jpg", upper | 2, upper | 3),
+            entry("c.jpg", upper | 4, 0),
+            entry("copy-of-a.jpg", upper | 1, 0),
+            entry("d.jpg", 7, upper | 2));
+
+        MappedHashIndex index = writeAndOpen(entries);
+        assertEquals(List.of(0, 3), sorted(recordsWithHash(index, upper | 1)));
+        // Hasz podstawowy jednego rekordu i pełny innego
+        assertEquals(List.of(1, 4), sorted(recordsWithHash(index, upper | 2)));
+        assertEquals(List.of(1), recordsWithHash(index, upper | 3));
+        assertEquals(List.of(2), recordsWithHash(index, upper | 4));
+        assertEquals(List.of(4), recordsWithHash(index, 7));
+        assertEquals(List.of(), recordsWithHash(index, upper | 5));
+    }
+
+    // ====== POMOCNICZE ======
+
+    private MappedHashIndex writeAndOpen(List<HashStorageService.FileHashInfo> entries) throws IOException {
+        File file = tempDir.resolve("index.bin").toFile();
+        MappedHashIndex.write(file, entries::forEach);
+        return MappedHashIndex.open(file);
+    }
+
+    private static List<Integer> recordsWithHash(MappedHashIndex index, long hash) {
+        List<Integer> records = new ArrayList<>();
+        index.forEachWithHash(hash, records::add);
+        return records;
+    }
+
+    private static List<Integer> sorted(List<Integer> records) {
+        records.sort(null);
+        return records;
+    }
+
+    private static HashStorageService.FileHashInfo entry(String path, long hash, long fullHash) {
+        HashStorageService.FileHashInfo info = new HashStorageService.FileHashInfo(path, hash, 1_700_000_000_000L, 1000 + hash);
+        info.setFullHash(fullHash);
+        return info;
+    }
+
+    private static void assertSameEntry(HashStorageService.FileHashInfo expected, HashStorageService.FileHashInfo actual) {
+        assertEquals(expected.getRelativePath(), actual.getRelativePath());
+        assertEquals(expected.getHash(), actual.getHash());
+        assertEquals(expected.getFullHash(), actual.getFullHash());
+        assertEquals(expected.getSampleVersion(), actual.getSampleVersion());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+        assertEquals(expected.getFileSize(), actual.getFileSize());
+    }
+}
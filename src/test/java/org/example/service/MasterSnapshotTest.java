@@ -0,0 +1,123 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Migawka złożona ze zmapowanego indeksu i zmian w pamięci: wyszukiwanie po kluczu zawartości
+ * oraz po nazwie i rozmiarze daje te same wyniki w obu warstwach, z pominięciem zacienionych rekordów.
+ */
+class MasterSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void matchesOnlyContentKeyInMappedLayer() throws IOException {
+        // W trybie FULL kluczem dużego pliku jest hasz pełny - próbkowany nie może go znaleźć
+        MasterSnapshot snapshot = snapshot(List.of(entry("big.mkv", 5, 50), entry("small.jpg", 6, 0)), true);
+        assertNull(snapshot.findByContentHash(5));
+        assertEquals(List.of(), snapshot.findAllByContentHash(5));
+        assertEquals("big.mkv", snapshot.findByContentHash(50).getRelativePath());
+        assertEquals("small.jpg", snapshot.findByContentHash(6).getRelativePath());
+
+        MasterSnapshot sampled = snapshot(List.of(entry("big.mkv", 5, 50)), false);
+        assertEquals("big.mkv", sampled.findByContentHash(5).getRelativePath());
+        assertNull(sampled.findByContentHash(50));
+    }
+
+    @Test
+    void findsNameAndSizeInBothLayers() throws IOException {
+        File file = tempDir.resolve("names.idx").toFile();
+        MappedHashIndex.write(file, List.of(sized("a/IMG_1.jpg", 100), sized("b/IMG_1.jpg", 200),
+            sized("c/moved.jpg", 300), sized("zdjęcie.jpg", 400))::forEach);
+        MappedHashIndex index = MappedHashIndex.open(file);
+        ShadowedRecords shadowed = new ShadowedRecords(index.size());
+        HashEntryStore changes = new HashEntryStore(false);
+        // Plik z indeksu zmienił rozmiar, a inny został usunięty - rekordy są zacienione
+        shadowed.add(index.findByPath("b/IMG_1.jpg"));
+        changes.put(sized("b/IMG_1.jpg", 250));
+        shadowed.add(index.findByPath("c/moved.jpg"));
+        changes.put(sized("new/clip.mp4", 500));
+        changes.put(sized("new/other.mp4", 600));
+        changes.remove("new/other.mp4");
+
+        MasterSnapshot snapshot = new MasterSnapshot(1, index, shadowed.freeze(), changes.freeze(), false);
+        assertTrue(snapshot.containsNameAndSize("IMG_1.jpg", 100));
+        assertTrue(snapshot.containsNameAndSize("IMG_1.jpg", 250));
+        assertFalse(snapshot.containsNameAndSize("IMG_1.jpg", 200));
+        assertFalse(snapshot.containsNameAndSize("moved.jpg", 300));
+        assertTrue(snapshot.containsNameAndSize("zdjęcie.jpg", 400));
+        assertTrue(snapshot.containsNameAndSize("clip.mp4", 500));
+        assertFalse(snapshot.containsNameAndSize("other.mp4", 600));
+        // Nazwa musi być całym składnikiem ścieżki
+        assertFalse(snapshot.containsNameAndSize("G_1.jpg", 100));
+
+        // Zmiany po zamrożeniu nie są widoczne w migawce
+        changes.put(sized("late.jpg", 700));
+        assertFalse(snapshot.containsNameAndSize("late.jpg", 700));
+    }
+
+    @Test
+    void writesIndexStraightFromSnapshot() throws IOException {
+        File file = tempDir.resolve("layers.idx").toFile();
+        MappedHashIndex.write(file, List.of(sized("a.jpg", 100), sized("b.jpg", 200), sized("c.jpg", 300))::forEach);
+        MappedHashIndex index = MappedHashIndex.open(file);
+        ShadowedRecords shadowed = new ShadowedRecords(index.size());
+        HashEntryStore changes = new HashEntryStore(false);
+        shadowed.add(index.findByPath("b.jpg"));
+        changes.put(sized("b.jpg", 250));
+        shadowed.add(index.findByPath("c.jpg"));
+        changes.put(sized("d/ąę.jpg", 400));
+        MasterSnapshot snapshot = new MasterSnapshot(1, index, shadowed.freeze(), changes.freeze(), false);
+
+        // Kompaktowanie: oba pliki zapisywane wprost z warstw migawki
+        File compacted = tempDir.resolve("compacted.idx").toFile();
+        MappedHashIndex.write(compacted, snapshot::forEach);
+        File json = tempDir.resolve("compacted.json").toFile();
+        HashFileCodec.write(json, snapshot::forEach);
+
+        MappedHashIndex written = MappedHashIndex.open(compacted);
+        assertEquals(3, written.size());
+        assertEquals(100, written.fileSize(written.findByPath("a.jpg")));
+        assertEquals(250, written.fileSize(written.findByPath("b.jpg")));
+        assertEquals(-1, written.findByPath("c.jpg"));
+        assertEquals(400, written.fileSize(written.findByPath("d/ąę.jpg")));
+
+        List<String> paths = new ArrayList<>();
+        HashFileCodec.read(json, info -> paths.add(info.getRelativePath() + "|" + info.getFileSize()));
+        paths.sort(null);
+        assertEquals(List.of("a.jpg|100", "b.jpg|250", "d/ąę.jpg|400"), paths);
+    }
+
+    // ====== POMOCNICZE ======
+
+    private MasterSnapshot snapshot(List<HashStorageService.FileHashInfo> indexed, boolean fullHashKeys) throws IOException {
+        File file = tempDir.resolve(fullHashKeys ? "full.idx" : "sampled.idx").toFile();
+        MappedHashIndex.write(file, indexed::forEach);
+        MappedHashIndex index = MappedHashIndex.open(file);
+        return new MasterSnapshot(1, index, new ShadowedRecords(index.size()).freeze(),
+            new HashEntryStore(fullHashKeys).freeze(), fullHashKeys);
+    }
+
+    private static HashStorageService.FileHashInfo sized(String path, long fileSize) {
+        return new HashStorageService.FileHashInfo(path, fileSize * 7 + 1, 1_700_000_000_000L, fileSize);
+    }
+
+    private static HashStorageService.FileHashInfo entry(String path, long hash, long fullHash) {
+        HashStorageService.FileHashInfo info = new HashStorageService.FileHashInfo(path, hash, 1_700_000_000_000L, 1000 + hash);
+        info.setFullHash(fullHash);
+        return info;
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Filtr rozmiarów: pierwszy plik o danym rozmiarze staje się kandydatem dopiero przy kolizji
+ * (i tylko raz), a pozycje nadane przez odbiorcę trafiają do plików w kolejności przeglądania.
+ */
+class SizeCollisionFilterTest {
+
+    @Test
+    void backFillsFirstFileOfCollidingSize() throws InterruptedException {
+        List<String> accepted = new ArrayList<>();
+        SizeCollisionFilter filter = new SizeCollisionFilter(Set.of(), (file, _) -> {
+            accepted.add(file.getName());
+            return accepted.size() - 1;
+        });
+        filter.add(sized("a.jpg", 10));
+        filter.add(sized("b.jpg", 20));
+        assertEquals(List.of(), accepted);
+
+        filter.add(sized("c.jpg", 10));
+        // Wcześniejszy plik o tym rozmiarze trafia do odbiorcy przed tym, który wykrył kolizję
+        assertEquals(List.of("a.jpg", "c.jpg"), accepted);
+        filter.add(sized("d.jpg", 10));
+        assertEquals(List.of("a.jpg", "c.jpg", "d.jpg"), accepted);
+        filter.finish();
+
+        assertEquals(4, filter.size());
+        assertEquals(3, filter.candidateCount());
+        assertEquals(1, filter.skippedCount());
+        assertTrue(filter.isCandidate(0));
+        assertFalse(filter.isCandidate(1));
+        assertEquals(List.of(0, 1, 2), List.of(filter.slot(0), filter.slot(2), filter.slot(3)));
+    }
+
+    @Test
+    void masterSizeMakesSingleFileCandidate() throws InterruptedException {
+        List<String> accepted = new ArrayList<>();
+        SizeCollisionFilter filter = new SizeCollisionFilter(Set.of(10L), (file, _) -> {
+            accepted.add(file.getName());
+            return accepted.size() - 1;
+        });
+        filter.add(sized("a.jpg", 10));
+        filter.add(sized("b.jpg", 20));
+        filter.add(sized("c.jpg", 10));
+        filter.finish();
+
+        assertEquals(List.of("a.jpg", "c.jpg"), accepted);
+        assertEquals(List.of(true, false, true), List.of(filter.isCandidate(0), filter.isCandidate(1), filter.isCandidate(2)));
+    }
+
+    @Test
+    void growsBeyondInitialCapacity() throws InterruptedException {
+        List<Long> acceptedSizes = new ArrayList<>();
+        SizeCollisionFilter filter = new SizeCollisionFilter(Set.of(), (_, size) -> {
+            acceptedSizes.add(size);
+            return acceptedSizes.size() - 1;
+        });
+        for (int i = 0; i < 3000; i++) {
+            // Co trzeci plik ma rozmiar, który powtarza się raz
+            filter.add(sized("f" + i + ".jpg", i % 3 == 0 ? i / 3 % 500 : 1_000_000 + i));
+        }
+        filter.finish();
+
+        assertEquals(3000, filter.size());
+        assertEquals(1000, filter.candidateCount());
+        for (int i = 0; i < filter.size(); i++) {
+            assertEquals(i % 3 == 0, filter.isCandidate(i), "file " + i);
+            assertEquals(i % 3 == 0 ? i / 3 % 500 : 1_000_000 + i, filter.fileSize(i));
+            if (filter.isCandidate(i)) assertEquals(filter.fileSize(i), acceptedSizes.get(filter.slot(i)).longValue());
+        }
+    }
+
+    // ====== POMOCNICZE ======
+
+    private static File sized(String name, long size) {
+        return new File(name) {
+            @Override
+            public long length() { return size; }
+        };
+    }
+}
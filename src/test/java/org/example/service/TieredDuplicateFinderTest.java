@@ -0,0 +1,140 @@
+package org.example.service;
+
+import org.example.model.BackupConfiguration.HashMode;
+import org.example.model.DetectionTierStats;
+import org.example.util.HashCodes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Etapy wyszukiwania duplikatów na małych plikach: każdy etap wyklucza tylko pliki, których
+ * grupa (rozmiar, hasz) nie ma innego pliku źródłowego ani wpisu folderu głównego, a ocalali
+ * przechodzą do następnego etapu razem z pasującymi wpisami folderu głównego.
+ */
+class TieredDuplicateFinderTest {
+
+    private static final int SIZE = 3 * FileHasher.HEAD_BLOCK_SIZE;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void eachTierKeepsOnlyCollidingGroups() throws IOException, InterruptedException {
+        File masterDir = Files.createDirectories(tempDir.resolve("master")).toFile();
+        byte[] masterContent = random(SIZE, 1);
+        byte[] shared = random(SIZE, 2);
+        byte[] sharedHeadOnly = shared.clone();
+        sharedHeadOnly[SIZE - 1] ^= 1; // ten sam pierwszy blok, inna reszta
+        byte[] small = random(1000, 3);
+
+        File master = write(masterDir, "m1.jpg", masterContent);
+        // Wpis folderu głównego o tym samym rozmiarze, ale innej zawartości - odpada na pierwszym bloku
+        File otherMaster = write(masterDir, "m2.jpg", random(SIZE, 4));
+        HashEntryStore entries = new HashEntryStore(false);
+        entries.put(entryFor(master, "m1.jpg"));
+        entries.put(entryFor(otherMaster, "m2.jpg"));
+        MasterSnapshot snapshot = new MasterSnapshot(1, null, null, entries.freeze(), false);
+
+        File sourceDir = Files.createDirectories(tempDir.resolve("source")).toFile();
+        List<File> sources = List.of(
+            write(sourceDir, "copy-of-m1.jpg", masterContent),
+            write(sourceDir, "a.jpg", shared),
+            write(sourceDir, "b.jpg", sharedHeadOnly),
+            write(sourceDir, "c.jpg", random(SIZE, 5)),
+            write(sourceDir, "unique-size.jpg", random(SIZE + 1, 6)),
+            write(sourceDir, "small1.jpg", small),
+            write(sourceDir, "small2.jpg", small));
+
+        TieredDuplicateFinder.Result result;
+        MultiThreadedHashCalculator calculator = new MultiThreadedHashCalculator(2, HashMode.SAMPLED);
+        try (TieredDuplicateFinder finder = new TieredDuplicateFinder(calculator, masterDir, false)) {
+            finder.begin(snapshot, _ -> (_, _, _, _) -> {}, () -> false);
+            for (File source : sources) finder.accept(source);
+            result = finder.finish();
+        }
+
+        List<DetectionTierStats> tiers = result.tierStats();
+        assertEquals(3, tiers.size());
+        assertTier(tiers.get(0), "Size", 7, 1);
+        // c.jpg nie pasuje do niczego już w pierwszym bloku
+        assertTier(tiers.get(1), "Head block", 6, 1);
+        // a.jpg i b.jpg różnią się dopiero za pierwszym blokiem
+        assertTier(tiers.get(2), "Sampled hash", 5, 2);
+
+        long masterHash = entryFor(master, "m1.jpg").getHash();
+        long[] hashes = result.contentHashes();
+        assertEquals(masterHash, hashes[0]);
+        assertEquals(1, result.masterMatches().size());
+        assertEquals("m1.jpg", result.masterMatches().get(masterHash).getRelativePath());
+        assertNotEquals(hashes[1], hashes[2]);
+        assertFalse(HashCodes.isPresent(hashes[3]), "eliminated at head block");
+        assertFalse(HashCodes.isPresent(hashes[4]), "eliminated by size");
+        assertTrue(HashCodes.isPresent(hashes[5]));
+        assertEquals(hashes[5], hashes[6]);
+        assertTrue(result.failed().isEmpty());
+    }
+
+    @Test
+    void masterEntryWithoutSourceOfSameSizeIsNotRead() throws IOException, InterruptedException {
+        File masterDir = Files.createDirectories(tempDir.resolve("master")).toFile();
+        File master = write(masterDir, "m1.jpg", random(SIZE, 1));
+        HashEntryStore entries = new HashEntryStore(false);
+        entries.put(entryFor(master, "m1.jpg"));
+        // Plik wpisu znika - przy odczycie byłby błąd
+        Files.delete(master.toPath());
+
+        File sourceDir = Files.createDirectories(tempDir.resolve("source")).toFile();
+        TieredDuplicateFinder.Result result;
+        try (TieredDuplicateFinder finder = new TieredDuplicateFinder(
+                new MultiThreadedHashCalculator(2, HashMode.SAMPLED), masterDir, false)) {
+            finder.begin(new MasterSnapshot(1, null, null, entries.freeze(), false), _ -> (_, _, _, _) -> {}, () -> false);
+            finder.accept(write(sourceDir, "a.jpg", random(SIZE + 1, 2)));
+            finder.accept(write(sourceDir, "b.jpg", random(SIZE + 2, 3)));
+            result = finder.finish();
+        }
+
+        assertTier(result.tierStats().get(0), "Size", 2, 2);
+        assertEquals(0, result.masterMatches().size());
+        assertTrue(result.failed().isEmpty());
+    }
+
+    // ====== POMOCNICZE ======
+
+    private static void assertTier(DetectionTierStats stats, String name, int candidates, int eliminated) {
+        assertEquals(name, stats.tierName());
+        assertEquals(candidates, stats.candidates(), name + " candidates");
+        assertEquals(eliminated, stats.eliminated(), name + " eliminated");
+    }
+
+    private static HashStorageService.FileHashInfo entryFor(File file, String relativePath) throws IOException {
+        try (FileChannel channel = FileHasher.open(file)) {
+            long hash = new FileHasher().hash(channel, SamplePlan.forFile(file));
+            return new HashStorageService.FileHashInfo(relativePath, hash, file.lastModified(), file.length());
+        }
+    }
+
+    private static File write(File directory, String name, byte[] content) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Mapa z kluczem {@code long}: usuwanie z przesunięciem wstecz, gdy łańcuch sondowania
+ * przechodzi przez koniec tablicy, i zgodność z {@link HashMap} przy losowych operacjach.
+ */
+class LongObjectHashMapTest {
+
+    // ====== ŁAŃCUCHY PRZEZ KONIEC TABLICY ======
+
+    @Test
+    void removesFromChainWrappingAroundTable() {
+        int mask = LongObjectHashMap.capacityFor(4) - 1;
+        // Łańcuch zajmuje ostatnie szczeliny i początek tablicy
+        List<Long> keys = new ArrayList<>();
+        keys.addAll(ProbeKeys.withHome(mask, mask, 3, 1));
+        keys.addAll(ProbeKeys.withHome(mask - 1, mask, 1, 1000));
+        keys.addAll(ProbeKeys.withHome(0, mask, 2, 2000));
+
+        for (int removed = 0; removed < keys.size(); removed++) {
+            LongObjectHashMap<String> map = new LongObjectHashMap<>(4);
+            for (long key : keys) map.put(key, "v" + key);
+
+            assertEquals("v" + keys.get(removed), map.remove(keys.get(removed)));
+            assertEquals(keys.size() - 1, map.size());
+            for (int i = 0; i < keys.size(); i++) {
+                if (i == removed) {
+                    assertFalse(map.containsKey(keys.get(i)));
+                } else {
+                    assertEquals("v" + keys.get(i), map.get(keys.get(i)), "key " + i + " after removing " + removed);
+                }
+            }
+        }
+    }
+
+    @Test
+    void removesWholeWrappedChainInAnyOrder() {
+        int mask = LongObjectHashMap.capacityFor(4) - 1;
+        List<Long> keys = ProbeKeys.withHome(mask, mask, 6, 1);
+        LongObjectHashMap<String> map = new LongObjectHashMap<>(4);
+        for (long key : keys) map.put(key, "v" + key);
+
+        for (int i : new int[] {2, 0, 5, 3, 1, 4}) {
+            map.remove(keys.get(i));
+            assertNull(map.get(keys.get(i)));
+        }
+        assertTrue(map.isEmpty());
+        for (long key : keys) assertNull(map.get(key));
+    }
+
+    // ====== ZGODNOŚĆ Z MAPĄ ======
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            int keyRange = seed % 2 == 0 ? 12 : 2000;
+            LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+            Map<Long, Long> expected = new HashMap<>();
+            for (int step = 0; step < 5000; step++) {
+                long key = 1 + random.nextInt(keyRange);
+                switch (random.nextInt(3)) {
+                    case 0 -> assertEquals(expected.remove(key), map.remove(key));
+                    case 1 -> assertEquals(expected.put(key, (long) step), map.put(key, (long) step));
+                    default -> assertEquals(expected.get(key), map.get(key));
+                }
+                assertEquals(expected.size(), map.size());
+            }
+            Map<Long, Long> contents = new HashMap<>();
+            map.forEach(contents::put);
+            assertEquals(expected, contents);
+        }
+    }
+
+    @Test
+    void rejectsReservedKeyAndNullValue() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        assertThrows(IllegalArgumentException.class, () -> map.put(HashCodes.NO_HASH, "x"));
+        assertThrows(NullPointerException.class, () -> map.put(1, null));
+        assertNull(map.get(HashCodes.NO_HASH));
+        assertNull(map.remove(HashCodes.NO_HASH));
+    }
+}
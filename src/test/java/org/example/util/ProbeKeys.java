@@ -0,0 +1,22 @@
+package org.example.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Klucze o zadanej szczelinie startowej ({@link HashCodes#mix}) - do budowania łańcuchów
+ * sondowania, które przechodzą przez koniec tablicy.
+ */
+public final class ProbeKeys {
+
+    private ProbeKeys() {}
+
+    /** Pierwsze {@code count} kluczy od {@code start}, których szczelina startowa to {@code home}. */
+    public static List<Long> withHome(int home, int mask, int count, long start) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = start; keys.size() < count; key++) {
+            if ((HashCodes.mix(key) & mask) == home) keys.add(key);
+        }
+        return keys;
+    }
+}